@@ -1,13 +1,26 @@
 package cn.hedeoer;
 
+import cn.hedeoer.schedule.AdaptiveScheduler;
 import cn.hedeoer.schedule.HeartBeat;
+import cn.hedeoer.schedule.HostTelemetrySampler;
+import cn.hedeoer.schedule.MetricsShipper;
 import cn.hedeoer.schedule.PortInfoReport;
+import cn.hedeoer.schedule.ReplyStreamTrimmer;
+import cn.hedeoer.schedule.ScheduleConfig;
+import cn.hedeoer.schedule.TelemetryConfig;
+import cn.hedeoer.subscribe.StreamConfig;
+import cn.hedeoer.subscribe.StreamDispatcher;
+import cn.hedeoer.subscribe.StreamEntryHandler;
 import cn.hedeoer.subscribe.streamadapter.FirewallOpAdapter;
 import cn.hedeoer.subscribe.streamadapter.FirewallStatusInfoAdapter;
 import cn.hedeoer.subscribe.streamadapter.PortInfoAdapter;
+import cn.hedeoer.subscribe.transport.JedisTransport;
+import cn.hedeoer.subscribe.transport.MessageTransport;
+import cn.hedeoer.util.AgentIdUtil;
 import cn.hedeoer.util.InitUtil;
 import cn.hedeoer.util.ThreadPoolUtil;
 
+import java.util.List;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -48,25 +61,57 @@ public class Main {
 
         // 2. 使用独立的线程池处理消费任务
         ThreadPoolExecutor consumerPool =
-                ThreadPoolUtil.createThreadPool(3, 3, 60, TimeUnit.SECONDS,
-                        3, "consumer-pool");
-
-        // 3. 分别启动任务
-        FirewallOpAdapter adapter = new FirewallOpAdapter();
-        consumerPool.execute(adapter);
-
-        PortInfoAdapter portInfoAdapter =  new PortInfoAdapter();
-        consumerPool.execute(portInfoAdapter);
-
-        FirewallStatusInfoAdapter firewallStatusInfoAdapter = new FirewallStatusInfoAdapter();
-        consumerPool.execute(firewallStatusInfoAdapter);
-
-
-        HeartBeat heartBeat = new HeartBeat(30);  // 30秒间隔
-        PortInfoReport portInfoReport = new PortInfoReport(40); //  40秒间隔
+                ThreadPoolUtil.createThreadPool(1, 1, 60, TimeUnit.SECONDS,
+                        1, "consumer-pool");
+
+        // 消费命令、发布响应以及上报心跳和端口信息都通过 redis 传输
+        StreamConfig streamConfig = StreamConfig.load();
+        MessageTransport transport = new JedisTransport(streamConfig);
+
+        // 定时心跳和 OPTIONS 命令手动触发的心跳共用同一个心跳实例和传输连接
+        ScheduleConfig scheduleConfig = ScheduleConfig.load();
+        HostTelemetrySampler telemetrySampler = HostTelemetrySampler.getInstance();
+        HeartBeat heartBeat = new HeartBeat((int) scheduleConfig.getHeartbeat().getIntervalSeconds(), transport,
+                telemetrySampler, scheduleConfig.getMetricChangeThreshold());
+
+        // 3. 启动任务：一个连接、一次 XREADGROUP 读取全部命令stream，再路由给各自的处理器
+        List<StreamEntryHandler> handlers = List.of(
+                new FirewallOpAdapter(heartBeat),
+                new PortInfoAdapter(),
+                new FirewallStatusInfoAdapter());
+        StreamDispatcher dispatcher = new StreamDispatcher(handlers, streamConfig, transport);
+        consumerPool.execute(dispatcher);
+
+
+        // 宿主机指标在后台采样，心跳只读取最新值，不再占用定时任务线程等待CPU采样；
+        // 采样使用独立的单线程定时任务，端口扫描、指标上报等较慢的任务不会让采样停顿
+        TelemetryConfig telemetryConfig = TelemetryConfig.load();
+        ScheduledThreadPoolExecutor samplerPool =
+                ThreadPoolUtil.createScheduledThreadPool(1, "telemetry-sampler");
+        samplerPool.scheduleAtFixedRate(telemetrySampler, 0,
+                telemetryConfig.getSampleIntervalMillis(), TimeUnit.MILLISECONDS);
+        // 所有写 redis 的定时任务的首次执行时间由 agentId 错开，同时重启的大量 agent节点不会同时上报
+        String agentId = AgentIdUtil.loadOrCreateUUID();
 
-        scheduledPool.scheduleAtFixedRate(heartBeat, 0, 30, TimeUnit.SECONDS);
-        scheduledPool.scheduleAtFixedRate(portInfoReport, 0, 40, TimeUnit.SECONDS);
+        // 高精度的采样批量上报到 metrics:agentId，不需要每次采样都写 redis
+        if (telemetryConfig.getShipIntervalMillis() > 0) {
+            scheduledPool.scheduleAtFixedRate(new MetricsShipper(telemetrySampler.getRing(), transport),
+                    AdaptiveScheduler.phaseOffset(agentId, "metrics", telemetryConfig.getShipIntervalMillis()),
+                    telemetryConfig.getShipIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        // 心跳和端口上报：带抖动，内容变化时缩短间隔，长时间稳定时放长间隔
+        PortInfoReport portInfoReport = new PortInfoReport((int) scheduleConfig.getPortInfo().getIntervalSeconds(), transport);
+
+        new AdaptiveScheduler("heartbeat", heartBeat, heartBeat::lastRunChanged, scheduleConfig.getHeartbeat(),
+                scheduleConfig.getJitterRatio(), agentId, scheduledPool).start();
+        new AdaptiveScheduler("portInfo", portInfoReport, portInfoReport::lastRunChanged, scheduleConfig.getPortInfo(),
+                scheduleConfig.getJitterRatio(), agentId, scheduledPool).start();
+
+        // 4. 周期性按保留策略裁剪响应stream和指标stream，发布响应、上报指标时不再逐条裁剪
+        scheduledPool.scheduleAtFixedRate(new ReplyStreamTrimmer(handlers, streamConfig, telemetryConfig, transport),
+                AdaptiveScheduler.phaseOffset(agentId, "trim", streamConfig.getTrimIntervalMillis()),
+                streamConfig.getTrimIntervalMillis(), TimeUnit.MILLISECONDS);
 
     }
 }
\ No newline at end of file
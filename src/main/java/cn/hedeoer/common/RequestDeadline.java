@@ -0,0 +1,113 @@
+package cn.hedeoer.common;
+
+import redis.clients.jedis.resps.StreamEntry;
+
+/**
+ * 命令的截止时间：master节点等待响应的时间是有限的，超过截止时间的命令不再执行，
+ * 执行中超过截止时间的查询只返回已经得到的部分结果
+ * <p>
+ * 命令的发出时间取 ts 字段（秒或毫秒时间戳），没有时取命令 entryId 的时间部分（redis 服务器写入命令的时间）；
+ * 超时时间取命令的 timeoutMillis 字段，没有时使用配置的 commandTimeoutMillis。
+ * 截止时间和 agent 节点的本地时间比较，超时时间应该明显大于服务器之间可能的时间偏差
+ */
+public class RequestDeadline {
+
+    /**
+     * 命令中指定超时时间（毫秒）的字段名
+     */
+    public static final String TIMEOUT_FIELD = "timeoutMillis";
+
+    /**
+     * 命令中记录发出时间的字段名
+     */
+    public static final String TS_FIELD = "ts";
+
+    /**
+     * 小于该值的 ts 按秒级时间戳处理
+     */
+    private static final long SECONDS_TS_UPPER_BOUND = 100_000_000_000L;
+
+    private static final RequestDeadline NONE = new RequestDeadline(Long.MAX_VALUE);
+
+    private final long deadlineMillis;
+    private volatile boolean truncated;
+
+    private RequestDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @return 没有截止时间
+     */
+    public static RequestDeadline none() {
+        return NONE;
+    }
+
+    /**
+     * @param deadlineMillis 截止时间的毫秒时间戳
+     * @return RequestDeadline
+     */
+    public static RequestDeadline at(long deadlineMillis) {
+        return new RequestDeadline(deadlineMillis);
+    }
+
+    /**
+     * 计算命令的截止时间
+     *
+     * @param streamEntry          master节点发布的命令
+     * @param defaultTimeoutMillis 命令没有 timeoutMillis 字段时的超时时间（毫秒），小于等于0表示没有截止时间
+     * @return RequestDeadline
+     */
+    public static RequestDeadline of(StreamEntry streamEntry, long defaultTimeoutMillis) {
+        long timeoutMillis = parseLong(streamEntry.getFields().get(TIMEOUT_FIELD), defaultTimeoutMillis);
+        if (timeoutMillis <= 0) {
+            return NONE;
+        }
+        long issuedAt = parseLong(streamEntry.getFields().get(TS_FIELD), -1);
+        if (issuedAt <= 0) {
+            issuedAt = streamEntry.getID().getTime();
+        } else if (issuedAt < SECONDS_TS_UPPER_BOUND) {
+            issuedAt *= 1000;
+        }
+        return new RequestDeadline(issuedAt + timeoutMillis);
+    }
+
+    /**
+     * @return 是否已经超过截止时间
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= deadlineMillis;
+    }
+
+    /**
+     * @return 距离截止时间的剩余毫秒数，没有截止时间时为 Long.MAX_VALUE
+     */
+    public long remainingMillis() {
+        return deadlineMillis == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadlineMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * 查询因为超过截止时间而提前结束时调用，响应会带上 truncated 标记
+     */
+    public void markTruncated() {
+        truncated = true;
+    }
+
+    /**
+     * @return 查询是否因为超过截止时间而只返回了部分结果
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
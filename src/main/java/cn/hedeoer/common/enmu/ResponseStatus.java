@@ -14,6 +14,8 @@ public enum ResponseStatus {
 
     SUCCESS("200", "success"),
     FAIL("500", "failed"),
+    EXPIRED("408", "request expired"),
+    NOT_MODIFIED("304", "not modified"),
 
     HTTP_STATUS_200("200", "ok"),
     HTTP_STATUS_400("400", "request error"),
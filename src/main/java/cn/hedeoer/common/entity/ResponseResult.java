@@ -3,8 +3,10 @@ package cn.hedeoer.common.entity;
 import cn.hedeoer.common.enmu.ResponseStatus;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.io.Serializable;
 import java.util.Collection;
@@ -13,6 +15,8 @@ import java.util.Map;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class ResponseResult<T> {
 
     /**
@@ -35,6 +39,16 @@ public class ResponseResult<T> {
      */
     private T data;
 
+    /**
+     * true when the request ran out of its time budget and data holds partial results only.
+     */
+    private Boolean truncated;
+
+    /**
+     * fingerprint of the queried rule set, sent back as ifNoneMatch to get a not modified response next time.
+     */
+    private String etag;
+
     /**
      * response success result wrapper.
      *
@@ -87,6 +101,37 @@ public class ResponseResult<T> {
                 .build();
     }
 
+    /**
+     * response wrapper for a request that passed its deadline before it was executed.
+     *
+     * @param message expired message
+     * @param <T>     type of data class
+     * @return response result
+     */
+    public static <T> ResponseResult<T> expired(String message) {
+        return ResponseResult.<T>builder()
+                .message(message)
+                .status(ResponseStatus.EXPIRED.getResponseCode())
+                .timestamp(System.currentTimeMillis())
+                .build();
+    }
+
+    /**
+     * response wrapper for a conditional query whose result has not changed.
+     *
+     * @param etag fingerprint of the unchanged result
+     * @param <T>  type of data class
+     * @return response result
+     */
+    public static <T> ResponseResult<T> notModified(String etag) {
+        return ResponseResult.<T>builder()
+                .message(ResponseStatus.NOT_MODIFIED.getDescription())
+                .status(ResponseStatus.NOT_MODIFIED.getResponseCode())
+                .etag(etag)
+                .timestamp(System.currentTimeMillis())
+                .build();
+    }
+
     /**
      * 将ResponseResult对象转换为Map<String, String>
      * @param responseResult 需要转换的ResponseResult对象
@@ -113,6 +158,16 @@ public class ResponseResult<T> {
             resultMap.put("message", responseResult.getMessage());
         }
 
+        // 超过截止时间只返回了部分结果
+        if (Boolean.TRUE.equals(responseResult.getTruncated())) {
+            resultMap.put("truncated", "true");
+        }
+
+        // 查询结果的指纹
+        if (responseResult.getEtag() != null) {
+            resultMap.put("etag", responseResult.getEtag());
+        }
+
         // 处理data字段
         T data = responseResult.getData();
         if (data != null) {
@@ -168,6 +223,4 @@ public class ResponseResult<T> {
 
         return resultMap;
     }
-
-
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package cn.hedeoer.firewall;
 
+import cn.hedeoer.common.RequestDeadline;
 import cn.hedeoer.common.entity.PortRule;
 import cn.hedeoer.firewall.firewalld.exception.FirewallException;
 
@@ -16,6 +17,16 @@ public interface PortRuleService {
      */
     List<PortRule> queryAllPortRule(String zoneName);
 
+    /**
+     * 在截止时间内查询 某个zone下的所有端口信息，每条规则都需要检查端口是否被使用（扫描 socket），规则很多时耗时较长
+     * @param zoneName zone名字
+     * @param deadline 查询的截止时间，超过时只返回已经检查过的规则并调用 {@link RequestDeadline#markTruncated()}
+     * @return 端口信息列表，默认忽略截止时间
+     */
+    default List<PortRule> queryAllPortRule(String zoneName, RequestDeadline deadline) {
+        return queryAllPortRule(zoneName);
+    }
+
     /**
      * 添加或者移除一条端口规则
      * @param portRule 端口规则
@@ -61,6 +72,19 @@ public interface PortRuleService {
      */
     List<PortRule> queryPortRulesByPolicyAndUsingStatus(String zoneName, Boolean isUsing , Boolean policy);
 
+    /**
+     * 在截止时间内通过 规则策略 和 端口使用状态 查询端口规则
+     * @param zoneName
+     * @param isUsing
+     * @param policy
+     * @param deadline 查询的截止时间，超过时只返回已经检查过的规则并调用 {@link RequestDeadline#markTruncated()}
+     * @return 端口规则列表，默认忽略截止时间
+     */
+    default List<PortRule> queryPortRulesByPolicyAndUsingStatus(String zoneName, Boolean isUsing, Boolean policy,
+                                                                RequestDeadline deadline) {
+        return queryPortRulesByPolicyAndUsingStatus(zoneName, isUsing, policy);
+    }
+
     /**
      * 更新一个端口规则
      * @param zoneName
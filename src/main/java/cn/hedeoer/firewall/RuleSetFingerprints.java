@@ -0,0 +1,182 @@
+package cn.hedeoer.firewall;
+
+import cn.hedeoer.common.enmu.FireWallType;
+import cn.hedeoer.common.entity.PortRule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每个zone端口规则集合的指纹（etag），master节点在查询时带上已知的指纹，未变化时agent节点只响应 "未修改"
+ * <ul>
+ *     <li>指纹只包含规则本身（端口、协议、策略、来源等），不包含随时变化的端口使用状态 using</li>
+ *     <li>与规则顺序无关：每条规则序列化后排序再计算 SHA-256</li>
+ *     <li>记住每个zone最近一次查询得到的指纹以及当时防火墙配置文件的状态（修改时间和大小），
+ *     配置文件未变化、agent节点没有修改过规则、并且没有超过信任时间时，不需要重新查询（fork 防火墙命令）就能判断未修改</li>
+ * </ul>
+ * 只修改运行时配置（不写配置文件）的外部变更无法通过配置文件发现，信任时间限制了这种情况下响应过期指纹的最长时间
+ */
+public class RuleSetFingerprints {
+
+    /**
+     * requestParams 中master节点已知指纹的参数名
+     */
+    public static final String IF_NONE_MATCH_PARAM = "ifNoneMatch";
+
+    /**
+     * 默认的信任时间（毫秒）
+     */
+    public static final long DEFAULT_TRUST_MILLIS = 30000;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 命令没有指定zone（比如 ufw 不区分zone）时记住指纹使用的key，ConcurrentHashMap 不允许 null key
+     */
+    private static final String NO_ZONE_KEY = "\u0000";
+
+    private final FireWallType fireWallType;
+    private final long trustMillis;
+    private final Map<String, Remembered> remembered = new ConcurrentHashMap<>();
+
+    public RuleSetFingerprints(FireWallType fireWallType) {
+        this(fireWallType, DEFAULT_TRUST_MILLIS);
+    }
+
+    /**
+     * @param fireWallType 防火墙类型，决定需要检查的配置文件
+     * @param trustMillis  不重新查询的情况下信任记住的指纹的最长时间（毫秒）
+     */
+    public RuleSetFingerprints(FireWallType fireWallType, long trustMillis) {
+        this.fireWallType = fireWallType;
+        this.trustMillis = trustMillis;
+    }
+
+    /**
+     * 计算规则集合的指纹
+     *
+     * @param rules 某个zone的全部端口规则
+     * @return 16 进制的指纹
+     */
+    public static String fingerprint(List<PortRule> rules) {
+        List<String> canonical = new ArrayList<>(rules.size());
+        for (PortRule rule : rules) {
+            ObjectNode node = objectMapper.valueToTree(rule);
+            node.remove("using");
+            canonical.add(node.toString());
+        }
+        Collections.sort(canonical);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String rule : canonical) {
+                digest.update(rule.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            byte[] hash = digest.digest();
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", hash[i]));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 查询前获取zone配置文件的当前状态，查询后和指纹一起通过 {@link #remember} 记住
+     *
+     * @param zoneName zone名字
+     * @return 配置文件状态，没有可检查的配置文件时返回 null（此时每次都需要重新查询）
+     */
+    public String configState(String zoneName) {
+        StringBuilder state = new StringBuilder();
+        for (String path : configFiles(zoneName)) {
+            File file = new File(path);
+            if (file.exists()) {
+                state.append(path).append(':').append(file.lastModified()).append(':').append(file.length()).append(';');
+            }
+        }
+        return state.length() == 0 ? null : state.toString();
+    }
+
+    /**
+     * 记住一次查询得到的指纹
+     *
+     * @param zoneName    zone名字
+     * @param configState 查询前的配置文件状态
+     * @param fingerprint 查询结果的指纹
+     */
+    public void remember(String zoneName, String configState, String fingerprint) {
+        if (configState != null) {
+            remembered.put(rememberedKey(zoneName), new Remembered(configState, fingerprint, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 不重新查询的情况下获取zone当前的指纹
+     *
+     * @param zoneName zone名字
+     * @return 配置文件未变化且在信任时间内时返回记住的指纹，否则返回 null
+     */
+    public String current(String zoneName) {
+        Remembered entry = remembered.get(rememberedKey(zoneName));
+        if (entry == null || System.currentTimeMillis() - entry.rememberedAt > trustMillis) {
+            return null;
+        }
+        return entry.configState.equals(configState(zoneName)) ? entry.fingerprint : null;
+    }
+
+    /**
+     * agent节点修改规则后调用，之后的查询都重新计算指纹
+     */
+    public void invalidateAll() {
+        remembered.clear();
+    }
+
+    private static String rememberedKey(String zoneName) {
+        return zoneName == null ? NO_ZONE_KEY : zoneName;
+    }
+
+    /**
+     * @param zoneName zone名字
+     * @return 需要检查修改时间的配置文件
+     */
+    protected List<String> configFiles(String zoneName) {
+        List<String> files = new ArrayList<>();
+        if (FireWallType.FIREWALLD.equals(fireWallType)) {
+            files.add("/etc/firewalld/firewalld.conf");
+            if (zoneName != null) {
+                files.add("/etc/firewalld/zones/" + zoneName + ".xml");
+                files.add("/usr/lib/firewalld/zones/" + zoneName + ".xml");
+            }
+        } else if (FireWallType.UFW.equals(fireWallType)) {
+            files.add("/etc/ufw/user.rules");
+            files.add("/etc/ufw/user6.rules");
+            files.add("/etc/default/ufw");
+        }
+        return files;
+    }
+
+    private static class Remembered {
+        private final String configState;
+        private final String fingerprint;
+        private final long rememberedAt;
+
+        Remembered(String configState, String fingerprint, long rememberedAt) {
+            this.configState = configState;
+            this.fingerprint = fingerprint;
+            this.rememberedAt = rememberedAt;
+        }
+    }
+}
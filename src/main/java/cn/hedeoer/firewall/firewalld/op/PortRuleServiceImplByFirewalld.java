@@ -1,5 +1,6 @@
 package cn.hedeoer.firewall.firewalld.op;
 
+import cn.hedeoer.common.RequestDeadline;
 import cn.hedeoer.common.enmu.RuleType;
 import cn.hedeoer.common.entity.PortRule;
 import cn.hedeoer.common.entity.SourceRule;
@@ -33,6 +34,11 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
         return queryAllPortRuleByParseCommand(zoneName);
     }
 
+    @Override
+    public List<PortRule> queryAllPortRule(String zoneName, RequestDeadline deadline) {
+        return queryAllPortRuleByParseCommand(zoneName, deadline);
+    }
+
     /**
      * 增加或者删除一条端口规则
      *
@@ -130,13 +136,19 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
      */
     @Override
     public List<PortRule> queryPortRulesByPolicyAndUsingStatus(String zoneName, Boolean isUsing, Boolean policy) {
+        return queryPortRulesByPolicyAndUsingStatus(zoneName, isUsing, policy, RequestDeadline.none());
+    }
+
+    @Override
+    public List<PortRule> queryPortRulesByPolicyAndUsingStatus(String zoneName, Boolean isUsing, Boolean policy,
+                                                               RequestDeadline deadline) {
         // 参数验证
         if (zoneName == null || zoneName.trim().isEmpty()) {
             return Collections.emptyList(); // 或抛出异常
         }
 
-        // 获取所有规则
-        List<PortRule> allRules = queryAllPortRule(zoneName);
+        // 获取所有规则，超过截止时间时只有已经检查过使用状态的规则
+        List<PortRule> allRules = queryAllPortRule(zoneName, deadline);
         if (allRules == null || allRules.isEmpty()) {
             return Collections.emptyList();
         }
@@ -603,10 +615,24 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
      * @return 返回封装所有端口规则的 {@link List<PortRule>}
      */
     public List<PortRule> queryAllPortRuleByParseCommand(String zoneName) {
+        return queryAllPortRuleByParseCommand(zoneName, RequestDeadline.none());
+    }
+
+    /**
+     * 在截止时间内获取某个zone内所有的端口规则，每条规则检查端口使用状态前判断是否超过截止时间，
+     * 超过时不再检查剩余的规则，只返回已经检查过的规则
+     *
+     * @param zoneName 防火墙区域名
+     * @param deadline 查询的截止时间
+     * @return 返回封装端口规则的 {@link List<PortRule>}
+     */
+    public List<PortRule> queryAllPortRuleByParseCommand(String zoneName, RequestDeadline deadline) {
 
-        HashSet<PortRule> portRulesFromListPortCommand = getAllPortFromListPort(zoneName);
+        HashSet<PortRule> portRulesFromListPortCommand = getAllPortFromListPort(zoneName, deadline);
 
-        HashSet<PortRule> portRulesFromListRuleRuleCommand = getAllPortFromListRuleRule(zoneName);
+        // 已经超过截止时间时不再查询富规则
+        HashSet<PortRule> portRulesFromListRuleRuleCommand = deadline.isTruncated()
+                ? new HashSet<>() : getAllPortFromListRuleRule(zoneName, deadline);
 
         // 涉及到去重，按照PortRule类中定义的规则去重 （含family，port、protocolsourceRule，policy 和父类属性（agentId，permanent，type，zone)）
         portRulesFromListRuleRuleCommand.addAll(portRulesFromListPortCommand);
@@ -615,6 +641,10 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
     }
 
     public HashSet<PortRule> getAllPortFromListRuleRule(String zoneName) {
+        return getAllPortFromListRuleRule(zoneName, RequestDeadline.none());
+    }
+
+    public HashSet<PortRule> getAllPortFromListRuleRule(String zoneName, RequestDeadline deadline) {
 
         HashSet<PortRule> result = new HashSet<>();
 
@@ -637,6 +667,10 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
         for (String ruleStr : portRulesList) {
             List<FirewallRuleParser.ParsedRule> parsedRules = FirewallRuleParser.parseFirewallRule(ruleStr);
             for (FirewallRuleParser.ParsedRule parsedRule : parsedRules) {
+                if (deadline.isExpired()) {
+                    deadline.markTruncated();
+                    return result;
+                }
 
                 // 获取端口目前是否被使用？
                 List<PortInfo> portsInUse = PortMonitorUtils.getPortsInUse(parsedRule.getPort(), parsedRule.getProtocol(),parsedRule.getFamily());
@@ -672,6 +706,10 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
     }
 
     public HashSet<PortRule> getAllPortFromListPort(String zoneName) {
+        return getAllPortFromListPort(zoneName, RequestDeadline.none());
+    }
+
+    public HashSet<PortRule> getAllPortFromListPort(String zoneName, RequestDeadline deadline) {
 
         HashSet<PortRule> result = new HashSet<>();
 
@@ -692,6 +730,10 @@ public class PortRuleServiceImplByFirewalld implements PortRuleService {
             line = line.trim();
             // 断言该行包含端口信息，例如：80/tcp 或 8080/tcp
             if (line.matches("^(\\d+(-\\d+)?)/(tcp|udp)$")) {
+                if (deadline.isExpired()) {
+                    deadline.markTruncated();
+                    return result;
+                }
                 String port = line.split("/")[0];
                 String protocol = line.split("/")[1];
 
@@ -1,5 +1,6 @@
 package cn.hedeoer.firewall.ufw.op;
 
+import cn.hedeoer.common.RequestDeadline;
 import cn.hedeoer.common.enmu.RuleType;
 import cn.hedeoer.common.entity.PortRule;
 import cn.hedeoer.common.entity.SourceRule;
@@ -33,6 +34,18 @@ public class PortRuleServiceImplByUFW implements PortRuleService {
      */
     @Override
     public List<PortRule> queryAllPortRule(String zoneName) {
+        return queryAllPortRule(zoneName, RequestDeadline.none());
+    }
+
+    /**
+     * 在截止时间内查询ufw管理的所有端口规则，超过截止时间时只返回已经检查过端口使用状态的规则
+     *
+     * @param zoneName zone名字 固定值 public
+     * @param deadline 查询的截止时间
+     * @return 端口规则的列表
+     */
+    @Override
+    public List<PortRule> queryAllPortRule(String zoneName, RequestDeadline deadline) {
 
         List<PortRule> result = new ArrayList<>();
         // 权限检查
@@ -50,7 +63,7 @@ public class PortRuleServiceImplByUFW implements PortRuleService {
 
             UfwStatus ufwStatus = getUfwStatus(timeoutSeconds);
             // 封装为List<PortRule>对象
-            result = toPortRules(ufwStatus);
+            result = toPortRules(ufwStatus, deadline);
             return result;
         } catch (IOException | InterruptedException | TimeoutException e) {
             throw new RuntimeException(e);
@@ -95,9 +108,10 @@ public class PortRuleServiceImplByUFW implements PortRuleService {
      * 4. 只考虑端口规则
      *
      * @param ufwStatus 解析sudo ufw status verbose输出而来的对象
+     * @param deadline  查询的截止时间，超过时不再检查剩余的规则
      * @return List<PortRule>对象
      */
-    private List<PortRule> toPortRules(UfwStatus ufwStatus) {
+    private List<PortRule> toPortRules(UfwStatus ufwStatus, RequestDeadline deadline) {
 
         // 存储最终结果
         List<PortRule> portRules = new ArrayList<>();
@@ -111,6 +125,10 @@ public class PortRuleServiceImplByUFW implements PortRuleService {
         }
 
         for (UfwRule rule : rules) {
+            if (deadline.isExpired()) {
+                deadline.markTruncated();
+                break;
+            }
 
             /**
              * 正则表达式的目的:
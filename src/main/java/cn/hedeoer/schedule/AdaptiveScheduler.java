@@ -0,0 +1,112 @@
+package cn.hedeoer.schedule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 带抖动的自适应定时上报
+ * <ul>
+ *     <li>首次执行延迟由 agentId 决定，落在 [0, interval) 内：同一次部署中同时重启的 agent节点不会同时上报</li>
+ *     <li>每次的间隔在 ±jitterRatio 内随机浮动，随机序列也由 agentId 决定，各节点之间不会逐渐对齐</li>
+ *     <li>上一次上报的内容有变化时间隔减半（不小于最短间隔），没有变化时放长 1/4（不大于最长间隔）</li>
+ * </ul>
+ * 每次执行结束后才安排下一次执行，任务不会重叠
+ */
+public class AdaptiveScheduler implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveScheduler.class);
+
+    private final String name;
+    private final Runnable task;
+    private final BooleanSupplier changed;
+    private final ReportInterval interval;
+    private final double jitterRatio;
+    private final ScheduledExecutorService executor;
+    private final String agentId;
+    private final Random jitter;
+    private long currentMillis;
+
+    /**
+     * @param name        任务名，和 agentId 一起决定首次执行的延迟和抖动序列
+     * @param task        上报任务
+     * @param changed     上一次执行时上报的内容是否有变化
+     * @param interval    上报间隔
+     * @param jitterRatio 每次间隔的随机抖动比例
+     * @param agentId     agent唯一标识
+     * @param executor    执行上报的定时任务线程池
+     */
+    public AdaptiveScheduler(String name, Runnable task, BooleanSupplier changed, ReportInterval interval,
+                             double jitterRatio, String agentId, ScheduledExecutorService executor) {
+        this.name = name;
+        this.task = task;
+        this.changed = changed;
+        this.interval = interval;
+        this.jitterRatio = jitterRatio;
+        this.agentId = agentId;
+        this.executor = executor;
+        this.jitter = new Random(seed(agentId, name));
+        this.currentMillis = TimeUnit.SECONDS.toMillis(interval.getIntervalSeconds());
+    }
+
+    /**
+     * 按 agentId 决定的首次延迟开始调度
+     */
+    public void start() {
+        long initialDelay = phaseOffset(agentId, name, currentMillis);
+        logger.info("{} 首次执行延迟 {} 毫秒，上报间隔 {}", name, initialDelay, interval);
+        executor.schedule(this, initialDelay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // 上报出错不能中断调度
+            logger.error("{} 执行出错", name, e);
+        }
+        currentMillis = nextInterval(currentMillis, changed.getAsBoolean(), interval);
+        try {
+            executor.schedule(this, jittered(currentMillis), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.info("定时任务线程池已关闭，{} 停止调度", name);
+        }
+    }
+
+    /**
+     * @return 上一次上报有变化时减半，否则放长 1/4，限制在 [min, max] 内
+     */
+    static long nextInterval(long currentMillis, boolean changed, ReportInterval interval) {
+        long min = TimeUnit.SECONDS.toMillis(interval.getMinIntervalSeconds());
+        long max = TimeUnit.SECONDS.toMillis(interval.getMaxIntervalSeconds());
+        long next = changed ? currentMillis / 2 : currentMillis + currentMillis / 4;
+        return Math.max(min, Math.min(max, next));
+    }
+
+    /**
+     * @return 由 agentId 和任务名决定的 [0, intervalMillis) 内的首次延迟
+     */
+    public static long phaseOffset(String agentId, String name, long intervalMillis) {
+        return intervalMillis <= 0 ? 0 : Math.floorMod(seed(agentId, name), intervalMillis);
+    }
+
+    private long jittered(long millis) {
+        double factor = 1 + jitterRatio * (2 * jitter.nextDouble() - 1);
+        return Math.max(1, Math.round(millis * factor));
+    }
+
+    /**
+     * String.hashCode 相近的 agentId 结果也相近，使用基于 MD5 的 UUID 打散
+     */
+    private static long seed(String agentId, String name) {
+        return UUID.nameUUIDFromBytes((agentId + ":" + name).getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+    }
+}
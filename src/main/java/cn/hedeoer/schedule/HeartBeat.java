@@ -1,6 +1,9 @@
 package cn.hedeoer.schedule;
 
 import cn.hedeoer.common.enmu.OSType;
+import cn.hedeoer.subscribe.codec.PayloadCodecs;
+import cn.hedeoer.subscribe.transport.JedisTransport;
+import cn.hedeoer.subscribe.transport.MessageTransport;
 import cn.hedeoer.util.*;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -10,21 +13,77 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * agent节点的心跳检测
+ * <p>
+ * 注册和心跳分开汇报：不变的节点信息（操作系统、主机名、ip、版本）只在首次汇报或发生变化时写入 firewall:agents，
+ * 每次心跳只向 firewall:heartbeats 写入存活、时间戳和宿主机指标
  */
 public class HeartBeat implements Runnable{
     private final String heartBeatHashTableName = "firewall:heartbeats";
+    private final String registrationHashTableName = "firewall:agents";
     private static final Logger logger = LoggerFactory.getLogger(HeartBeat.class);
+    /**
+     * 未指定心跳间隔时，平均值和峰值的统计窗口（秒）
+     */
+    private static final int DEFAULT_SUMMARY_WINDOW_SECONDS = 30;
+    /**
+     * 节点信息没有变化时，重新注册的间隔（毫秒）
+     */
+    private static final long REGISTRATION_REFRESH_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final RegistrationState REGISTRATION_STATE = new RegistrationState();
     private final ObjectMapper objectMapper = new ObjectMapper();
     private Integer heartBeatGap;
+    private final MessageTransport transport;
+    /**
+     * 宿主机指标由后台采样，心跳只读取最新值
+     */
+    private final HostTelemetrySampler telemetrySampler;
+    /**
+     * CPU、内存利用率和上一次心跳相比变化超过该值（百分点）时视为变化
+     */
+    private final double metricChangeThreshold;
+    private double lastCpuUsage = -1;
+    private double lastMemoryUsage = -1;
+    private volatile boolean lastRunChanged;
 
-    public  HeartBeat(){}
+    public  HeartBeat(){
+        this(null);
+    }
 
     public  HeartBeat(Integer heartBeatGap){
+        this(heartBeatGap, new JedisTransport());
+    }
+
+    public  HeartBeat(Integer heartBeatGap, MessageTransport transport){
+        this(heartBeatGap, transport, HostTelemetrySampler.getInstance());
+    }
+
+    public  HeartBeat(Integer heartBeatGap, MessageTransport transport, HostTelemetrySampler telemetrySampler){
+        this(heartBeatGap, transport, telemetrySampler, ScheduleConfig.builder().build().getMetricChangeThreshold());
+    }
+
+    public  HeartBeat(Integer heartBeatGap, MessageTransport transport, HostTelemetrySampler telemetrySampler,
+                      double metricChangeThreshold){
         this.heartBeatGap = heartBeatGap;
+        this.transport = transport;
+        this.telemetrySampler = telemetrySampler;
+        this.metricChangeThreshold = metricChangeThreshold;
+    }
+
+    /**
+     * @return 上一次定时心跳的指标是否明显变化，{@link AdaptiveScheduler} 据此调整心跳间隔
+     */
+    public boolean lastRunChanged() {
+        return lastRunChanged;
     }
 
 
@@ -35,82 +94,134 @@ public class HeartBeat implements Runnable{
     public void run() {
 
         // agent节点的心跳汇报
-        // 向master注册(通过使用 redis hash方式， hash表名字 firewall:heartbeats, key为agentId, vaule为向master节点上报时的时间戳)
-        // 获取redis服务器本地时间戳，避免一旦集群里服务器时间不同步，心跳状态的判断就容易出错
-        // 周期性执行hset命令，向master节点汇报心跳，比如 30秒
-        sendHearBeat();
+        // 向master注册(通过使用 redis hash方式， hash表名字 firewall:agents, key为agentId, vaule为不变的节点信息)，只在首次或节点信息变化时注册
+        // 获取redis服务器本地时间戳，避免一旦集群里服务器时间不同步，心跳状态的判断就容易出错；
+        // 注册时执行 TIME，之后用单调时钟 System.nanoTime() 推算服务器时间，本机时钟被 NTP 或手动调整时心跳时间戳不受影响
+        // 周期性执行hset命令（firewall:heartbeats），向master节点汇报存活和指标，比如 30秒
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        try {
+            AgentRegistration registration = getRegistration(agentId);
+            boolean register = REGISTRATION_STATE.needsRegistration(registration);
+            String beat = getNeedReportInfo(agentId, registration, register);
+            lastRunChanged = metricsChanged(telemetrySampler.latest());
+            if (register) {
+                transport.hashReport(registrationHashTableName, agentId, serialize(registration));
+                REGISTRATION_STATE.registered(registration);
+            }
+            transport.hashReport(heartBeatHashTableName, agentId, beat);
+        } catch (JedisException e) {
+            logFailure(agentId, e);
+        }
+    }
 
+    private void logFailure(String agentId, Throwable e) {
+        logger.error("agentId：{} 向 master节点发送心跳失败，当前配置心跳时间间隔 : {} 秒",agentId, this.heartBeatGap, e);
     }
 
+    /**
+     * 手动触发的心跳（master节点的 OPTIONS 命令、ssh 状态检查），总是同时重新注册节点信息
+     *
+     * @return 是否汇报成功
+     */
     public boolean sendHearBeat() {
-        try (Jedis jedis = RedisUtil.getJedis()) {
-            boolean res = false;
-            String agentId = AgentIdUtil.loadOrCreateUUID();
-
-            String agentNodeInfoSerializeStr  = getNeedReportInfo(jedis,agentId);
-            // 心跳汇报 1745164416_0： 1745164416表示向master节点汇报时的时间戳，0表示非首次汇报，1表示首次汇报
-            long hset = jedis.hset(heartBeatHashTableName, agentId, agentNodeInfoSerializeStr);
-            if (hset == 0 || hset == 1) {
-                res = true;
-            }else{
-                logger.error("agentId：{} 向 master节点发送心跳失败，当前配置心跳时间间隔 : {} 秒",agentId, this.heartBeatGap);
-            }
-
-            return res;
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        try {
+            AgentRegistration registration = getRegistration(agentId);
+            transport.hashReport(registrationHashTableName, agentId, serialize(registration));
+            REGISTRATION_STATE.registered(registration);
+            String agentNodeInfoSerializeStr  = getNeedReportInfo(agentId, registration, true);
+            // 心跳汇报 isFirstHeartbeat：true 表示本次心跳伴随注册（首次汇报或节点信息变化），master节点需要重新读取 firewall:agents
+            transport.hashReport(heartBeatHashTableName, agentId, agentNodeInfoSerializeStr);
+            return true;
+        } catch (JedisException e) {
+            logFailure(agentId, e);
+            return false;
         }
     }
 
     /**
-     * 获取需要汇报的信息，并使用jackson序列化为字符串
-     * @param jedis jedis
+     * 获取不变的节点信息
+     *
      * @param agentId agent唯一标识
-     * @return 如果序列化失败返回null
+     * @return AgentRegistration
      */
-    private String getNeedReportInfo(Jedis jedis, String agentId)  {
-
-
-        // 执行 TIME 命令
-        String seconds = RedisUtil.getRedisServerTime();      // 秒级时间戳（字符串格式，需转换）
-
-        // 是否首次上报
-        boolean isFirstHeartBeat = jedis.hget(heartBeatHashTableName, agentId) == null;
-
+    private AgentRegistration getRegistration(String agentId) {
         OSType osType = OperateSystemUtil.getOSType(null);
-        String osName = osType.getName();
+        return AgentRegistration.builder()
+                .agentId(agentId)
+                .osName(osType.getName())
+                .hostName(OperateSystemUtil.getHostName())
+                .ip(IpUtils.getLocalIpAddress())
+                .clientVersion(VersionHelper.getVersion())
+                .supportedCodecs(PayloadCodecs.supportedNames())
+                .build();
+    }
+
+    /**
+     * 获取需要汇报的存活和指标信息，并使用jackson序列化为字符串
+     * @param agentId      agent唯一标识
+     * @param registration 节点信息，心跳中只带上它的版本
+     * @param register     本次心跳是否伴随注册，注册时重新读取 redis 服务器时间
+     * @return 序列化后的心跳
+     */
+    private String getNeedReportInfo(String agentId, AgentRegistration registration, boolean register)  {
 
-        // hostName
-        String hostName = OperateSystemUtil.getHostName();
+        if (register || !REGISTRATION_STATE.hasServerTime()) {
+            // 执行 TIME 命令，秒级时间戳（字符串格式，需转换）
+            REGISTRATION_STATE.updateServerTime(Long.parseLong(transport.serverTimeSeconds()));
+        }
+        String seconds = String.valueOf(REGISTRATION_STATE.serverTimeSeconds());
 
-        String ip = IpUtils.getLocalIpAddress();
+        // 最新的采样和一个心跳间隔内的平均值、峰值，读取时不再等待CPU采样
+        HostTelemetrySampler.HostSample sample = telemetrySampler.latest();
+        HostTelemetrySampler.HostSummary summary = telemetrySampler.summary(
+                TimeUnit.SECONDS.toMillis(heartBeatGap != null ? heartBeatGap : DEFAULT_SUMMARY_WINDOW_SECONDS));
         AgentNodeInfo build = AgentNodeInfo.builder()
                 .agentId(agentId)
                 .heartbeatTimestamp(seconds)
-                .isFirstHeartbeat(isFirstHeartBeat)
+                .isFirstHeartbeat(register)
                 // 上报存活
                 .isActive(true)
-                .osName(osName)
-                .hostName(hostName)
-                .ip(ip)
-                .clientVersion(VersionHelper.getVersion())
-                .cpuUsage(OperateSystemUtil.getCpuUsage())
-                .memoryUsage(OperateSystemUtil.getMemoryUsage())
-                .diskUsage(OperateSystemUtil.getAvgDiskUsage())
+                .metadataVersion(registration.version())
+                .cpuUsage(format(sample.getCpuUsage()))
+                .memoryUsage(format(sample.getMemoryUsage()))
+                .diskUsage(format(sample.getDiskUsage()))
+                .cpuUsageAvg(format(summary.getCpuUsageAvg()))
+                .cpuUsagePeak(format(summary.getCpuUsagePeak()))
+                .memoryUsagePeak(format(summary.getMemoryUsagePeak()))
+                .netRecvBytesPerSec(format(sample.getNetRecvBytesPerSec()))
+                .netSentBytesPerSec(format(sample.getNetSentBytesPerSec()))
+                .diskReadBytesPerSec(format(sample.getDiskReadBytesPerSec()))
+                .diskWriteBytesPerSec(format(sample.getDiskWriteBytesPerSec()))
                 .build();
 
-        String result = null;
+        return serialize(build);
+    }
+
+    private boolean metricsChanged(HostTelemetrySampler.HostSample sample) {
+        boolean changed = lastCpuUsage < 0
+                || Math.abs(sample.getCpuUsage() - lastCpuUsage) >= metricChangeThreshold
+                || Math.abs(sample.getMemoryUsage() - lastMemoryUsage) >= metricChangeThreshold;
+        lastCpuUsage = sample.getCpuUsage();
+        lastMemoryUsage = sample.getMemoryUsage();
+        return changed;
+    }
+
+    private String serialize(Object value) {
         try {
-            result = objectMapper.writeValueAsString(build);
+            return objectMapper.writeValueAsString(value);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
+    }
 
-
-        return result;
+    private static String format(double value) {
+        return String.format("%.2f", value);
     }
 
     /**
      * agent节点向master节点汇报心跳时，需要汇报的信息
-     * 上报心跳时间戳，是否首次上报， 是否存活，操作系统，主机名，节点ip
+     * 上报心跳时间戳，是否伴随注册， 是否存活，节点信息的版本以及宿主机指标；不变的节点信息见 {@link AgentRegistration}
      *
      */
     //   /** CPU利用率 */
@@ -119,8 +230,6 @@ public class HeartBeat implements Runnable{
     //  memoryUsage?: number
     //  /** 磁盘利用率 */
     //  diskUsage?: number
-    //  /** 客户端版本 */
-    //  clientVersion?: string
     @Data
     @NoArgsConstructor
     @AllArgsConstructor
@@ -130,12 +239,103 @@ public class HeartBeat implements Runnable{
         private String heartbeatTimestamp;
         private Boolean isFirstHeartbeat;
         private Boolean isActive;
-        private String osName;
-        private String hostName;
-        private String ip;
+        /** 当前节点信息的版本，和 firewall:agents 中记录的版本不同时 master节点需要重新读取 */
+        private String metadataVersion;
         private String cpuUsage;
         private String memoryUsage;
         private String diskUsage;
+        /** 最近一个心跳间隔内的CPU平均利用率和峰值 */
+        private String cpuUsageAvg;
+        private String cpuUsagePeak;
+        /** 最近一个心跳间隔内的内存利用率峰值 */
+        private String memoryUsagePeak;
+        /** 网卡收发速率（字节/秒，不含回环网卡） */
+        private String netRecvBytesPerSec;
+        private String netSentBytesPerSec;
+        /** 磁盘读写速率（字节/秒） */
+        private String diskReadBytesPerSec;
+        private String diskWriteBytesPerSec;
+    }
+
+    /**
+     * agent节点的注册信息：操作系统，主机名，节点ip，客户端版本等不会随心跳变化的信息，
+     * 只在首次汇报、信息变化或者超过 REGISTRATION_REFRESH_MILLIS 时写入 firewall:agents
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class AgentRegistration {
+        private String agentId;
+        private String osName;
+        private String hostName;
+        private String ip;
+        /** 客户端版本 */
         private String clientVersion;
+        /** agent节点支持的响应编码格式，master节点据此在命令的 accept 字段中选择编码格式 */
+        private List<String> supportedCodecs;
+
+        /**
+         * @return 节点信息的版本，所有字段的 SHA-256（取前 16 字节），内容相同时版本相同
+         */
+        public String version() {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (Object field : new Object[]{agentId, osName, hostName, ip, clientVersion, supportedCodecs}) {
+                    digest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                }
+                byte[] hash = digest.digest();
+                StringBuilder hex = new StringBuilder();
+                for (int i = 0; i < 16; i++) {
+                    hex.append(String.format("%02x", hash[i]));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * 本进程内的注册状态，所有 HeartBeat 实例（定时心跳、OPTIONS 命令、ssh 状态检查）共享，
+     * 不再每次心跳执行 HGET 判断是否首次汇报
+     */
+    private static class RegistrationState {
+        private AgentRegistration registered;
+        /**
+         * 注册时的单调时钟（纳秒），不受本机时钟调整影响
+         */
+        private long registeredAtNanos;
+        /**
+         * 注册时读取的 redis 服务器时间（毫秒）和读取时的单调时钟（纳秒），之后的服务器时间由两者推算
+         */
+        private Long serverMillisAtMeasure;
+        private long nanosAtMeasure;
+
+        synchronized boolean needsRegistration(AgentRegistration registration) {
+            // 定期重新注册，master节点清理过 firewall:agents 时也能恢复
+            return !registration.equals(registered)
+                    || System.nanoTime() - registeredAtNanos >= TimeUnit.MILLISECONDS.toNanos(REGISTRATION_REFRESH_MILLIS);
+        }
+
+        synchronized void registered(AgentRegistration registration) {
+            this.registered = registration;
+            this.registeredAtNanos = System.nanoTime();
+        }
+
+        synchronized boolean hasServerTime() {
+            return serverMillisAtMeasure != null;
+        }
+
+        synchronized void updateServerTime(long serverTimeSeconds) {
+            this.serverMillisAtMeasure = TimeUnit.SECONDS.toMillis(serverTimeSeconds);
+            this.nanosAtMeasure = System.nanoTime();
+        }
+
+        synchronized long serverTimeSeconds() {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanosAtMeasure);
+            return TimeUnit.MILLISECONDS.toSeconds(serverMillisAtMeasure + elapsedMillis);
+        }
     }
 }
@@ -0,0 +1,243 @@
+package cn.hedeoer.schedule;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.GlobalMemory;
+import oshi.hardware.HWDiskStore;
+import oshi.hardware.HardwareAbstractionLayer;
+import oshi.hardware.NetworkIF;
+import oshi.software.os.OSFileStore;
+
+import java.util.List;
+
+/**
+ * 后台周期性采集宿主机的 CPU、内存、磁盘和网卡指标，保存在固定大小的环形时间序列 {@link MetricsRing} 中
+ * <p>
+ * CPU 使用率按相邻两次采样之间的 tick 计算，网卡和磁盘的读写速率按相邻两次采样之间的字节数计算，
+ * 采样之间不需要休眠；心跳和查询只读取缓冲区中最新的采样以及最近一段时间的平均值和峰值，不会阻塞调用线程
+ */
+public class HostTelemetrySampler implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HostTelemetrySampler.class);
+
+    private final SystemInfo systemInfo = new SystemInfo();
+    /**
+     * 采样使用单独的锁，采样期间读取最新值不需要等待
+     */
+    private final Object sampleLock = new Object();
+    private final MetricsRing ring;
+
+    private long[] prevCpuTicks;
+    private long prevNetRecv;
+    private long prevNetSent;
+    private long prevDiskRead;
+    private long prevDiskWrite;
+    private long prevSampleAt;
+    private List<NetworkIF> networkIFs;
+    private List<HWDiskStore> diskStores;
+
+    /**
+     * @param capacity 环形缓冲区保留的采样个数
+     */
+    public HostTelemetrySampler(int capacity) {
+        this.ring = new MetricsRing(capacity);
+    }
+
+    /**
+     * @return 进程内共享的采样器，由 Main 中的定时任务周期性采样，保留的采样个数见 application.yaml 的 telemetry.ringSize
+     */
+    public static HostTelemetrySampler getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * @return 采样保存的环形时间序列，{@link MetricsShipper} 从中批量取出采样
+     */
+    public MetricsRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public void run() {
+        try {
+            record(sample());
+        } catch (RuntimeException e) {
+            // 采样失败不能抛出，否则定时任务不会再执行
+            logger.error("采集宿主机指标失败，等待下次采样", e);
+        }
+    }
+
+    /**
+     * @return 最新的采样；还没有采样时立即采样一次（不休眠，CPU 使用率为开机以来的平均值）
+     */
+    public HostSample latest() {
+        if (ring.size() == 0) {
+            run();
+        }
+        synchronized (ring) {
+            return new HostSample(ring.latestTimestamp(), ring.latest(0), ring.latest(1), ring.latest(2),
+                    ring.latest(3), ring.latest(4), ring.latest(5), ring.latest(6));
+        }
+    }
+
+    /**
+     * 最近一段时间内采样的平均值和峰值
+     *
+     * @param windowMillis 时间窗口（毫秒）
+     * @return 窗口内没有采样时各项为0
+     */
+    public HostSummary summary(long windowMillis) {
+        double[] cpu = ring.aggregate(0, windowMillis);
+        double[] memory = ring.aggregate(1, windowMillis);
+        HostSummary summary = new HostSummary();
+        summary.setWindowMillis(windowMillis);
+        summary.setSamples((int) cpu[2]);
+        summary.setCpuUsageAvg(cpu[0]);
+        summary.setCpuUsagePeak(cpu[1]);
+        summary.setMemoryUsageAvg(memory[0]);
+        summary.setMemoryUsagePeak(memory[1]);
+        summary.setNetRecvBytesPerSecPeak(ring.aggregate(3, windowMillis)[1]);
+        summary.setNetSentBytesPerSecPeak(ring.aggregate(4, windowMillis)[1]);
+        return summary;
+    }
+
+    /**
+     * 写入环形时间序列，缓冲区满时覆盖最早的采样
+     *
+     * @param sample 采样
+     */
+    void record(HostSample sample) {
+        ring.record(sample.getTimestamp(), sample.getCpuUsage(), sample.getMemoryUsage(), sample.getDiskUsage(),
+                sample.getNetRecvBytesPerSec(), sample.getNetSentBytesPerSec(),
+                sample.getDiskReadBytesPerSec(), sample.getDiskWriteBytesPerSec());
+    }
+
+    private HostSample sample() {
+        synchronized (sampleLock) {
+            return doSample();
+        }
+    }
+
+    /**
+     * 采集一次指标，只在采样线程（或首次读取时）持有 sampleLock 调用
+     */
+    private HostSample doSample() {
+        HardwareAbstractionLayer hardware = systemInfo.getHardware();
+        long now = System.currentTimeMillis();
+
+        CentralProcessor processor = hardware.getProcessor();
+        if (prevCpuTicks == null) {
+            // 第一次采样没有上一次的 tick，以开机以来的 tick 计算
+            prevCpuTicks = new long[CentralProcessor.TickType.values().length];
+        }
+        double cpuUsage = processor.getSystemCpuLoadBetweenTicks(prevCpuTicks) * 100;
+        prevCpuTicks = processor.getSystemCpuLoadTicks();
+
+        GlobalMemory memory = hardware.getMemory();
+        double memoryUsage = memory.getTotal() == 0 ? 0 : (memory.getTotal() - memory.getAvailable()) * 100.0 / memory.getTotal();
+
+        // 网卡和磁盘列表只获取一次，之后只刷新计数
+        if (networkIFs == null) {
+            networkIFs = hardware.getNetworkIFs();
+            diskStores = hardware.getDiskStores();
+        }
+        long netRecv = 0;
+        long netSent = 0;
+        for (NetworkIF networkIF : networkIFs) {
+            networkIF.updateAttributes();
+            netRecv += networkIF.getBytesRecv();
+            netSent += networkIF.getBytesSent();
+        }
+        long diskRead = 0;
+        long diskWrite = 0;
+        for (HWDiskStore diskStore : diskStores) {
+            diskStore.updateAttributes();
+            diskRead += diskStore.getReadBytes();
+            diskWrite += diskStore.getWriteBytes();
+        }
+
+        HostSample sample = new HostSample();
+        sample.setTimestamp(now);
+        sample.setCpuUsage(cpuUsage);
+        sample.setMemoryUsage(memoryUsage);
+        sample.setDiskUsage(diskUsage());
+        if (prevSampleAt > 0 && now > prevSampleAt) {
+            double seconds = (now - prevSampleAt) / 1000.0;
+            sample.setNetRecvBytesPerSec(rate(netRecv, prevNetRecv, seconds));
+            sample.setNetSentBytesPerSec(rate(netSent, prevNetSent, seconds));
+            sample.setDiskReadBytesPerSec(rate(diskRead, prevDiskRead, seconds));
+            sample.setDiskWriteBytesPerSec(rate(diskWrite, prevDiskWrite, seconds));
+        }
+        prevSampleAt = now;
+        prevNetRecv = netRecv;
+        prevNetSent = netSent;
+        prevDiskRead = diskRead;
+        prevDiskWrite = diskWrite;
+        return sample;
+    }
+
+    /**
+     * 所有分区的磁盘使用率
+     */
+    private double diskUsage() {
+        double total = 0.0;
+        double used = 0.0;
+        for (OSFileStore fs : systemInfo.getOperatingSystem().getFileSystem().getFileStores()) {
+            long t = fs.getTotalSpace();
+            if (t <= 0) continue;
+            total += t;
+            used += t - fs.getUsableSpace();
+        }
+        return total == 0 ? 0 : used * 100.0 / total;
+    }
+
+    /**
+     * 计数器回绕或网卡重置时速率记为0
+     */
+    private static double rate(long current, long previous, double seconds) {
+        return current < previous ? 0 : (current - previous) / seconds;
+    }
+
+    /**
+     * 一次采样，使用率为百分比，速率为每秒字节数
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HostSample {
+        private long timestamp;
+        private double cpuUsage;
+        private double memoryUsage;
+        private double diskUsage;
+        private double netRecvBytesPerSec;
+        private double netSentBytesPerSec;
+        private double diskReadBytesPerSec;
+        private double diskWriteBytesPerSec;
+    }
+
+    /**
+     * 一段时间窗口内采样的平均值和峰值
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HostSummary {
+        private long windowMillis;
+        private int samples;
+        private double cpuUsageAvg;
+        private double cpuUsagePeak;
+        private double memoryUsageAvg;
+        private double memoryUsagePeak;
+        private double netRecvBytesPerSecPeak;
+        private double netSentBytesPerSecPeak;
+    }
+
+    private static class Holder {
+        private static final HostTelemetrySampler INSTANCE = new HostTelemetrySampler(TelemetryConfig.load().getRingSize());
+    }
+}
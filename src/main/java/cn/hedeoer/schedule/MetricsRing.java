@@ -0,0 +1,172 @@
+package cn.hedeoer.schedule;
+
+/**
+ * 宿主机指标的环形时间序列，每个指标一个基本类型数组，不为每个采样创建对象
+ * <p>
+ * 按每秒一次采样保留最近几分钟的数据也只占用几十KB；缓冲区满时覆盖最早的采样。线程安全
+ */
+public class MetricsRing {
+
+    /**
+     * 每个采样包含的指标，顺序即 {@link Batch#values} 的下标
+     */
+    public static final String[] METRICS = {
+            "cpuUsage", "memoryUsage", "diskUsage",
+            "netRecvBytesPerSec", "netSentBytesPerSec", "diskReadBytesPerSec", "diskWriteBytesPerSec"
+    };
+
+    private final long[] timestamps;
+    private final float[][] values;
+    /**
+     * 下一个采样写入的位置
+     */
+    private int next;
+    private int size;
+    /**
+     * 写入过的采样总数，即最新采样的序号（第一个采样为1），和采样时间无关，时钟回拨时仍然递增
+     */
+    private long recorded;
+
+    /**
+     * @param capacity 保留的采样个数
+     */
+    public MetricsRing(int capacity) {
+        int length = Math.max(1, capacity);
+        this.timestamps = new long[length];
+        this.values = new float[METRICS.length][length];
+    }
+
+    /**
+     * 写入一个采样，缓冲区满时覆盖最早的采样
+     *
+     * @param timestamp 采样时间（毫秒）
+     * @param sample    按 {@link #METRICS} 顺序排列的指标值
+     */
+    public synchronized void record(long timestamp, double... sample) {
+        timestamps[next] = timestamp;
+        for (int metric = 0; metric < METRICS.length; metric++) {
+            values[metric][next] = metric < sample.length ? (float) sample[metric] : 0f;
+        }
+        next = (next + 1) % timestamps.length;
+        size = Math.min(size + 1, timestamps.length);
+        recorded++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    /**
+     * @return 最新采样的时间，没有采样时为0
+     */
+    public synchronized long latestTimestamp() {
+        return size == 0 ? 0 : timestamps[index(0)];
+    }
+
+    /**
+     * @param metric 指标在 {@link #METRICS} 中的下标
+     * @return 最新采样中该指标的值，没有采样时为0
+     */
+    public synchronized double latest(int metric) {
+        return size == 0 ? 0 : values[metric][index(0)];
+    }
+
+    /**
+     * 最近一段时间内某个指标的平均值和峰值
+     *
+     * @param metric       指标在 {@link #METRICS} 中的下标
+     * @param windowMillis 相对于最新采样的时间窗口（毫秒）
+     * @return {平均值, 峰值, 采样个数}，窗口内没有采样时都为0
+     */
+    public synchronized double[] aggregate(int metric, long windowMillis) {
+        if (size == 0) {
+            return new double[]{0, 0, 0};
+        }
+        long newest = timestamps[index(0)];
+        double sum = 0;
+        double peak = 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int index = index(i);
+            if (newest - timestamps[index] > windowMillis) {
+                break;
+            }
+            float value = values[metric][index];
+            sum += value;
+            peak = Math.max(peak, value);
+            count++;
+        }
+        return new double[]{sum / count, peak, count};
+    }
+
+    /**
+     * 按写入顺序取出某个序号之后的全部采样（已被覆盖的除外）
+     * <p>
+     * 使用序号而不是采样时间作为进度，时钟回拨后写入的采样同样会被取出
+     *
+     * @param afterSequence 只取序号大于该值的采样，从未取过时为0
+     * @return 没有新采样时 {@link Batch#size()} 为0
+     */
+    public synchronized Batch since(long afterSequence) {
+        int count = (int) Math.max(0, Math.min(size, recorded - afterSequence));
+        long[] batchTimestamps = new long[count];
+        float[][] batchValues = new float[METRICS.length][count];
+        for (int i = 0; i < count; i++) {
+            // index(count - 1 - i) 从最早的新采样开始
+            int index = index(count - 1 - i);
+            batchTimestamps[i] = timestamps[index];
+            for (int metric = 0; metric < METRICS.length; metric++) {
+                batchValues[metric][i] = values[metric][index];
+            }
+        }
+        return new Batch(batchTimestamps, batchValues, recorded);
+    }
+
+    /**
+     * @param age 0 为最新的采样，1 为前一个采样，以此类推
+     */
+    private int index(int age) {
+        return (next - 1 - age + timestamps.length * 2) % timestamps.length;
+    }
+
+    /**
+     * 一批按时间顺序排列的采样
+     */
+    public static class Batch {
+        private final long[] timestamps;
+        private final float[][] values;
+        private final long lastSequence;
+
+        Batch(long[] timestamps, float[][] values, long lastSequence) {
+            this.timestamps = timestamps;
+            this.values = values;
+            this.lastSequence = lastSequence;
+        }
+
+        public int size() {
+            return timestamps.length;
+        }
+
+        public long[] getTimestamps() {
+            return timestamps;
+        }
+
+        /**
+         * @return 这批采样中最新采样的序号，下次从该序号之后继续取
+         */
+        public long getLastSequence() {
+            return lastSequence;
+        }
+
+        /**
+         * @return 按 {@link MetricsRing#METRICS} 顺序排列，每个指标一个数组
+         */
+        public float[][] getValues() {
+            return values;
+        }
+    }
+}
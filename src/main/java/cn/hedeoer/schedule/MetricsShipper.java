@@ -0,0 +1,100 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.subscribe.transport.MessageTransport;
+import cn.hedeoer.util.AgentIdUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 周期性把环形时间序列中新的采样批量上报到指标stream（metrics:agentId），每次上报一条消息
+ * <p>
+ * 每个指标打包为一个 float32 小端数组再 base64 编码，采样时间为 startTs 加上 int32 小端的偏移（毫秒），
+ * 每秒一次的采样不需要每秒写一次 redis。上报失败时不推进进度，下次连同新的采样一起上报（环形时间序列覆盖的除外）。
+ * 指标stream的裁剪由 {@link ReplyStreamTrimmer} 和响应stream一起周期性执行，上报时不额外访问 redis
+ */
+public class MetricsShipper implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsShipper.class);
+
+    /**
+     * 打包格式，master节点据此解码
+     */
+    public static final String ENCODING = "f32le-base64";
+
+    private final String agentId;
+    private final String streamKey;
+    private final MetricsRing ring;
+    private final MessageTransport transport;
+    /**
+     * 已上报的最新采样在环形时间序列中的序号
+     */
+    private long shippedSequence;
+
+    public MetricsShipper(MetricsRing ring, MessageTransport transport) {
+        this.agentId = AgentIdUtil.loadOrCreateUUID();
+        this.streamKey = streamKey(agentId);
+        this.ring = ring;
+        this.transport = transport;
+    }
+
+    /**
+     * @param agentId agent唯一标识
+     * @return 指标stream的key
+     */
+    public static String streamKey(String agentId) {
+        return "metrics:" + agentId;
+    }
+
+    @Override
+    public void run() {
+        MetricsRing.Batch batch = ring.since(shippedSequence);
+        if (batch.size() == 0) {
+            return;
+        }
+        try {
+            transport.publish(streamKey, pack(agentId, batch));
+            shippedSequence = batch.getLastSequence();
+        } catch (JedisException e) {
+            logger.error("agentId：{} 向 {} 上报 {} 个指标采样失败，等待下次上报", agentId, streamKey, batch.size(), e);
+        }
+    }
+
+    /**
+     * 把一批采样打包为一条消息
+     *
+     * @param agentId agent唯一标识
+     * @param batch   按时间顺序排列的采样
+     * @return 消息内容
+     */
+    static Map<String, String> pack(String agentId, MetricsRing.Batch batch) {
+        long[] timestamps = batch.getTimestamps();
+        long startTs = timestamps[0];
+        ByteBuffer offsets = ByteBuffer.allocate(timestamps.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (long timestamp : timestamps) {
+            offsets.putInt((int) (timestamp - startTs));
+        }
+
+        Map<String, String> message = new LinkedHashMap<>();
+        message.put("agentId", agentId);
+        message.put("encoding", ENCODING);
+        message.put("count", String.valueOf(timestamps.length));
+        message.put("startTs", String.valueOf(startTs));
+        message.put("offsets", Base64.getEncoder().encodeToString(offsets.array()));
+        float[][] values = batch.getValues();
+        for (int metric = 0; metric < MetricsRing.METRICS.length; metric++) {
+            ByteBuffer packed = ByteBuffer.allocate(values[metric].length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (float value : values[metric]) {
+                packed.putFloat(value);
+            }
+            message.put(MetricsRing.METRICS[metric], Base64.getEncoder().encodeToString(packed.array()));
+        }
+        return message;
+    }
+}
@@ -1,105 +1,229 @@
 package cn.hedeoer.schedule;
 
 import cn.hedeoer.pojo.PortInfo;
+import cn.hedeoer.subscribe.transport.JedisTransport;
+import cn.hedeoer.subscribe.transport.MessageTransport;
 import cn.hedeoer.util.AgentIdUtil;
 import cn.hedeoer.util.PortMonitorUtils;
-import cn.hedeoer.util.RedisUtil;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisException;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 
+/**
+ * agent节点端口使用情况的上报
+ * <p>
+ * 上报带有单调递增的版本号：首次上报以及master节点要求时上报完整的端口列表（full: true），
+ * 之后端口变化时只上报相对于 baseVersion 新增和移除的端口；没有变化时重复上报最近一次的增量并更新 ts，
+ * master节点本地版本等于 baseVersion 时应用增量，等于 version 时忽略，否则通过 portInfo 的 OPTIONS 命令要求完整上报
+ */
 public class PortInfoReport implements Runnable{
 
     private static final Logger logger = LoggerFactory.getLogger(PortInfoReport.class);
+    /**
+     * 本进程内的上报状态，定时上报和 OPTIONS 命令触发的上报共享，版本号不会因为不同实例而回退
+     */
+    private static final ReportState REPORT_STATE = new ReportState();
     private final ObjectMapper objectMapper = new ObjectMapper();
     private Integer heartBeatGap;
-    // 使用 CopyOnWriteArrayList 保存上一次端口信息
-    private final List<PortInfo> lastPortInfos = new CopyOnWriteArrayList<>();
 
     private String  portInfoHashTableName ;
+    private final MessageTransport transport;
+    private volatile boolean lastRunChanged;
 
     public  PortInfoReport(){
-        this.portInfoHashTableName = "firewall:portInfo";
-
+        this(null);
     }
 
     public  PortInfoReport(Integer heartBeatGap){
+        this(heartBeatGap, new JedisTransport());
+    }
+
+    public  PortInfoReport(Integer heartBeatGap, MessageTransport transport){
         this.heartBeatGap = heartBeatGap;
         this.portInfoHashTableName = "firewall:portInfo";
+        this.transport = transport;
+    }
+
+    /**
+     * @return 上一次定时上报时端口使用情况是否有变化，{@link AdaptiveScheduler} 据此调整上报间隔
+     */
+    public boolean lastRunChanged() {
+        return lastRunChanged;
     }
 
 
     @Override
     public void run() {
-        boolean b = reportPortInfo(lastPortInfos);
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        try {
+            List<PortInfo> currentPortInfos = PortMonitorUtils.getUsedPortsAbove22();
+            Report report = REPORT_STATE.next(currentPortInfos, false);
+            lastRunChanged = report.hasChange;
+            transport.hashReport(portInfoHashTableName, agentId, buildReport(report));
+            REPORT_STATE.commit(report);
+        } catch (JedisException e) {
+            logFailure(agentId, e);
+        }
     }
 
-    public boolean reportPortInfo(List<PortInfo> lastPortInfos) {
-        try (Jedis jedis = RedisUtil.getJedis()) {
-
-
-            boolean res = false;
-            // 节点唯一表似乎
-            String agentId = AgentIdUtil.loadOrCreateUUID();
-
+    /**
+     * 立即上报一次完整的端口列表，master节点发现版本不连续时通过 portInfo 的 OPTIONS 命令调用
+     *
+     * @return 是否上报成功
+     */
+    public boolean reportPortInfo() {
+        // 节点唯一表似乎
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        try {
             // 获取 快速查出 1024-65535 端口范围 内目前被使用的端口号情况
             List<PortInfo> currentPortInfos = PortMonitorUtils.getUsedPortsAbove22();
+            Report report = REPORT_STATE.next(currentPortInfos, true);
 
-            // 和上次比较是否有端口使用情况发生变化？
-            Boolean hasChange = hasPortChanges(lastPortInfos,currentPortInfos);
+            transport.hashReport(portInfoHashTableName, agentId, buildReport(report));
 
+            REPORT_STATE.commit(report);
 
-            String redisServerSecondsTime = RedisUtil.getRedisServerTime();
+            return true;
+        } catch (JedisException e) {
+            logFailure(agentId, e);
+            return false;
+        }
+    }
 
-            ObjectNode jsonNode = objectMapper.createObjectNode();
-            // redis服务器时间
-            jsonNode.put("ts",redisServerSecondsTime);
-            // agent节点本次将要上报的节点使用情况和上次上报的是否有变更；上报给master节点使用
-            jsonNode.put("hasChange",hasChange);
+    /**
+     * 构建本次上报的内容
+     *
+     * @param report 本次上报
+     * @return 序列化后的上报内容
+     */
+    private String buildReport(Report report) {
+        String redisServerSecondsTime = transport.serverTimeSeconds();
+
+        ObjectNode jsonNode = objectMapper.createObjectNode();
+        // redis服务器时间
+        jsonNode.put("ts",redisServerSecondsTime);
+        // agent节点本次将要上报的节点使用情况和上次上报的是否有变更；上报给master节点使用
+        jsonNode.put("hasChange",report.hasChange);
+        jsonNode.put("version", report.version);
+        jsonNode.put("full", report.full);
+        if (report.full) {
             // 节点本次的节点使用情况
-            jsonNode.set("reportPortInfos", objectMapper.valueToTree(currentPortInfos));
-
-            long hset = jedis.hset(portInfoHashTableName, agentId, objectMapper.writeValueAsString(jsonNode));
-
-            if (hset == 0 || hset == 1) {
-                res = true;
-            }else{
-                logger.error("agentId：{} 向 master节点发送端口使用情况失败，当前配置发送时间间隔 : {} 秒",agentId, this.heartBeatGap);
-            }
-
-            synchronized (lastPortInfos) {
-                lastPortInfos.clear();
-                lastPortInfos.addAll(currentPortInfos);
-            }
+            jsonNode.set("reportPortInfos", objectMapper.valueToTree(report.portInfos));
+        } else {
+            // 从 baseVersion 到 version 新增和移除的端口
+            jsonNode.put("baseVersion", report.baseVersion);
+            jsonNode.set("addedPortInfos", objectMapper.valueToTree(report.added));
+            jsonNode.set("removedPortInfos", objectMapper.valueToTree(report.removed));
+        }
 
-            return res;
+        try {
+            return objectMapper.writeValueAsString(jsonNode);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private void logFailure(String agentId, Throwable e) {
+        logger.error("agentId：{} 向 master节点发送端口使用情况失败，当前配置发送时间间隔 : {} 秒",agentId, this.heartBeatGap, e);
+    }
+
     /**
-     *
-     * @param lastPortInfos
-     * @param currentPortInfos
-     * @return
+     * 一次上报的内容
      */
-    private Boolean hasPortChanges(List<PortInfo> lastPortInfos, List<PortInfo> currentPortInfos) {
-        // 将 List 转换为 Set 进行比较
-        Set<PortInfo> lastSet = new HashSet<>(lastPortInfos);
-        Set<PortInfo> currentSet = new HashSet<>(currentPortInfos);
-
-        // 判断是否有变更
-        return  !lastSet.equals(currentSet);
+    static class Report {
+        final long version;
+        final long baseVersion;
+        final boolean full;
+        final boolean hasChange;
+        final List<PortInfo> portInfos;
+        final List<PortInfo> added;
+        final List<PortInfo> removed;
+
+        Report(long version, long baseVersion, boolean full, boolean hasChange,
+               List<PortInfo> portInfos, List<PortInfo> added, List<PortInfo> removed) {
+            this.version = version;
+            this.baseVersion = baseVersion;
+            this.full = full;
+            this.hasChange = hasChange;
+            this.portInfos = portInfos;
+            this.added = added;
+            this.removed = removed;
+        }
     }
 
+    /**
+     * 最近一次上报成功的端口列表、版本和增量；上报失败时不更新，下次仍然相对于最近一次成功的上报计算增量
+     */
+    static class ReportState {
+        private Set<PortInfo> lastPortInfos;
+        private long version;
+        private Report lastReport;
+
+        /**
+         * 计算本次上报的内容，上报成功后调用 {@link #commit(Report)}
+         *
+         * @param currentPortInfos 本次的端口信息
+         * @param forceFull        是否上报完整的端口列表
+         * @return 本次上报
+         */
+        synchronized Report next(List<PortInfo> currentPortInfos, boolean forceFull) {
+            Set<PortInfo> current = new LinkedHashSet<>(currentPortInfos);
+            // 和上次比较是否有端口使用情况发生变化？
+            boolean hasChange = lastPortInfos == null || !lastPortInfos.equals(current);
+            // 版本号不小于当前时间，agent节点重启后版本号也不会回退
+            long nextVersion = hasChange || forceFull || lastReport == null
+                    ? Math.max(version + 1, System.currentTimeMillis()) : version;
+
+            if (forceFull || lastPortInfos == null) {
+                return new Report(nextVersion, nextVersion, true, hasChange, new ArrayList<>(current),
+                        Collections.emptyList(), Collections.emptyList());
+            }
+            if (hasChange) {
+                List<PortInfo> added = new ArrayList<>(current);
+                added.removeAll(lastPortInfos);
+                List<PortInfo> removed = new ArrayList<>(lastPortInfos);
+                removed.removeAll(current);
+                return new Report(nextVersion, version, false, true, null, added, removed);
+            }
+            // 没有变化时重复最近一次的增量（只更新 ts），还没读取到该增量的master节点仍然可以应用；最近一次是完整上报时为空增量
+            if (lastReport.full) {
+                return new Report(version, version, false, false, null, Collections.emptyList(), Collections.emptyList());
+            }
+            return new Report(version, lastReport.baseVersion, false, false, null, lastReport.added, lastReport.removed);
+        }
 
+        /**
+         * 上报成功后记录本次上报；期间已有其他上报提交、本次上报已经过时的忽略
+         *
+         * @param report 本次上报
+         */
+        synchronized void commit(Report report) {
+            if (report.full) {
+                if (report.version < version) {
+                    return;
+                }
+                lastPortInfos = new HashSet<>(report.portInfos);
+            } else if (report.hasChange) {
+                if (report.baseVersion != version) {
+                    return;
+                }
+                lastPortInfos.removeAll(report.removed);
+                lastPortInfos.addAll(report.added);
+            } else {
+                return;
+            }
+            lastReport = report;
+            version = report.version;
+        }
+    }
 }
@@ -0,0 +1,60 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.subscribe.StreamConfig;
+import cn.hedeoer.subscribe.StreamEntryHandler;
+import cn.hedeoer.subscribe.StreamRetention;
+import cn.hedeoer.subscribe.transport.MessageTransport;
+import cn.hedeoer.util.AgentIdUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 周期性按保留策略裁剪agent节点的响应stream（sub:agentId:streamType）和指标stream（metrics:agentId）
+ * <p>
+ * 发布响应、上报指标时不再逐条裁剪，所有stream的裁剪集中在这里按 trimIntervalMillis 批量执行
+ */
+public class ReplyStreamTrimmer implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplyStreamTrimmer.class);
+
+    private final String agentId;
+    private final List<String> streamTypes;
+    private final StreamConfig streamConfig;
+    private final TelemetryConfig telemetryConfig;
+    private final MessageTransport transport;
+
+    public ReplyStreamTrimmer(List<StreamEntryHandler> handlers, StreamConfig streamConfig, TelemetryConfig telemetryConfig,
+                              MessageTransport transport) {
+        this.agentId = AgentIdUtil.loadOrCreateUUID();
+        this.streamTypes = handlers.stream().map(StreamEntryHandler::streamType).collect(Collectors.toList());
+        this.streamConfig = streamConfig;
+        this.telemetryConfig = telemetryConfig;
+        this.transport = transport;
+    }
+
+    @Override
+    public void run() {
+        for (String streamType : streamTypes) {
+            trim("sub:" + agentId + ":" + streamType, streamConfig.retentionFor(streamType));
+        }
+        // 不上报指标时没有指标stream
+        if (telemetryConfig.getShipIntervalMillis() > 0) {
+            trim(MetricsShipper.streamKey(agentId), telemetryConfig.getMetricsRetention());
+        }
+    }
+
+    private void trim(String streamKey, StreamRetention retention) {
+        try {
+            long trimmed = transport.trimReplies(streamKey, retention);
+            if (trimmed > 0) {
+                logger.info("裁剪stream：{} 共删除 {} 条消息，保留策略：{}", streamKey, trimmed, retention);
+            }
+        } catch (JedisException e) {
+            logger.error("裁剪stream：{} 失败，等待下次裁剪", streamKey, e);
+        }
+    }
+}
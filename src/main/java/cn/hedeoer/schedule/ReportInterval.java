@@ -0,0 +1,56 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.util.YamlUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 一个定时上报任务的间隔：从 intervalSeconds 开始，上报内容变化时缩短（不小于 minIntervalSeconds），
+ * 稳定时逐步放长（不大于 maxIntervalSeconds）
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReportInterval {
+
+    /**
+     * 初始的上报间隔（秒）
+     */
+    @Builder.Default
+    private long intervalSeconds = 30;
+
+    /**
+     * 上报内容频繁变化时的最短间隔（秒）
+     */
+    @Builder.Default
+    private long minIntervalSeconds = 30;
+
+    /**
+     * 长时间稳定时的最长间隔（秒）
+     */
+    @Builder.Default
+    private long maxIntervalSeconds = 30;
+
+    /**
+     * 从配置中读取上报间隔，缺失的配置项使用 defaults 中的值；min &lt;= interval &lt;= max
+     *
+     * @param config   上报间隔的配置
+     * @param defaults 默认的上报间隔
+     * @return ReportInterval
+     */
+    public static ReportInterval fromConfig(Map<String, Object> config, ReportInterval defaults) {
+        long interval = Math.max(1, YamlUtil.getOrDefault(config, "intervalSeconds", defaults.getIntervalSeconds()));
+        long min = Math.max(1, Math.min(interval, YamlUtil.getOrDefault(config, "minIntervalSeconds", defaults.getMinIntervalSeconds())));
+        long max = Math.max(interval, YamlUtil.getOrDefault(config, "maxIntervalSeconds", defaults.getMaxIntervalSeconds()));
+        return ReportInterval.builder()
+                .intervalSeconds(interval)
+                .minIntervalSeconds(min)
+                .maxIntervalSeconds(max)
+                .build();
+    }
+}
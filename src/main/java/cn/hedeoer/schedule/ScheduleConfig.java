@@ -0,0 +1,74 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.util.YamlUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 心跳和端口上报的调度配置，对应 application.yaml 中的 schedule 节点
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScheduleConfig {
+
+    /**
+     * 每次上报间隔的随机抖动比例，比如 0.1 表示在间隔的 ±10% 内浮动；随机序列由 agentId 决定
+     */
+    @Builder.Default
+    private double jitterRatio = 0.1;
+
+    /**
+     * 心跳指标（CPU、内存利用率）变化超过该值（百分点）时视为变化，缩短心跳间隔
+     */
+    @Builder.Default
+    private double metricChangeThreshold = 10;
+
+    /**
+     * 心跳的上报间隔，最长间隔不能超过master节点判断离线的时间
+     */
+    @Builder.Default
+    private ReportInterval heartbeat = ReportInterval.builder()
+            .intervalSeconds(30)
+            .minIntervalSeconds(10)
+            .maxIntervalSeconds(30)
+            .build();
+
+    /**
+     * 端口使用情况的上报间隔
+     */
+    @Builder.Default
+    private ReportInterval portInfo = ReportInterval.builder()
+            .intervalSeconds(40)
+            .minIntervalSeconds(10)
+            .maxIntervalSeconds(300)
+            .build();
+
+    /**
+     * 从 application.yaml 的 schedule 节点加载配置，缺失的配置项使用默认值
+     *
+     * @return ScheduleConfig
+     */
+    public static ScheduleConfig load() {
+        Map<String, Object> config = YamlUtil.getYamlConfig("schedule");
+        ScheduleConfig defaults = ScheduleConfig.builder().build();
+        return ScheduleConfig.builder()
+                .jitterRatio(Math.min(0.5, Math.max(0, YamlUtil.getOrDefault(config, "jitterRatio", defaults.getJitterRatio()))))
+                .metricChangeThreshold(YamlUtil.getOrDefault(config, "metricChangeThreshold", defaults.getMetricChangeThreshold()))
+                .heartbeat(ReportInterval.fromConfig(subConfig(config, "heartbeat"), defaults.getHeartbeat()))
+                .portInfo(ReportInterval.fromConfig(subConfig(config, "portInfo"), defaults.getPortInfo()))
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> subConfig(Map<String, Object> config, String key) {
+        Object value = config == null ? null : config.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : new HashMap<>();
+    }
+}
@@ -0,0 +1,71 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.subscribe.StreamRetention;
+import cn.hedeoer.util.YamlUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 宿主机指标采样和上报相关的配置，对应 application.yaml 中的 telemetry 节点
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TelemetryConfig {
+
+    /**
+     * 采样间隔（毫秒）
+     */
+    @Builder.Default
+    private long sampleIntervalMillis = 1000;
+
+    /**
+     * 环形时间序列保留的采样个数，按默认采样间隔为最近10分钟
+     */
+    @Builder.Default
+    private int ringSize = 600;
+
+    /**
+     * 批量上报采样到指标stream（metrics:agentId）的间隔（毫秒），小于等于0表示不上报
+     */
+    @Builder.Default
+    private long shipIntervalMillis = 30000;
+
+    /**
+     * 指标stream的保留策略，由 {@link ReplyStreamTrimmer} 按 stream.trimIntervalMillis 周期性裁剪
+     */
+    @Builder.Default
+    private StreamRetention metricsRetention = StreamRetention.builder()
+            .maxAgeMillis(3600000)
+            .maxLen(1000)
+            .deleteReadReplies(false)
+            .build();
+
+    /**
+     * 从 application.yaml 的 telemetry 节点加载配置，缺失的配置项使用默认值
+     *
+     * @return TelemetryConfig
+     */
+    public static TelemetryConfig load() {
+        Map<String, Object> config = YamlUtil.getYamlConfig("telemetry");
+        TelemetryConfig defaults = TelemetryConfig.builder().build();
+        return TelemetryConfig.builder()
+                .sampleIntervalMillis(Math.max(100, YamlUtil.getOrDefault(config, "sampleIntervalMillis", defaults.getSampleIntervalMillis())))
+                .ringSize(Math.max(1, YamlUtil.getOrDefault(config, "ringSize", defaults.getRingSize())))
+                .shipIntervalMillis(YamlUtil.getOrDefault(config, "shipIntervalMillis", defaults.getShipIntervalMillis()))
+                .metricsRetention(StreamRetention.fromConfig(subConfig(config, "metricsRetention"), defaults.getMetricsRetention()))
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> subConfig(Map<String, Object> config, String key) {
+        Object value = config == null ? null : config.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : new HashMap<>();
+    }
+}
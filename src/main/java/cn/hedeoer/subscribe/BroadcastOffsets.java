@@ -0,0 +1,141 @@
+package cn.hedeoer.subscribe;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.StreamEntryID;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * 广播命令stream的读取进度，持久化到本地文件
+ * <p>
+ * 广播stream没有消费者组和待确认列表，agent节点自己记录进度：读取到的命令先记为处理中，响应发布后记为完成，
+ * 持久化的进度是"该ID及之前的命令都已处理完成"的位置。agent节点重启后从该位置之后继续读取，
+ * 读取后还没处理完成的命令会再次读取（修改类命令由幂等缓存去重），已处理完成的命令不会重复执行
+ */
+public class BroadcastOffsets {
+
+    private static final Logger logger = LoggerFactory.getLogger(BroadcastOffsets.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File file;
+    /**
+     * 广播streamKey -> 已处理完成的位置
+     */
+    private final Map<String, StreamEntryID> committed = new LinkedHashMap<>();
+    /**
+     * 广播streamKey -> 最后读取的命令ID
+     */
+    private final Map<String, StreamEntryID> lastRead = new HashMap<>();
+    /**
+     * 广播streamKey -> 已读取但还没处理完成的命令ID
+     */
+    private final Map<String, NavigableSet<StreamEntryID>> inFlight = new HashMap<>();
+
+    /**
+     * @param path 持久化文件路径
+     */
+    public BroadcastOffsets(String path) {
+        this.file = new File(path);
+        load();
+    }
+
+    /**
+     * @param streamKey 广播streamKey
+     * @return 已处理完成的位置，没有记录时返回 null
+     */
+    public synchronized StreamEntryID get(String streamKey) {
+        return committed.get(streamKey);
+    }
+
+    /**
+     * @return 广播streamKey -> 已处理完成的位置
+     */
+    public synchronized Map<String, StreamEntryID> snapshot() {
+        return new LinkedHashMap<>(committed);
+    }
+
+    /**
+     * 记录读取到的命令，处理完成前进度不会越过该命令
+     *
+     * @param streamKey 广播streamKey
+     * @param entryID   命令的 entryId
+     */
+    public synchronized void markRead(String streamKey, StreamEntryID entryID) {
+        inFlight.computeIfAbsent(streamKey, key -> new TreeSet<>()).add(entryID);
+        lastRead.merge(streamKey, entryID, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+    }
+
+    /**
+     * 记录命令处理完成（响应已发布），推进并持久化进度；响应发布失败的命令不记为完成，进度不会越过它
+     *
+     * @param streamKey 广播streamKey
+     * @param entryID   命令的 entryId
+     */
+    public synchronized void markDone(String streamKey, StreamEntryID entryID) {
+        NavigableSet<StreamEntryID> pending = inFlight.get(streamKey);
+        if (pending == null || !pending.remove(entryID)) {
+            return;
+        }
+        // 还有更早的命令在处理时，进度停在最早的处理中命令之前
+        StreamEntryID offset = pending.isEmpty() ? lastRead.get(streamKey) : previous(pending.first());
+        StreamEntryID current = committed.get(streamKey);
+        if (current == null || offset.compareTo(current) > 0) {
+            committed.put(streamKey, offset);
+            persist();
+        }
+    }
+
+    /**
+     * @return 紧挨在 entryID 之前的ID，从该ID之后读取时第一条即为 entryID
+     */
+    static StreamEntryID previous(StreamEntryID entryID) {
+        if (entryID.getSequence() > 0) {
+            return new StreamEntryID(entryID.getTime(), entryID.getSequence() - 1);
+        }
+        return entryID.getTime() > 0 ? new StreamEntryID(entryID.getTime() - 1, Long.MAX_VALUE) : new StreamEntryID();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Map<String, String> saved = objectMapper.readValue(file, new TypeReference<LinkedHashMap<String, String>>() {
+            });
+            for (Map.Entry<String, String> offset : saved.entrySet()) {
+                committed.put(offset.getKey(), new StreamEntryID(offset.getValue()));
+            }
+            logger.info("从 {} 加载了 {} 个广播stream的读取进度", file.getPath(), committed.size());
+        } catch (IOException | IllegalArgumentException e) {
+            // 进度文件损坏时从广播stream当前的最后一条命令之后开始读取，不影响启动
+            logger.warn("读取广播进度文件 {} 失败，忽略已记录的进度", file.getPath(), e);
+            committed.clear();
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换，避免写入过程中崩溃留下不完整的文件
+     */
+    private void persist() {
+        Map<String, String> offsets = new LinkedHashMap<>();
+        committed.forEach((streamKey, offset) -> offsets.put(streamKey, offset.toString()));
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp, offsets);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入广播进度文件 {} 失败", file.getPath(), e);
+        }
+    }
+}
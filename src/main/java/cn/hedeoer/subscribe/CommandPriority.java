@@ -0,0 +1,32 @@
+package cn.hedeoer.subscribe;
+
+/**
+ * 命令在内部工作队列中的优先级，数值越小越先执行，同一优先级按读取顺序执行
+ */
+public enum CommandPriority {
+
+    /**
+     * 控制类命令：启动、停止、重启防火墙，禁用/启用ping
+     */
+    CONTROL(0),
+
+    /**
+     * 只读命令：查询端口规则、端口占用、防火墙状态
+     */
+    QUERY(1),
+
+    /**
+     * 修改类命令：增删改端口规则等
+     */
+    MUTATION(2);
+
+    private final int order;
+
+    CommandPriority(int order) {
+        this.order = order;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+}
@@ -0,0 +1,246 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已执行的修改类命令及其响应的缓存，保证命令幂等
+ * <p>
+ * master节点重试或者命令被重新投递时，直接返回第一次执行的响应，不再重复执行 firewall-cmd/ufw 命令、备份和重载防火墙。
+ * 缓存按最近使用淘汰，最多保留 maxEntries 条，agent节点重启后依然有效：
+ * 每次写入只向持久化文件追加一行记录（不强制刷盘），追加的记录超过 maxEntries 的两倍时按当前缓存重写文件。
+ * 文件读写使用单独的锁，写文件期间读取缓存不需要等待
+ */
+public class IdempotencyCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyCache.class);
+
+    /**
+     * 命令中master节点指定的幂等键的字段名，没有时使用命令的 streamKey 和 entryId
+     */
+    public static final String IDEMPOTENCY_KEY_FIELD = "idempotencyKey";
+
+    private static final String KEY_FIELD = "key";
+    private static final String RESPONSE_FIELD = "response";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<String, ResponseResult<Object>> responses;
+    /**
+     * 持久化文件的锁，持有时可以再获取缓存的锁，反之不行
+     */
+    private final Object fileLock = new Object();
+    private Writer writer;
+    /**
+     * 持久化文件中的记录条数
+     */
+    private int records;
+
+    /**
+     * @param path       持久化文件路径
+     * @param maxEntries 最多缓存的命令条数，小于等于0时不缓存
+     */
+    public IdempotencyCache(String path, int maxEntries) {
+        this.file = new File(path);
+        this.maxEntries = maxEntries;
+        this.responses = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseResult<Object>> eldest) {
+                return size() > IdempotencyCache.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * 生成命令的幂等键
+     *
+     * @param pubStreamKey 命令所在的 streamKey
+     * @param entryId      命令的 entryId
+     * @param fields       命令内容
+     * @return master节点指定了 idempotencyKey 时使用该值，否则为 streamKey 和 entryId
+     */
+    public static String keyOf(String pubStreamKey, String entryId, Map<String, String> fields) {
+        String idempotencyKey = fields == null ? null : fields.get(IDEMPOTENCY_KEY_FIELD);
+        if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+            return pubStreamKey + "#" + idempotencyKey;
+        }
+        return pubStreamKey + "@" + entryId;
+    }
+
+    /**
+     * @param key 幂等键
+     * @return 第一次执行时的响应，没有执行过时返回 null
+     */
+    public synchronized ResponseResult<Object> get(String key) {
+        return responses.get(key);
+    }
+
+    /**
+     * 记录命令的响应并追加到持久化文件
+     *
+     * @param key            幂等键
+     * @param responseResult 响应
+     */
+    @SuppressWarnings("unchecked")
+    public void put(String key, ResponseResult<?> responseResult) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        String record;
+        try {
+            record = toRecord(key, responseResult);
+        } catch (JsonProcessingException e) {
+            logger.warn("序列化命令 {} 的响应失败，不写入幂等缓存文件", key, e);
+            record = null;
+        }
+        synchronized (this) {
+            responses.put(key, (ResponseResult<Object>) responseResult);
+        }
+        if (record != null) {
+            append(record);
+        }
+    }
+
+    public synchronized int size() {
+        return responses.size();
+    }
+
+    /**
+     * 按顺序重放文件中的记录，后写入的覆盖先写入的；崩溃时最后一行可能不完整，跳过无法解析的行。
+     * 加载后按当前缓存重写文件
+     */
+    private void load() {
+        if (maxEntries <= 0 || !file.exists()) {
+            return;
+        }
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    loadRecord(objectMapper.readTree(line));
+                } catch (IOException | IllegalArgumentException e) {
+                    skipped++;
+                }
+            }
+        } catch (IOException e) {
+            // 缓存文件损坏只会导致重复命令再执行一次，不影响启动
+            logger.warn("读取幂等缓存文件 {} 失败，忽略已缓存的响应", file.getPath(), e);
+        }
+        logger.info("从 {} 加载了 {} 条已执行命令的响应，跳过 {} 行无法解析的记录", file.getPath(), responses.size(), skipped);
+        synchronized (fileLock) {
+            compact();
+        }
+    }
+
+    private void loadRecord(JsonNode node) {
+        if (node.has(KEY_FIELD) && node.has(RESPONSE_FIELD)) {
+            responses.put(node.get(KEY_FIELD).asText(), objectMapper.convertValue(node.get(RESPONSE_FIELD),
+                    new TypeReference<ResponseResult<Object>>() {
+                    }));
+            return;
+        }
+        // 旧版本把整个缓存写成一个 JSON 对象：幂等键 -> 响应
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            responses.put(field.getKey(), objectMapper.convertValue(field.getValue(),
+                    new TypeReference<ResponseResult<Object>>() {
+                    }));
+        }
+    }
+
+    private String toRecord(String key, ResponseResult<?> responseResult) throws JsonProcessingException {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put(KEY_FIELD, key);
+        node.set(RESPONSE_FIELD, objectMapper.valueToTree(responseResult));
+        return objectMapper.writeValueAsString(node);
+    }
+
+    /**
+     * 追加一行记录，只刷新到操作系统，不强制刷盘；追加的记录过多时重写文件
+     */
+    private void append(String record) {
+        synchronized (fileLock) {
+            if (records >= maxEntries * 2) {
+                // 重写的文件已包含本条记录
+                compact();
+                return;
+            }
+            try {
+                if (writer == null) {
+                    writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                writer.write(record);
+                writer.write('\n');
+                writer.flush();
+                records++;
+            } catch (IOException e) {
+                logger.warn("写入幂等缓存文件 {} 失败", file.getPath(), e);
+                closeWriter();
+            }
+        }
+    }
+
+    /**
+     * 按当前缓存重写文件：先写临时文件再原子替换，避免写入过程中崩溃留下不完整的文件。只在持有 fileLock 时调用
+     */
+    private void compact() {
+        List<String> lines = new ArrayList<>();
+        List<Map.Entry<String, ResponseResult<Object>>> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(responses.entrySet());
+        }
+        try {
+            for (Map.Entry<String, ResponseResult<Object>> entry : snapshot) {
+                lines.add(toRecord(entry.getKey(), entry.getValue()));
+            }
+            closeWriter();
+            File tmp = new File(file.getPath() + ".tmp");
+            Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            records = lines.size();
+        } catch (IOException e) {
+            logger.warn("重写幂等缓存文件 {} 失败", file.getPath(), e);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.warn("关闭幂等缓存文件 {} 失败", file.getPath(), e);
+        }
+        writer = null;
+    }
+}
@@ -0,0 +1,105 @@
+package cn.hedeoer.subscribe;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界的优先级工作队列：优先级高的先出队，同一优先级先进先出；队列满时入队阻塞，读取线程据此停止拉取新命令
+ *
+ * @param <T> 元素类型
+ */
+public class PriorityWorkQueue<T> {
+
+    private final int capacity;
+    private final PriorityQueue<Item<T>> queue = new PriorityQueue<>(
+            Comparator.<Item<T>>comparingInt(item -> item.priority.getOrder()).thenComparingLong(item -> item.sequence));
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private long sequence;
+
+    public PriorityWorkQueue(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * 入队，队列已满时阻塞直到有空位
+     *
+     * @param element  元素
+     * @param priority 优先级
+     * @throws InterruptedException 等待时被中断
+     */
+    public void put(T element, CommandPriority priority) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            queue.add(new Item<>(element, priority, sequence++));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取出优先级最高的元素，队列为空时阻塞
+     *
+     * @return 元素
+     * @throws InterruptedException 等待时被中断
+     */
+    public T take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            T element = queue.poll().element;
+            notFull.signal();
+            return element;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞直到队列有空位
+     *
+     * @return 当前的空位数
+     * @throws InterruptedException 等待时被中断
+     */
+    public int awaitRemainingCapacity() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            return capacity - queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class Item<T> {
+        private final T element;
+        private final CommandPriority priority;
+        private final long sequence;
+
+        Item(T element, CommandPriority priority, long sequence) {
+            this.element = element;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package cn.hedeoer.subscribe;
+
+/**
+ * 发布响应（XADD 到 sub:agentId:streamType）和确认命令（XACK pub:agentId:streamType）的方式
+ */
+public enum ReplyAckMode {
+
+    /**
+     * XADD 和确认放在同一个 pipeline 中发送，一次网络往返；两条命令不是原子的，
+     * 但确认由一个只检查响应是否已写入的小脚本执行，XADD 失败时不会确认命令
+     */
+    PIPELINE,
+
+    /**
+     * 通过服务端 lua 脚本同时执行 XADD 和 XACK，一次网络往返并且是原子的：
+     * 不会出现已确认但没有响应，或者已响应但没有确认的情况
+     */
+    SCRIPT;
+
+    /**
+     * 根据配置值获取对应的枚举实例，忽略大小写
+     *
+     * @param value        配置值
+     * @param defaultValue 无法识别时的默认值
+     * @return ReplyAckMode
+     */
+    public static ReplyAckMode fromValue(String value, ReplyAckMode defaultValue) {
+        for (ReplyAckMode mode : ReplyAckMode.values()) {
+            if (mode.name().equalsIgnoreCase(value)) {
+                return mode;
+            }
+        }
+        return defaultValue;
+    }
+}
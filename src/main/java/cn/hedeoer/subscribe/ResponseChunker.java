@@ -0,0 +1,99 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.codec.PayloadCodec;
+import cn.hedeoer.subscribe.codec.PayloadCodecs;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 将 data 为列表的大响应（比如上千条端口规则、监听端口）拆分为多个有序分片，每个分片是一条独立的stream消息
+ * <p>
+ * 每个分片都是完整的响应（timestamp、status、message、data），data 为原列表的一页，并带有：
+ * <ul>
+ *     <li>chunkIndex：分片序号，从0开始</li>
+ *     <li>chunkCount：分片总数</li>
+ *     <li>lastChunk：是否为最后一个分片，1 表示最后一个</li>
+ * </ul>
+ * 第一个分片使用命令的 entryId 发布，其余分片通过 requestEntryId 字段关联到命令，master节点收到第一个分片即可开始处理
+ */
+public class ResponseChunker {
+
+    public static final String CHUNK_INDEX_FIELD = "chunkIndex";
+    public static final String CHUNK_COUNT_FIELD = "chunkCount";
+    public static final String LAST_CHUNK_FIELD = "lastChunk";
+
+    private static final byte[] DATA_FIELD = SafeEncoder.encode("data");
+
+    private ResponseChunker() {
+    }
+
+    /**
+     * 拆分响应
+     *
+     * @param responseResult 响应
+     * @param codec          data 字段的编码格式
+     * @param maxChunkBytes  每个分片 data 字段的最大字节数，小于等于0时不拆分；单个元素超过该大小时独占一个分片
+     * @return 分片，不需要拆分时只有一个元素且不带分片字段
+     */
+    public static List<Map<byte[], byte[]>> split(ResponseResult<?> responseResult, PayloadCodec codec, int maxChunkBytes) {
+        Map<byte[], byte[]> whole = PayloadCodecs.encodeResponse(responseResult, codec);
+        int dataLength = dataLength(whole);
+        if (maxChunkBytes <= 0 || dataLength <= maxChunkBytes
+                || !(responseResult.getData() instanceof List) || ((List<?>) responseResult.getData()).size() < 2) {
+            return Collections.singletonList(whole);
+        }
+
+        // 先按平均每个元素的编码大小估算每页元素个数，编码后仍然超过限制的页再对半拆分
+        List<?> items = (List<?>) responseResult.getData();
+        int pageSize = (int) Math.max(1, (long) items.size() * maxChunkBytes / dataLength);
+        Deque<List<?>> pending = new ArrayDeque<>();
+        for (int from = 0; from < items.size(); from += pageSize) {
+            pending.addLast(items.subList(from, Math.min(items.size(), from + pageSize)));
+        }
+
+        List<Map<byte[], byte[]>> chunks = new ArrayList<>();
+        while (!pending.isEmpty()) {
+            List<?> page = pending.pollFirst();
+            Map<byte[], byte[]> chunk = PayloadCodecs.encodeResponse(ResponseResult.builder()
+                    .timestamp(responseResult.getTimestamp())
+                    .status(responseResult.getStatus())
+                    .message(responseResult.getMessage())
+                    .truncated(responseResult.getTruncated())
+                    .etag(responseResult.getEtag())
+                    .data(new ArrayList<>(page))
+                    .build(), codec);
+            if (dataLength(chunk) > maxChunkBytes && page.size() > 1) {
+                int half = page.size() / 2;
+                pending.addFirst(page.subList(half, page.size()));
+                pending.addFirst(page.subList(0, half));
+                continue;
+            }
+            chunks.add(chunk);
+        }
+
+        for (int i = 0; i < chunks.size(); i++) {
+            Map<byte[], byte[]> chunk = chunks.get(i);
+            chunk.put(SafeEncoder.encode(CHUNK_INDEX_FIELD), SafeEncoder.encode(String.valueOf(i)));
+            chunk.put(SafeEncoder.encode(CHUNK_COUNT_FIELD), SafeEncoder.encode(String.valueOf(chunks.size())));
+            chunk.put(SafeEncoder.encode(LAST_CHUNK_FIELD), SafeEncoder.encode(i == chunks.size() - 1 ? "1" : "0"));
+        }
+        return chunks;
+    }
+
+    private static int dataLength(Map<byte[], byte[]> message) {
+        for (Map.Entry<byte[], byte[]> field : message.entrySet()) {
+            if (Arrays.equals(DATA_FIELD, field.getKey())) {
+                return field.getValue() == null ? 0 : field.getValue().length;
+            }
+        }
+        return 0;
+    }
+}
@@ -8,6 +8,7 @@ import redis.clients.jedis.params.XReadParams;
 import redis.clients.jedis.resps.StreamEntry;
 
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,9 +17,13 @@ import java.util.Map;
  * XREAD [COUNT count] [BLOCK milliseconds] STREAMS key [key ...] ID [ID ...]
  */
 public class SimpleStreamConsumer {
-    private final Jedis jedis;
+    private Jedis jedis;
     private final String streamKey;
     private StreamEntryID lastSeenId;
+    /**
+     * 一次 XREAD 读取多个stream时，每个stream各自的最后读取的ID
+     */
+    private final Map<String, StreamEntryID> lastSeenIds = new LinkedHashMap<>();
 
     public SimpleStreamConsumer(Jedis jedis, String streamKey) {
         this.jedis = jedis;
@@ -26,6 +31,65 @@ public class SimpleStreamConsumer {
         this.lastSeenId = StreamEntryID.XGROUP_LAST_ENTRY; // 从最新的开始
     }
 
+    /**
+     * 一次 XREAD 读取多个stream（比如多个广播stream）
+     *
+     * @param jedis       连接
+     * @param lastSeenIds streamKey -> 从该ID之后开始读取，为 null 时从stream当前最后一条消息之后开始
+     */
+    public SimpleStreamConsumer(Jedis jedis, Map<String, StreamEntryID> lastSeenIds) {
+        this.jedis = jedis;
+        this.streamKey = null;
+        for (Map.Entry<String, StreamEntryID> lastSeen : lastSeenIds.entrySet()) {
+            this.lastSeenIds.put(lastSeen.getKey(), lastSeen.getValue() != null ? lastSeen.getValue() : currentLastId(lastSeen.getKey()));
+        }
+    }
+
+    /**
+     * 连接重建后绑定到新的连接
+     *
+     * @param jedis 新的连接
+     */
+    public void rebind(Jedis jedis) {
+        this.jedis = jedis;
+    }
+
+    /**
+     * 阻塞式读取多个stream中的新消息，读取到新消息后自动更新各stream的最后读取的ID
+     *
+     * @param count           每个stream最多读取的消息条数
+     * @param blockTimeMillis 阻塞等待新消息的最长时间（毫秒）
+     * @return streamKey -> 按顺序排列的新消息，没有新消息时为空
+     */
+    public Map<String, List<StreamEntry>> readNewMessagesByStream(int count, int blockTimeMillis) {
+        XReadParams params = XReadParams.xReadParams()
+                .count(count)
+                .block(blockTimeMillis);
+
+        List<Map.Entry<String, List<StreamEntry>>> response = jedis.xread(params, new LinkedHashMap<>(lastSeenIds));
+        if (response == null || response.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<StreamEntry>> entriesByStream = new LinkedHashMap<>();
+        for (Map.Entry<String, List<StreamEntry>> streamEntries : response) {
+            List<StreamEntry> entries = streamEntries.getValue();
+            if (!entries.isEmpty()) {
+                lastSeenIds.put(streamEntries.getKey(), entries.get(entries.size() - 1).getID());
+                entriesByStream.put(streamEntries.getKey(), entries);
+            }
+        }
+        return entriesByStream;
+    }
+
+    /**
+     * stream 当前最后一条消息的ID，stream 不存在或为空时为 0-0；
+     * 不使用 $，否则在两次 XREAD 之间写入的消息会被跳过
+     */
+    private StreamEntryID currentLastId(String key) {
+        List<StreamEntry> last = jedis.xrevrange(key, StreamEntryID.MAXIMUM_ID, StreamEntryID.MINIMUM_ID, 1);
+        return last == null || last.isEmpty() ? new StreamEntryID() : last.get(0).getID();
+    }
+
     /**
      * 阻塞式读取 Redis Stream 中的新消息。
      * <p>
@@ -0,0 +1,228 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.util.YamlUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 命令stream消费相关的配置，对应 application.yaml 中的 stream 节点
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamConfig {
+
+    /**
+     * 每次 XREADGROUP 每个stream最多读取的消息条数
+     */
+    @Builder.Default
+    private int batchSize = 10;
+
+    /**
+     * 读取线程和工作线程之间工作队列的容量，队列满时停止读取新命令
+     */
+    @Builder.Default
+    private int workQueueCapacity = 100;
+
+    /**
+     * 并发执行只读命令（查询）的线程数
+     */
+    @Builder.Default
+    private int queryParallelism = 4;
+
+    /**
+     * XREADGROUP 阻塞等待新消息的最长时间（毫秒），超时后会检查是否需要执行待确认消息的恢复
+     */
+    @Builder.Default
+    private int blockMillis = 5000;
+
+    /**
+     * 阻塞读取命令的专用连接空闲超过该时间（毫秒）后，使用前先 PING 检查连接是否可用
+     */
+    @Builder.Default
+    private long healthCheckIntervalMillis = 30000;
+
+    /**
+     * 阻塞读取命令的专用连接断开后，重连的最大退避时间（毫秒）
+     */
+    @Builder.Default
+    private long reconnectMaxBackoffMillis = 30000;
+
+    /**
+     * 周期性恢复待确认消息（已投递但未 XACK）的时间间隔（毫秒）
+     */
+    @Builder.Default
+    private long pendingRecoveryIntervalMillis = 60000;
+
+    /**
+     * 周期性恢复时只认领空闲超过该时间（毫秒）的待确认消息；agent节点启动时会认领全部待确认消息
+     */
+    @Builder.Default
+    private long pendingMinIdleMillis = 60000;
+
+    /**
+     * 每次 XAUTOCLAIM 最多认领的消息条数
+     */
+    @Builder.Default
+    private int pendingBatchSize = 100;
+
+    /**
+     * 发布响应和确认命令的方式
+     */
+    @Builder.Default
+    private ReplyAckMode replyAckMode = ReplyAckMode.PIPELINE;
+
+    /**
+     * 响应 data 字段超过该大小（字节）时使用 deflate 压缩，小于等于0表示不压缩
+     */
+    @Builder.Default
+    private int compressThresholdBytes = 4096;
+
+    /**
+     * 列表类型的响应 data 字段超过该大小（字节）时拆分为多个分片发布，小于等于0表示不拆分
+     */
+    @Builder.Default
+    private int maxChunkBytes = 262144;
+
+    /**
+     * 幂等缓存最多保留的已执行修改类命令条数，小于等于0表示不缓存
+     */
+    @Builder.Default
+    private int idempotencyCacheSize = 1000;
+
+    /**
+     * 幂等缓存的持久化文件
+     */
+    @Builder.Default
+    private String idempotencyCacheFile = "./idempotency-cache.json";
+
+    /**
+     * 命令没有 timeoutMillis 字段时的超时时间（毫秒），从命令发出开始计算，小于等于0表示没有截止时间
+     */
+    @Builder.Default
+    private long commandTimeoutMillis = 300000;
+
+    /**
+     * 命令通过 replyTo 字段指定直接响应key时，key必须以该前缀开头，否则仍然发布到响应stream
+     */
+    @Builder.Default
+    private String directReplyKeyPrefix = "reply:";
+
+    /**
+     * 直接响应key的过期时间（毫秒）
+     */
+    @Builder.Default
+    private long directReplyTtlMillis = 60000;
+
+    /**
+     * 该agent节点的标签，每个标签对应一组广播命令stream（broadcast:label:streamType），为空时不读取广播命令
+     */
+    @Builder.Default
+    private List<String> broadcastLabels = new ArrayList<>();
+
+    /**
+     * 广播命令读取进度的持久化文件
+     */
+    @Builder.Default
+    private String broadcastOffsetFile = "./broadcast-offsets.json";
+
+    /**
+     * 周期性裁剪响应stream的时间间隔（毫秒）
+     */
+    @Builder.Default
+    private long trimIntervalMillis = 60000;
+
+    /**
+     * 响应stream默认的保留策略
+     */
+    @Builder.Default
+    private StreamRetention replyRetention = StreamRetention.builder().build();
+
+    /**
+     * streamType -> 该类型响应stream单独的保留策略，未配置的类型使用 replyRetention
+     */
+    @Builder.Default
+    private Map<String, StreamRetention> replyRetentionByStream = new HashMap<>();
+
+    /**
+     * 获取某个类型响应stream的保留策略
+     *
+     * @param streamType stream类型，比如 portRule
+     * @return StreamRetention
+     */
+    public StreamRetention retentionFor(String streamType) {
+        return replyRetentionByStream.getOrDefault(streamType, replyRetention);
+    }
+
+    /**
+     * 从 application.yaml 的 stream 节点加载配置，缺失的配置项使用默认值
+     *
+     * @return StreamConfig
+     */
+    public static StreamConfig load() {
+        Map<String, Object> config = YamlUtil.getYamlConfig("stream");
+        StreamConfig defaults = StreamConfig.builder().build();
+
+        // replyRetention 下除了默认的保留策略，streams 节点可以为每种 streamType 单独配置，未配置的项沿用默认值
+        Map<String, Object> retentionConfig = subConfig(config, "replyRetention");
+        StreamRetention replyRetention = StreamRetention.fromConfig(retentionConfig, defaults.getReplyRetention());
+        Map<String, StreamRetention> replyRetentionByStream = new HashMap<>();
+        Map<String, Object> streamsConfig = subConfig(retentionConfig, "streams");
+        for (String streamType : streamsConfig.keySet()) {
+            replyRetentionByStream.put(streamType,
+                    StreamRetention.fromConfig(subConfig(streamsConfig, streamType), replyRetention));
+        }
+        return StreamConfig.builder()
+                .batchSize(Math.max(1, YamlUtil.getOrDefault(config, "batchSize", defaults.getBatchSize())))
+                .workQueueCapacity(Math.max(1, YamlUtil.getOrDefault(config, "workQueueCapacity", defaults.getWorkQueueCapacity())))
+                .queryParallelism(Math.max(1, YamlUtil.getOrDefault(config, "queryParallelism", defaults.getQueryParallelism())))
+                .blockMillis(Math.max(1, YamlUtil.getOrDefault(config, "blockMillis", defaults.getBlockMillis())))
+                .healthCheckIntervalMillis(YamlUtil.getOrDefault(config, "healthCheckIntervalMillis", defaults.getHealthCheckIntervalMillis()))
+                .reconnectMaxBackoffMillis(YamlUtil.getOrDefault(config, "reconnectMaxBackoffMillis", defaults.getReconnectMaxBackoffMillis()))
+                .pendingRecoveryIntervalMillis(YamlUtil.getOrDefault(config, "pendingRecoveryIntervalMillis", defaults.getPendingRecoveryIntervalMillis()))
+                .pendingMinIdleMillis(YamlUtil.getOrDefault(config, "pendingMinIdleMillis", defaults.getPendingMinIdleMillis()))
+                .pendingBatchSize(Math.max(1, YamlUtil.getOrDefault(config, "pendingBatchSize", defaults.getPendingBatchSize())))
+                .replyAckMode(ReplyAckMode.fromValue(
+                        YamlUtil.getOrDefault(config, "replyAckMode", defaults.getReplyAckMode().name()), defaults.getReplyAckMode()))
+                .compressThresholdBytes(YamlUtil.getOrDefault(config, "compressThresholdBytes", defaults.getCompressThresholdBytes()))
+                .maxChunkBytes(YamlUtil.getOrDefault(config, "maxChunkBytes", defaults.getMaxChunkBytes()))
+                .idempotencyCacheSize(YamlUtil.getOrDefault(config, "idempotencyCacheSize", defaults.getIdempotencyCacheSize()))
+                .idempotencyCacheFile(YamlUtil.getOrDefault(config, "idempotencyCacheFile", defaults.getIdempotencyCacheFile()))
+                .commandTimeoutMillis(YamlUtil.getOrDefault(config, "commandTimeoutMillis", defaults.getCommandTimeoutMillis()))
+                .directReplyKeyPrefix(YamlUtil.getOrDefault(config, "directReplyKeyPrefix", defaults.getDirectReplyKeyPrefix()))
+                .directReplyTtlMillis(Math.max(1, YamlUtil.getOrDefault(config, "directReplyTtlMillis", defaults.getDirectReplyTtlMillis())))
+                .broadcastLabels(labels(YamlUtil.getOrDefault(config, "broadcastLabels", defaults.getBroadcastLabels())))
+                .broadcastOffsetFile(YamlUtil.getOrDefault(config, "broadcastOffsetFile", defaults.getBroadcastOffsetFile()))
+                .trimIntervalMillis(Math.max(1000, YamlUtil.getOrDefault(config, "trimIntervalMillis", defaults.getTrimIntervalMillis())))
+                .replyRetention(replyRetention)
+                .replyRetentionByStream(replyRetentionByStream)
+                .build();
+    }
+
+    /**
+     * yaml 列表中的元素可能被解析为数字等类型，统一转为字符串并去掉空值
+     */
+    private static List<String> labels(List<?> values) {
+        List<String> labels = new ArrayList<>();
+        for (Object value : values) {
+            if (value != null && !value.toString().isBlank() && !labels.contains(value.toString().trim())) {
+                labels.add(value.toString().trim());
+            }
+        }
+        return labels;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> subConfig(Map<String, Object> config, String key) {
+        Object value = config == null ? null : config.get(key);
+        return value instanceof Map ? (Map<String, Object>) value : new HashMap<>();
+    }
+}
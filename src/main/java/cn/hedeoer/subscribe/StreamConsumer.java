@@ -6,40 +6,118 @@ import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XClaimParams;
+import redis.clients.jedis.params.XPendingParams;
 import redis.clients.jedis.params.XReadGroupParams;
 import redis.clients.jedis.resps.StreamEntry;
 import redis.clients.jedis.resps.StreamGroupInfo;
+import redis.clients.jedis.resps.StreamPendingEntry;
 
+import java.util.AbstractMap;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * 带有消费者组的 xreadGroup，可阻塞处理
  * XREADGROUP GROUP group consumer [COUNT count] [BLOCK milliseconds] [NOACK] STREAMS key [key ...] id [id ...]
+ * <p>
+ * 支持一次 XREADGROUP 同时读取多个 stream（要求这些 stream 使用同一个消费者组名和消费者名）
+ * <p>
+ * 消费者对象可以长期复用：只在创建时初始化一次消费者组（XINFO STREAM、XINFO GROUPS、XGROUP CREATE），
+ * 之后只有 redis 返回 NOGROUP（比如stream被删除）时才重新初始化；更换连接使用 {@link #rebind(Jedis)}
  */
 public class StreamConsumer {
-    private final Jedis jedis;
-    private final String streamKey;
+    /**
+     * 每读取多少次输出一次初始化节省情况的统计日志
+     */
+    private static final long STATS_LOG_INTERVAL = 100;
+    /**
+     * 迁移旧消费者组待确认列表时每批处理的消息条数
+     */
+    private static final int LEGACY_PENDING_BATCH_SIZE = 100;
+
+    private Jedis jedis;
+    private final List<String> streamKeys;
     private final String groupName;
     private final String consumerName;
+    /**
+     * streamKey -> 旧版本（每个stream独立消费者组）的消费者组名，用于新消费者组从旧组的消费进度继续，
+     * 旧组的待确认消息迁移到新消费者组后删除旧组，可为空
+     */
+    private final Map<String, String> legacyGroupNames;
     private static final Logger logger = LoggerFactory.getLogger(StreamConsumer.class);
 
+    /**
+     * 初始化消费者组的次数
+     */
+    private long bootstrapCount;
+    /**
+     * 最近一次初始化消费者组发出的redis命令数
+     */
+    private long lastBootstrapRoundTrips;
+    /**
+     * 复用已初始化的消费者组而省下的初始化redis命令数
+     */
+    private long savedBootstrapRoundTrips;
+    /**
+     * XREADGROUP 读取次数
+     */
+    private long readCount;
+
     public StreamConsumer(Jedis jedis, String streamKey, String groupName, String consumerName) {
+        this(jedis, Collections.singletonList(streamKey), groupName, consumerName, Collections.emptyMap());
+    }
+
+    public StreamConsumer(Jedis jedis, List<String> streamKeys, String groupName, String consumerName,
+                          Map<String, String> legacyGroupNames) {
         this.jedis = jedis;
-        this.streamKey = streamKey;
+        this.streamKeys = streamKeys;
         this.groupName = groupName;
         this.consumerName = consumerName;
+        this.legacyGroupNames = legacyGroupNames == null ? Collections.emptyMap() : legacyGroupNames;
 
-        createConsumerGroupIfNotExists();
+        bootstrap();
     }
 
+    /**
+     * 更换底层连接，已初始化的消费者组状态保持不变，不会重新初始化
+     *
+     * @param jedis 新的jedis连接
+     */
+    public void rebind(Jedis jedis) {
+        this.jedis = jedis;
+    }
 
-    private void createConsumerGroupIfNotExists() {
+    /**
+     * 为所有 stream 初始化消费者组，并记录本次初始化的redis命令数
+     */
+    private void bootstrap() {
+        long roundTrips = 0;
+        for (String streamKey : streamKeys) {
+            roundTrips += createConsumerGroupIfNotExists(streamKey);
+        }
+        bootstrapCount++;
+        lastBootstrapRoundTrips = roundTrips;
+    }
+
+
+    /**
+     * 如果stream或者消费者组不存在则创建
+     *
+     * @param streamKey stream key
+     * @return 本次发出的redis命令数
+     */
+    private long createConsumerGroupIfNotExists(String streamKey) {
+        long roundTrips = 0;
         // 1. 检查 Stream 是否存在
         boolean streamExists = true;
         try {
+            roundTrips++;
             jedis.xinfoStream(streamKey);
         } catch (JedisDataException e) {
             if (e.getMessage() != null && e.getMessage().contains("no such key")) {
@@ -53,12 +131,14 @@ public class StreamConsumer {
         if (!streamExists) {
             try {
                 // 使用 XGROUP CREATE 命令的 MKSTREAM 选项创建空流
+                roundTrips++;
                 jedis.xgroupCreate(streamKey, groupName, null, true);
                 logger.info("Stream created without initial data: {}", streamKey);
             } catch (Exception e) {
                 // 如果消费者组已存在，只需创建流
                 if (e.getMessage().contains("BUSYGROUP")) {
                     // 直接创建空流 (在新版 Jedis 中)
+                    roundTrips++;
                     jedis.xadd(streamKey, StreamEntryID.NEW_ENTRY, new HashMap<>());
                     logger.info("Stream already exists, consumer group already created: {}", streamKey);
                 } else {
@@ -70,8 +150,10 @@ public class StreamConsumer {
 
         // 3. 检查消费者组是否存在
         boolean groupExists = false;
+        List<StreamGroupInfo> groups = Collections.emptyList();
         try {
-            List<StreamGroupInfo> groups = jedis.xinfoGroups(streamKey);
+            roundTrips++;
+            groups = jedis.xinfoGroups(streamKey);
             groupExists = groups.stream().anyMatch(g -> groupName.equals(g.getName()));
         } catch (JedisDataException e) {
             if (!e.getMessage().contains("NOGROUP")) {
@@ -79,11 +161,14 @@ public class StreamConsumer {
             }
         }
 
-        // 4. 创建消费者组，如果不存在
+        // 4. 创建消费者组，如果不存在；如果存在旧版本的消费者组，从旧组已投递的位置开始，避免升级期间丢失命令
         if (!groupExists) {
+            StreamEntryID startId = findLegacyLastDeliveredId(streamKey, groups)
+                    .orElse(StreamEntryID.XGROUP_LAST_ENTRY);
             try {
-                jedis.xgroupCreate(streamKey, groupName, StreamEntryID.XGROUP_LAST_ENTRY, true);
-                logger.info("Consumer group created from latest ($): {}", groupName);
+                roundTrips++;
+                jedis.xgroupCreate(streamKey, groupName, startId, true);
+                logger.info("Consumer group created from {}: {}", startId, groupName);
             } catch (JedisDataException e) {
                 String msg = e.getMessage();
                 if (msg != null && msg.contains("BUSYGROUP")) {
@@ -93,6 +178,66 @@ public class StreamConsumer {
                 }
             }
         }
+
+        // 5. 迁移旧消费者组：待确认的消息转入新消费者组，之后删除旧组
+        String legacyGroupName = legacyGroupNames.get(streamKey);
+        if (legacyGroupName != null && groups.stream().anyMatch(g -> legacyGroupName.equals(g.getName()))) {
+            roundTrips += migrateLegacyGroup(streamKey, legacyGroupName);
+        }
+        return roundTrips;
+    }
+
+    /**
+     * 把旧消费者组中已投递但未确认的消息（比如升级期间agent节点崩溃或重启）转入新消费者组当前消费者的待确认列表，
+     * 由启动时的待确认消息恢复重新处理并响应，然后删除旧消费者组
+     * <p>
+     * XCLAIM FORCE 可以认领不在新消费者组待确认列表中的消息；已从stream中删除的消息被 XCLAIM 忽略，只在旧组中确认
+     *
+     * @param streamKey       stream key
+     * @param legacyGroupName 旧消费者组名
+     * @return 本次发出的redis命令数
+     */
+    private long migrateLegacyGroup(String streamKey, String legacyGroupName) {
+        long roundTrips = 0;
+        int migrated = 0;
+        while (true) {
+            roundTrips++;
+            List<StreamPendingEntry> pending = jedis.xpending(streamKey, legacyGroupName,
+                    XPendingParams.xPendingParams().count(LEGACY_PENDING_BATCH_SIZE));
+            if (pending == null || pending.isEmpty()) {
+                break;
+            }
+            StreamEntryID[] ids = pending.stream().map(StreamPendingEntry::getID).toArray(StreamEntryID[]::new);
+            roundTrips++;
+            migrated += jedis.xclaimJustId(streamKey, groupName, consumerName, 0,
+                    XClaimParams.xClaimParams().force(), ids).size();
+            // 已转入新消费者组，在旧组中确认，下一批从旧组剩余的待确认消息开始
+            roundTrips++;
+            jedis.xack(streamKey, legacyGroupName, ids);
+        }
+        roundTrips++;
+        jedis.xgroupDestroy(streamKey, legacyGroupName);
+        logger.info("Legacy consumer group {} on {} destroyed, {} pending entries moved to group {}",
+                legacyGroupName, streamKey, migrated, groupName);
+        return roundTrips;
+    }
+
+    /**
+     * 查找旧版本消费者组已投递的最后一条消息ID
+     *
+     * @param streamKey stream key
+     * @param groups    该stream上已存在的消费者组
+     * @return 旧消费者组的 last-delivered-id，不存在时返回空
+     */
+    private Optional<StreamEntryID> findLegacyLastDeliveredId(String streamKey, List<StreamGroupInfo> groups) {
+        String legacyGroupName = legacyGroupNames.get(streamKey);
+        if (legacyGroupName == null) {
+            return Optional.empty();
+        }
+        return groups.stream()
+                .filter(g -> legacyGroupName.equals(g.getName()))
+                .map(StreamGroupInfo::getLastDeliveredId)
+                .findFirst();
     }
 
 
@@ -113,28 +258,117 @@ public class StreamConsumer {
      */
     public List<StreamEntry> consumeNewMessages(int count, int blockTimeMillis) {
 
+        Map<String, List<StreamEntry>> entriesByStream = consumeNewMessagesByStream(count, blockTimeMillis);
+        // 获取第一个流的所有条目（单stream使用时只查询了一个流）
+        return entriesByStream.getOrDefault(streamKeys.get(0), Collections.emptyList());
+
+    }
+
+    /**
+     * 使用一次 XREADGROUP 读取所有 stream 上尚未投递的新消息
+     *
+     * @param count           每个 stream 最多消费的消息条数
+     * @param blockTimeMillis 阻塞等待新消息的最大时间（毫秒），0 表示一直阻塞直到有消息
+     * @return streamKey -> 该 stream 读取到的消息列表（保持 stream 内顺序），若无新消息则返回空 map
+     */
+    public Map<String, List<StreamEntry>> consumeNewMessagesByStream(int count, int blockTimeMillis) {
+
         XReadGroupParams params = XReadGroupParams.xReadGroupParams()
                 .count(count)
                 .block(blockTimeMillis);
 
-        Map<String, StreamEntryID> streams = Collections.singletonMap(
-                streamKey, StreamEntryID.XREADGROUP_UNDELIVERED_ENTRY
-        );
+        Map<String, StreamEntryID> streams = new LinkedHashMap<>();
+        for (String streamKey : streamKeys) {
+            streams.put(streamKey, StreamEntryID.XREADGROUP_UNDELIVERED_ENTRY);
+        }
 
-        // 使用正确的返回类型
-        List<Map.Entry<String, List<StreamEntry>>> response = jedis.xreadGroup(
-                groupName, consumerName, params, streams);
+        List<Map.Entry<String, List<StreamEntry>>> response;
+        try {
+            response = jedis.xreadGroup(groupName, consumerName, params, streams);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("NOGROUP")) {
+                throw e;
+            }
+            // stream或消费者组被删除，重新初始化后再读取一次
+            logger.warn("Consumer group {} missing on streams {}, bootstrapping again", groupName, streamKeys);
+            bootstrap();
+            response = jedis.xreadGroup(groupName, consumerName, params, streams);
+        }
+        recordRead();
 
-        if (response != null && !response.isEmpty()) {
-            // 获取第一个流的所有条目（因为我们只查询了一个流）
-            List<StreamEntry> entries = response.get(0).getValue();
-            return entries;
+        if (response == null || response.isEmpty()) {
+            return Collections.emptyMap();
         }
 
-        return Collections.emptyList();
+        Map<String, List<StreamEntry>> entriesByStream = new LinkedHashMap<>();
+        for (Map.Entry<String, List<StreamEntry>> streamEntries : response) {
+            entriesByStream.put(streamEntries.getKey(), streamEntries.getValue());
+        }
+        return entriesByStream;
+    }
+
 
+    /**
+     * 使用 XAUTOCLAIM 认领一批已投递但一直没有 XACK 的消息（比如agent节点在执行命令后、确认前崩溃），
+     * 认领后这些消息归当前消费者所有，可以重新处理
+     *
+     * @param streamKey     stream key
+     * @param cursor        本次扫描的起始ID，首次为 0-0，之后使用上一次返回的下一个起始ID
+     * @param minIdleMillis 只认领空闲（距上次投递）超过该时间的消息
+     * @param count         本批最多认领的消息条数
+     * @return key为下一次扫描的起始ID（为 0-0 表示已扫描完整个待确认列表），value为本批认领到的消息
+     */
+    public Map.Entry<StreamEntryID, List<StreamEntry>> claimPendingMessages(String streamKey, StreamEntryID cursor,
+                                                                            long minIdleMillis, int count) {
+        try {
+            return jedis.xautoclaim(streamKey, groupName, consumerName, minIdleMillis, cursor,
+                    XAutoClaimParams.xAutoClaimParams().count(count));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("NOGROUP")) {
+                throw e;
+            }
+            // 消费者组已不存在，也就没有待确认的消息
+            logger.warn("Consumer group {} missing on stream {}, bootstrapping again", groupName, streamKey);
+            bootstrap();
+            return new AbstractMap.SimpleImmutableEntry<>(new StreamEntryID(), Collections.emptyList());
+        }
+    }
+
+    /**
+     * @return 消费者读取的所有 stream
+     */
+    public List<String> getStreamKeys() {
+        return streamKeys;
+    }
+
+    /**
+     * 记录一次读取：除首次读取外，每次读取都省下了消费者组已存在时一次初始化所需的redis命令
+     * （每个stream的 XINFO STREAM 和 XINFO GROUPS）
+     */
+    private void recordRead() {
+        readCount++;
+        if (readCount > 1) {
+            savedBootstrapRoundTrips += 2L * streamKeys.size();
+        }
+        if (readCount % STATS_LOG_INTERVAL == 0) {
+            logger.info("Consumer {} reads: {}, bootstraps: {} (last one took {} commands), saved bootstrap round trips: {}",
+                    consumerName, readCount, bootstrapCount, lastBootstrapRoundTrips, savedBootstrapRoundTrips);
+        }
     }
 
+    /**
+     * @return 初始化消费者组的次数
+     */
+    public long getBootstrapCount() {
+        return bootstrapCount;
+    }
+
+    /**
+     * @return 复用已初始化的消费者组而省下的初始化redis命令数
+     */
+    public long getSavedBootstrapRoundTrips() {
+        return savedBootstrapRoundTrips;
+    }
 
     public void close() {
         RedisUtil.close(jedis);
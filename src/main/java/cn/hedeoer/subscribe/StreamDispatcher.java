@@ -0,0 +1,532 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.RequestDeadline;
+import cn.hedeoer.common.enmu.ResponseStatus;
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.codec.PayloadCodec;
+import cn.hedeoer.subscribe.codec.PayloadCodecs;
+import cn.hedeoer.subscribe.codec.PayloadCompression;
+import cn.hedeoer.subscribe.transport.BroadcastSubscription;
+import cn.hedeoer.subscribe.transport.CommandSubscription;
+import cn.hedeoer.subscribe.transport.JedisTransport;
+import cn.hedeoer.subscribe.transport.MessageTransport;
+import cn.hedeoer.util.AgentIdUtil;
+import cn.hedeoer.util.ThreadPoolUtil;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多路复用的命令stream读取器：一个连接、一次 XREADGROUP 读取该agent节点全部命令stream（pub:agentId:streamType），
+ * 再按stream类型将每条命令路由给对应的 {@link StreamEntryHandler} 处理，并把处理结果发布到 sub:agentId:streamType
+ * <p>
+ * 读取和执行解耦：读取线程只负责把命令放入有界的优先级工作队列，工作线程按优先级（控制类 &gt; 查询 &gt; 修改类）取出执行，
+ * 耗时的防火墙命令不会阻塞读取；队列满时读取线程停止拉取，直到工作线程腾出空位
+ * <p>
+ * 配置了 broadcastLabels 时，另一个读取线程以 XREAD 读取各标签的广播命令stream（broadcast:label:streamType），
+ * 广播命令和普通命令进入同一个工作队列，响应发布到该agent节点自己的 sub:agentId:streamType
+ */
+public class StreamDispatcher implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamDispatcher.class);
+
+    private final String agentId;
+    private final String groupName;
+    private final String consumerName;
+    /**
+     * 命令streamKey（pub:agentId:streamType） -> 处理器
+     */
+    private final Map<String, StreamEntryHandler> handlers = new LinkedHashMap<>();
+    /**
+     * 命令streamKey -> 旧版本该stream独立使用的消费者组名
+     */
+    private final Map<String, String> legacyGroupNames = new LinkedHashMap<>();
+    /**
+     * 广播streamKey（broadcast:label:streamType） -> 处理器
+     */
+    private final Map<String, StreamEntryHandler> broadcastHandlers = new LinkedHashMap<>();
+    /**
+     * 广播命令的读取进度，没有配置标签时为 null
+     */
+    private final BroadcastOffsets broadcastOffsets;
+    private final StreamConfig streamConfig;
+    /**
+     * 消费命令、发布响应使用的消息传输
+     */
+    private final MessageTransport transport;
+    /**
+     * 并发执行只读命令的线程池
+     */
+    private final ExecutorService queryPool;
+    /**
+     * 已执行的修改类命令的响应，保证命令幂等
+     */
+    private final IdempotencyCache idempotencyCache;
+    /**
+     * 读取线程和工作线程之间的有界优先级队列
+     */
+    private final PriorityWorkQueue<Command> workQueue;
+    /**
+     * 已放入工作队列但还没有确认的命令（streamKey@entryId），恢复待确认消息时跳过，避免重复执行
+     */
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    /**
+     * 查询和修改类命令之间的读写屏障：每个执行中的查询占用一个许可，修改类命令需要拿到全部许可，
+     * 因此修改类命令不会和查询同时执行，执行中的查询数也不会超过 queryParallelism
+     */
+    private final Semaphore queryPermits;
+    /**
+     * 合并同时执行的相同查询
+     */
+    private final SingleFlight<String, ResponseResult<?>> querySingleFlight = new SingleFlight<>();
+
+    public StreamDispatcher(List<StreamEntryHandler> handlers) {
+        this(handlers, StreamConfig.load());
+    }
+
+    public StreamDispatcher(List<StreamEntryHandler> handlers, StreamConfig streamConfig) {
+        this(handlers, streamConfig, new JedisTransport());
+    }
+
+    public StreamDispatcher(List<StreamEntryHandler> handlers, StreamConfig streamConfig, MessageTransport transport) {
+        this.streamConfig = streamConfig;
+        this.transport = transport;
+        this.queryPool = ThreadPoolUtil.createThreadPool(streamConfig.getQueryParallelism(), streamConfig.getQueryParallelism(),
+                60, TimeUnit.SECONDS, streamConfig.getQueryParallelism(), "query-pool");
+        this.queryPermits = new Semaphore(streamConfig.getQueryParallelism());
+        this.workQueue = new PriorityWorkQueue<>(streamConfig.getWorkQueueCapacity());
+        this.idempotencyCache = new IdempotencyCache(streamConfig.getIdempotencyCacheFile(), streamConfig.getIdempotencyCacheSize());
+        this.agentId = AgentIdUtil.loadOrCreateUUID();
+        // XREADGROUP 一次读取多个stream时，所有stream必须使用同一个消费者组和消费者
+        this.groupName = "firewall_" + agentId + "_group";
+        this.consumerName = groupName + "_consumer";
+
+        for (StreamEntryHandler handler : handlers) {
+            String pubStreamKey = pubStreamKey(handler.streamType());
+            this.handlers.put(pubStreamKey, handler);
+            this.legacyGroupNames.put(pubStreamKey, "firewall_" + subStreamKey(handler.streamType()) + "_group");
+            for (String label : streamConfig.getBroadcastLabels()) {
+                this.broadcastHandlers.put(broadcastStreamKey(label, handler.streamType()), handler);
+            }
+        }
+        this.broadcastOffsets = broadcastHandlers.isEmpty() ? null : new BroadcastOffsets(streamConfig.getBroadcastOffsetFile());
+    }
+
+    @Override
+    public void run() {
+        List<String> pubStreamKeys = new ArrayList<>(handlers.keySet());
+        ExecutorService worker = ThreadPoolUtil.createSingleThreadPool("command-worker");
+        worker.execute(this::work);
+        ExecutorService broadcastReader = null;
+        if (!broadcastHandlers.isEmpty()) {
+            broadcastReader = ThreadPoolUtil.createSingleThreadPool("broadcast-reader");
+            broadcastReader.execute(this::readBroadcasts);
+        }
+
+        // 订阅长期复用，消费者组只在首次订阅时初始化一次
+        CommandSubscription subscription = null;
+        // 启动时本进程没有正在处理的命令，所有待确认消息都需要恢复，因此首次恢复不限制空闲时间
+        long recoveryMinIdleMillis = 0;
+        long nextRecoveryAt = 0;
+
+        // 不断循环 + block实现不断拉取全部命令stream的数据，但没有数据时，一直阻塞；当有数据，放入工作队列，后进入下一次循环
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                // 背压：工作队列满时不再拉取新命令，命令留在 redis 中
+                int remainingCapacity = workQueue.awaitRemainingCapacity();
+
+                try {
+                    if (subscription == null) {
+                        subscription = transport.subscribe(pubStreamKeys, groupName, consumerName, legacyGroupNames);
+                    }
+
+                    // 启动时以及周期性地恢复已投递但未确认的命令
+                    if (System.currentTimeMillis() >= nextRecoveryAt) {
+                        recoverPendingMessages(subscription, recoveryMinIdleMillis);
+                        recoveryMinIdleMillis = streamConfig.getPendingMinIdleMillis();
+                        nextRecoveryAt = System.currentTimeMillis() + streamConfig.getPendingRecoveryIntervalMillis();
+                    }
+
+                    // 一次读取多条命令，减少突发大量命令时的网络往返
+                    Map<String, List<StreamEntry>> entriesByStream = subscription.consume(
+                            Math.min(streamConfig.getBatchSize(), remainingCapacity), streamConfig.getBlockMillis());
+                    for (Map.Entry<String, List<StreamEntry>> streamEntries : entriesByStream.entrySet()) {
+                        String pubStreamKey = streamEntries.getKey();
+                        StreamEntryHandler handler = handlers.get(pubStreamKey);
+                        for (StreamEntry streamEntry : streamEntries.getValue()) {
+                            enqueue(new Command(pubStreamKey, handler, streamEntry, false));
+                        }
+                    }
+                } catch (JedisException e) {
+                    logger.error("消费命令stream过程出错", e);
+                    // 可选休眠再重试，避免疯循环
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (broadcastReader != null) {
+            ThreadPoolUtil.shutdownNow(broadcastReader);
+        }
+        ThreadPoolUtil.shutdownNow(worker);
+        ThreadPoolUtil.shutdownNow(queryPool);
+    }
+
+    /**
+     * 广播读取线程：从上次处理完成的位置之后读取全部广播stream，读取到的命令放入工作队列。
+     * 广播命令不需要确认，积压的过期广播查询由截止时间检查直接响应 408
+     */
+    private void readBroadcasts() {
+        List<String> broadcastStreamKeys = new ArrayList<>(broadcastHandlers.keySet());
+        BroadcastSubscription subscription = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                int remainingCapacity = workQueue.awaitRemainingCapacity();
+                try {
+                    if (subscription == null) {
+                        subscription = transport.subscribeBroadcast(broadcastStreamKeys, broadcastOffsets.snapshot(),
+                                consumerName + "_broadcast");
+                        logger.info("agent节点：{} 开始读取广播命令stream：{}", agentId, broadcastStreamKeys);
+                    }
+                    Map<String, List<StreamEntry>> entriesByStream = subscription.read(
+                            Math.min(streamConfig.getBatchSize(), remainingCapacity), streamConfig.getBlockMillis());
+                    for (Map.Entry<String, List<StreamEntry>> streamEntries : entriesByStream.entrySet()) {
+                        String broadcastStreamKey = streamEntries.getKey();
+                        StreamEntryHandler handler = broadcastHandlers.get(broadcastStreamKey);
+                        for (StreamEntry streamEntry : streamEntries.getValue()) {
+                            // 同一条命令仍在队列中或正在执行时不重复放入，由该命令响应后记为完成
+                            broadcastOffsets.markRead(broadcastStreamKey, streamEntry.getID());
+                            enqueue(new Command(broadcastStreamKey, handler, streamEntry, true));
+                        }
+                    }
+                } catch (JedisException e) {
+                    logger.error("读取广播命令stream过程出错", e);
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 分批认领所有命令stream中已投递但一直未确认的命令并放入工作队列，直到扫描完整个待确认列表
+     *
+     * @param subscription  命令stream的订阅
+     * @param minIdleMillis 只恢复空闲超过该时间（毫秒）的命令
+     * @throws InterruptedException 等待工作队列空位时被中断
+     */
+    private void recoverPendingMessages(CommandSubscription subscription, long minIdleMillis) throws InterruptedException {
+        for (String pubStreamKey : subscription.getStreamKeys()) {
+            StreamEntryHandler handler = handlers.get(pubStreamKey);
+            StreamEntryID cursor = new StreamEntryID();
+            int recovered = 0;
+            do {
+                Map.Entry<StreamEntryID, List<StreamEntry>> claimed = subscription.claimPending(
+                        pubStreamKey, cursor, minIdleMillis, streamConfig.getPendingBatchSize());
+                for (StreamEntry streamEntry : claimed.getValue()) {
+                    if (streamEntry == null || streamEntry.getFields() == null) {
+                        // 待确认列表中的消息已从stream中删除，只需确认
+                        if (streamEntry != null) {
+                            subscription.ack(pubStreamKey, streamEntry.getID());
+                        }
+                        continue;
+                    }
+                    // 仍在工作队列中排队或正在执行的命令不是丢失的命令
+                    if (enqueue(new Command(pubStreamKey, handler, streamEntry, false))) {
+                        recovered++;
+                    }
+                }
+                cursor = claimed.getKey();
+            } while (cursor != null && !new StreamEntryID().equals(cursor));
+
+            if (recovered > 0) {
+                logger.info("从 streamKey：{} 恢复了 {} 条未确认的命令，重新放入工作队列", pubStreamKey, recovered);
+            }
+        }
+    }
+
+    /**
+     * 把命令放入工作队列，队列满时阻塞
+     *
+     * @param command 命令
+     * @return 命令已经在队列中或者正在执行时返回 false
+     * @throws InterruptedException 等待工作队列空位时被中断
+     */
+    private boolean enqueue(Command command) throws InterruptedException {
+        if (!inFlight.add(command.key())) {
+            return false;
+        }
+        workQueue.put(command, command.priority());
+        return true;
+    }
+
+    /**
+     * 工作线程：按优先级取出命令执行并发布响应。查询交给查询线程池并发执行，
+     * 控制类和修改类命令在工作线程中逐条执行，执行前等待执行中的查询结束
+     */
+    private void work() {
+        int parallelism = streamConfig.getQueryParallelism();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Command command = workQueue.take();
+                if (command.isReadOnly()) {
+                    queryPermits.acquire();
+                    try {
+                        queryPool.execute(() -> {
+                            try {
+                                complete(command, execute(command));
+                            } finally {
+                                queryPermits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        queryPermits.release();
+                        complete(command, execute(command));
+                    }
+                } else {
+                    queryPermits.acquire(parallelism);
+                    try {
+                        complete(command, execute(command));
+                    } finally {
+                        queryPermits.release(parallelism);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                logger.error("工作线程处理命令出错", e);
+            }
+        }
+    }
+
+    /**
+     * 发布响应并确认命令；发布失败的命令保持未确认状态，由周期性恢复重新处理。
+     * 广播命令只在响应发布后记为完成，发布失败时进度停在该命令之前，agent节点重启后重新读取
+     *
+     * @param command       命令
+     * @param consumeResult 命令的处理结果
+     */
+    private void complete(Command command, ResponseResult<?> consumeResult) {
+        try {
+            reply(command, consumeResult);
+            if (command.isBroadcast()) {
+                broadcastOffsets.markDone(command.getPubStreamKey(), command.getStreamEntry().getID());
+            }
+        } catch (RuntimeException e) {
+            logger.error("发布 streamKey：{} 的 StreamEntryID：{} 的响应失败，等待重新处理",
+                    command.getPubStreamKey(), command.getStreamEntry().getID(), e);
+        } finally {
+            inFlight.remove(command.key());
+        }
+    }
+
+    /**
+     * 交给处理器处理一条命令
+     *
+     * @param command 命令
+     * @return 处理结果，处理器抛出异常时返回失败结果
+     */
+    private ResponseResult<?> execute(Command command) {
+        // 修改类命令重复投递（master节点重试、待确认消息恢复）时直接返回第一次执行的响应
+        String idempotencyKey = null;
+        if (!command.isReadOnly()) {
+            StreamEntry streamEntry = command.getStreamEntry();
+            idempotencyKey = IdempotencyCache.keyOf(command.getPubStreamKey(), streamEntry.getID().toString(), streamEntry.getFields());
+            ResponseResult<Object> cached = idempotencyCache.get(idempotencyKey);
+            if (cached != null) {
+                logger.info("streamKey：{} 的 StreamEntryID：{} 已执行过，直接返回缓存的响应", command.getPubStreamKey(), streamEntry.getID());
+                return cached;
+            }
+        }
+
+        // 超过截止时间的查询（比如 agent节点恢复后重放的积压查询）master节点已经不再等待，不再执行；
+        // 修改类命令改变的是防火墙的期望状态，即使已经超过截止时间也照常执行（由幂等缓存去重），截止时间只限制其中的查询
+        RequestDeadline deadline = RequestDeadline.of(command.getStreamEntry(), streamConfig.getCommandTimeoutMillis());
+        if (command.isReadOnly() && deadline.isExpired()) {
+            logger.warn("streamKey：{} 的 StreamEntryID：{} 已超过截止时间，不再执行", command.getPubStreamKey(), command.getStreamEntry().getID());
+            return ResponseResult.expired("命令已超过截止时间，未执行");
+        }
+
+        try {
+            ResponseResult<?> result;
+            String coalesceKey = command.coalesceKey();
+            if (coalesceKey != null) {
+                // 相同的查询同时到达（比如控制台刷新）时只执行一次，每个命令仍然各自响应；合并的查询使用第一个命令的截止时间
+                result = querySingleFlight.execute(coalesceKey, () -> handle(command, deadline));
+            } else {
+                result = handle(command, deadline);
+            }
+            // 只缓存成功的响应，失败的命令重试时仍然重新执行
+            if (idempotencyKey != null && result != null && ResponseStatus.SUCCESS.getResponseCode().equals(result.getStatus())) {
+                idempotencyCache.put(idempotencyKey, result);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            logger.error("处理 streamKey：{} 的 StreamEntryID：{} 出错", command.getPubStreamKey(), command.getStreamEntry().getID(), e);
+            return ResponseResult.fail(null, "处理命令失败：" + e.getMessage());
+        }
+    }
+
+    private ResponseResult<?> handle(Command command, RequestDeadline deadline) {
+        ResponseResult<?> result = command.getHandler().handle(command.getStreamEntry(), deadline);
+        if (deadline.isTruncated() && result != null) {
+            logger.warn("streamKey：{} 的 StreamEntryID：{} 超过截止时间，只响应部分结果", command.getPubStreamKey(), command.getStreamEntry().getID());
+            result.setTruncated(true);
+        }
+        return result;
+    }
+
+    /**
+     * 发布响应并确认消息处理完成
+     *
+     * @param command       命令
+     * @param consumeResult 命令的处理结果
+     */
+    private void reply(Command command, ResponseResult<?> consumeResult) {
+        StreamEntryID entryID = command.getStreamEntry().getID();
+        String subStreamKey = subStreamKey(command.getHandler().streamType());
+
+        // 按命令的 accept 字段协商响应的编码格式，master节点未声明时使用 json
+        PayloadCodec codec = PayloadCodecs.negotiate(command.getStreamEntry().getFields().get(PayloadCodecs.ACCEPT_FIELD));
+
+        // 发布数据到 stream key （sub:agentId:streamType），指定entryId为消费master节点时的StreamEntryID，
+        // 并在同一次网络往返中确认命令；广播命令没有消费者组，不需要确认
+        // 超大的列表响应拆分为多个分片，redis 中不会出现单条数MB的消息
+        List<Map<byte[], byte[]>> chunks = ResponseChunker.split(consumeResult, codec, streamConfig.getMaxChunkBytes());
+        // 较大的响应（比如完整的端口规则列表）压缩后发布，减少 redis 内存占用和网络传输
+        for (Map<byte[], byte[]> chunk : chunks) {
+            PayloadCompression.compressIfLarge(chunk, streamConfig.getCompressThresholdBytes());
+        }
+
+        // master节点指定了直接响应key时发布到该key，master节点在该key上阻塞等待，不需要在响应stream中查找
+        String replyTo = directReplyKey(command);
+        String replyKey = replyTo != null ? replyTo : subStreamKey;
+        String ackStreamKey = command.isBroadcast() ? null : command.getPubStreamKey();
+        if (replyTo != null) {
+            transport.directReply(replyTo, chunks, entryID, ackStreamKey, groupName,
+                    streamConfig.getDirectReplyTtlMillis(), streamConfig.getReplyAckMode());
+        } else {
+            transport.reply(subStreamKey, chunks, entryID, ackStreamKey, groupName, streamConfig.getReplyAckMode());
+        }
+        if (chunks.size() > 1) {
+            logger.info("StreamEntryID：{} 的响应拆分为 {} 个分片发布", entryID, chunks.size());
+        }
+        logger.info("agent节点：{} 向 streamKey为：{} 的stream发布 StreamEntryID：{}的消息作为响应成功，编码格式：{}",
+                agentId, replyKey, entryID, codec.name());
+    }
+
+    /**
+     * @return 命令 replyTo 字段指定的直接响应key，未指定或者不以配置的前缀开头时返回 null
+     */
+    private String directReplyKey(Command command) {
+        String replyTo = command.getStreamEntry().getFields().get(StreamProducer.REPLY_TO_FIELD);
+        if (replyTo == null || replyTo.isEmpty()) {
+            return null;
+        }
+        if (!replyTo.startsWith(streamConfig.getDirectReplyKeyPrefix())) {
+            logger.warn("StreamEntryID：{} 的 replyTo：{} 不以 {} 开头，响应发布到响应stream",
+                    command.getStreamEntry().getID(), replyTo, streamConfig.getDirectReplyKeyPrefix());
+            return null;
+        }
+        return replyTo;
+    }
+
+    private String pubStreamKey(String streamType) {
+        return "pub:" + agentId + ":" + streamType;
+    }
+
+    private String subStreamKey(String streamType) {
+        return "sub:" + agentId + ":" + streamType;
+    }
+
+    private static String broadcastStreamKey(String label, String streamType) {
+        return "broadcast:" + label + ":" + streamType;
+    }
+
+    /**
+     * 一条待处理的命令
+     */
+    @Getter
+    private static class Command {
+        private final String pubStreamKey;
+        private final StreamEntryHandler handler;
+        private final StreamEntry streamEntry;
+        /**
+         * 是否来自广播stream，此时 pubStreamKey 为广播streamKey
+         */
+        private final boolean broadcast;
+        /**
+         * 是否只读、优先级和合并查询的 key 在创建命令时计算一次，入队、调度和执行时不再重复解析命令
+         */
+        private final boolean readOnly;
+        private final CommandPriority priority;
+        private final String coalesceKey;
+
+        Command(String pubStreamKey, StreamEntryHandler handler, StreamEntry streamEntry, boolean broadcast) {
+            this.pubStreamKey = pubStreamKey;
+            this.handler = handler;
+            this.streamEntry = streamEntry;
+            this.broadcast = broadcast;
+            this.readOnly = readOnly(handler, streamEntry);
+            this.priority = priority(handler, streamEntry);
+            this.coalesceKey = readOnly ? coalesceKey(handler, streamEntry) : null;
+        }
+
+        private static boolean readOnly(StreamEntryHandler handler, StreamEntry streamEntry) {
+            try {
+                return handler.isReadOnly(streamEntry);
+            } catch (RuntimeException e) {
+                // 无法解析的命令按非只读处理，由 execute 返回失败响应
+                return false;
+            }
+        }
+
+        private static CommandPriority priority(StreamEntryHandler handler, StreamEntry streamEntry) {
+            try {
+                return handler.priority(streamEntry);
+            } catch (RuntimeException e) {
+                return CommandPriority.MUTATION;
+            }
+        }
+
+        private static String coalesceKey(StreamEntryHandler handler, StreamEntry streamEntry) {
+            try {
+                return handler.coalesceKey(streamEntry);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+
+        boolean isReadOnly() {
+            return readOnly;
+        }
+
+        CommandPriority priority() {
+            return priority;
+        }
+
+        String coalesceKey() {
+            return coalesceKey;
+        }
+
+        String key() {
+            return pubStreamKey + "@" + streamEntry.getID();
+        }
+    }
+}
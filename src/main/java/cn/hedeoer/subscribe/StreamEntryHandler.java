@@ -0,0 +1,82 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.RequestDeadline;
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.codec.PayloadCodecs;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 某一类master节点命令（对应一个 pub:agentId:streamType 的stream）的处理器
+ */
+public interface StreamEntryHandler {
+
+    /**
+     * 只和单个请求有关、不影响查询结果的命令字段，计算合并查询的 key 时忽略
+     */
+    Set<String> REQUEST_SCOPED_FIELDS = Set.of(RequestDeadline.TS_FIELD, RequestDeadline.TIMEOUT_FIELD,
+            PayloadCodecs.ACCEPT_FIELD, IdempotencyCache.IDEMPOTENCY_KEY_FIELD, StreamProducer.REPLY_TO_FIELD);
+
+    /**
+     * 处理器负责的stream类型，比如 portRule，对应命令stream pub:agentId:portRule 和响应stream sub:agentId:portRule
+     *
+     * @return stream类型
+     */
+    String streamType();
+
+    /**
+     * 处理一条master节点发布的命令
+     *
+     * @param streamEntry master节点发布的命令
+     * @return 命令的处理结果，将作为响应发布到 sub:agentId:streamType
+     */
+    ResponseResult<?> handle(StreamEntry streamEntry);
+
+    /**
+     * 在截止时间内处理一条命令，耗时较长的查询可以覆盖该方法，在超过截止时间时返回部分结果并调用
+     * {@link RequestDeadline#markTruncated()}，响应会带上 truncated 标记
+     *
+     * @param streamEntry master节点发布的命令
+     * @param deadline    命令的截止时间
+     * @return 命令的处理结果，默认忽略截止时间
+     */
+    default ResponseResult<?> handle(StreamEntry streamEntry, RequestDeadline deadline) {
+        return handle(streamEntry);
+    }
+
+    /**
+     * 命令是否为只读命令（比如查询）。只读命令可以和相邻的只读命令并发执行，非只读命令严格按照stream顺序执行
+     *
+     * @param streamEntry master节点发布的命令
+     * @return 默认 dataOpType 为 QUERY 时为只读命令
+     */
+    default boolean isReadOnly(StreamEntry streamEntry) {
+        return "QUERY".equals(streamEntry.getFields().get("dataOpType"));
+    }
+
+    /**
+     * 命令在工作队列中的优先级：控制类命令优先于查询，查询优先于修改类命令
+     *
+     * @param streamEntry master节点发布的命令
+     * @return 默认只读命令为 QUERY，其他为 MUTATION
+     */
+    default CommandPriority priority(StreamEntry streamEntry) {
+        return isReadOnly(streamEntry) ? CommandPriority.QUERY : CommandPriority.MUTATION;
+    }
+
+    /**
+     * 只读命令合并执行的 key：同时在执行的 key 相同的查询只执行一次，结果分别响应给每个命令
+     *
+     * @param streamEntry master节点发布的只读命令
+     * @return 默认为stream类型加上除 {@link #REQUEST_SCOPED_FIELDS} 之外的全部字段（操作类型、区域、过滤条件等）；
+     * 返回 null 表示不合并
+     */
+    default String coalesceKey(StreamEntry streamEntry) {
+        Map<String, String> fields = new TreeMap<>(streamEntry.getFields());
+        fields.keySet().removeAll(REQUEST_SCOPED_FIELDS);
+        return streamType() + fields;
+    }
+}
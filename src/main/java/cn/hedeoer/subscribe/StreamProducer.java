@@ -4,13 +4,122 @@ import cn.hedeoer.util.RedisUtil;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.params.XTrimParams;
+import redis.clients.jedis.resps.StreamGroupInfo;
+import redis.clients.jedis.util.SafeEncoder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class StreamProducer {
+    /**
+     * 响应无法使用命令的 entryId 时，记录命令 entryId 的字段名
+     */
+    public static final String REQUEST_ENTRY_ID_FIELD = "requestEntryId";
+
+    /**
+     * 命令中指定直接响应key的字段名，master节点可以在该key上阻塞等待响应，不需要在响应stream中查找
+     */
+    public static final String REPLY_TO_FIELD = "replyTo";
+
+    /**
+     * 原子地发布响应的所有分片并确认命令
+     * KEYS[1] 响应streamKey，KEYS[2] 命令streamKey
+     * ARGV[1] 消费者组，ARGV[2] 命令entryId，ARGV[3] 分片个数，之后每个分片依次为 字段个数 field value ...
+     * 第一个分片和 publishReply 一样，entryId 无法写入时：响应已存在则不重复发布，否则使用自动生成的ID并记录 requestEntryId；
+     * 其余分片使用自动生成的ID并记录 requestEntryId
+     */
+    private static final String REPLY_AND_ACK_SCRIPT =
+            "local id\n" +
+            "local pos = 4\n" +
+            "for chunk = 1, tonumber(ARGV[3]) do\n" +
+            "  local fields = {}\n" +
+            "  local count = tonumber(ARGV[pos])\n" +
+            "  for i = pos + 1, pos + count do fields[#fields + 1] = ARGV[i] end\n" +
+            "  pos = pos + count + 1\n" +
+            "  local added\n" +
+            "  if chunk == 1 then added = redis.pcall('XADD', KEYS[1], ARGV[2], unpack(fields)) end\n" +
+            "  if chunk == 1 and type(added) == 'table' and added.err then\n" +
+            "    if not string.find(added.err, 'equal or smaller') then return added end\n" +
+            "    if #redis.call('XRANGE', KEYS[1], ARGV[2], ARGV[2]) > 0 then added = ARGV[2] end\n" +
+            "  end\n" +
+            "  if chunk > 1 or type(added) == 'table' then\n" +
+            "    fields[#fields + 1] = '" + REQUEST_ENTRY_ID_FIELD + "'\n" +
+            "    fields[#fields + 1] = ARGV[2]\n" +
+            "    added = redis.call('XADD', KEYS[1], '*', unpack(fields))\n" +
+            "  end\n" +
+            "  if chunk == 1 then id = added end\n" +
+            "end\n" +
+            "redis.call('XACK', KEYS[2], ARGV[1], ARGV[2])\n" +
+            "return id";
+
+    /**
+     * 响应已写入时才确认命令，和响应的 XADD 放在同一个 pipeline 中发送
+     * KEYS[1] 响应streamKey，KEYS[2] 命令streamKey
+     * ARGV[1] 消费者组，ARGV[2] 命令entryId
+     */
+    private static final String ACK_IF_REPLIED_SCRIPT =
+            "if #redis.call('XRANGE', KEYS[1], ARGV[2], ARGV[2]) == 0 then return 0 end\n" +
+            "return redis.call('XACK', KEYS[2], ARGV[1], ARGV[2])";
+
+    /**
+     * 原子地将所有分片发布到直接响应key、设置过期时间并确认命令，任何一个 XADD 失败（比如key类型不对）时不会确认
+     * KEYS[1] 直接响应key，KEYS[2] 命令streamKey
+     * ARGV[1] 消费者组，ARGV[2] 命令entryId，ARGV[3] 过期时间（毫秒），ARGV[4] 分片个数，之后每个分片依次为 字段个数 field value ...
+     */
+    private static final String DIRECT_REPLY_AND_ACK_SCRIPT =
+            "local id\n" +
+            "local pos = 5\n" +
+            "for chunk = 1, tonumber(ARGV[4]) do\n" +
+            "  local fields = {}\n" +
+            "  local count = tonumber(ARGV[pos])\n" +
+            "  for i = pos + 1, pos + count do fields[#fields + 1] = ARGV[i] end\n" +
+            "  pos = pos + count + 1\n" +
+            "  local added = redis.call('XADD', KEYS[1], '*', unpack(fields))\n" +
+            "  if chunk == 1 then id = added end\n" +
+            "end\n" +
+            "redis.call('PEXPIRE', KEYS[1], ARGV[3])\n" +
+            "redis.call('XACK', KEYS[2], ARGV[1], ARGV[2])\n" +
+            "return id";
+
+    /**
+     * 直接响应的所有分片都已写入时才确认命令，和分片的 XADD 放在同一个 pipeline 中发送：
+     * 直接响应key中最新的 ARGV[3] 条消息都带有该命令的 requestEntryId 时才确认，key类型不对时脚本报错，不会确认
+     * KEYS[1] 直接响应key，KEYS[2] 命令streamKey
+     * ARGV[1] 消费者组，ARGV[2] 命令entryId，ARGV[3] 分片个数
+     */
+    private static final String ACK_IF_DIRECT_REPLIED_SCRIPT =
+            "local entries = redis.call('XREVRANGE', KEYS[1], '+', '-', 'COUNT', ARGV[3])\n" +
+            "if #entries < tonumber(ARGV[3]) then return 0 end\n" +
+            "for _, entry in ipairs(entries) do\n" +
+            "  local fields = entry[2]\n" +
+            "  local matched = false\n" +
+            "  for i = 1, #fields, 2 do\n" +
+            "    if fields[i] == '" + REQUEST_ENTRY_ID_FIELD + "' and fields[i + 1] == ARGV[2] then matched = true end\n" +
+            "  end\n" +
+            "  if not matched then return 0 end\n" +
+            "end\n" +
+            "return redis.call('XACK', KEYS[2], ARGV[1], ARGV[2])";
+
+    /**
+     * 已加载到 redis 的脚本 sha1
+     */
+    private static volatile String replyAndAckScriptSha;
+    private static volatile String ackIfRepliedScriptSha;
+    private static volatile String directReplyAndAckScriptSha;
+    private static volatile String ackIfDirectRepliedScriptSha;
+
     private final Jedis jedis;
     private final String streamKey;
 
@@ -20,42 +129,406 @@ public class StreamProducer {
     }
 
     /**
-     * 向指定的 Redis Stream 发布一条消息，并设置流的最大长度约为 1000 条。
+     * 向指定的 Redis Stream 发布一条消息。
      * <p>
      * 消息以 Map 形式存储到 Redis Stream {@code streamKey} 中；
-     * 当消息数超过 1000 条时，Stream 会自动进行近似裁剪（approximate trimming），以限制其最大长度，
-     * 有利于节省内存并保持流的活跃状态。
+     * 写入时不再裁剪，stream 的长度由 {@link #trim(StreamRetention)} 按保留策略周期性裁剪
      *
      * @param message 需发布到 Stream 的消息内容，键值对形式
      * @return        新添加消息的 StreamEntryID
      */
     public StreamEntryID publishMessage(Map<String, String> message) {
 
-            // 添加消息并设置Stream最大长度约为1000
-            XAddParams params = XAddParams.xAddParams().maxLen(1000).approximateTrimming();
-            return jedis.xadd(streamKey, params, message);
+            return jedis.xadd(streamKey, XAddParams.xAddParams(), message);
 
     }
 
     /**
-     * xadd 指定entryId同时使用近似裁剪保留最近1000条
+     * xadd 指定entryId
      * @param message 消息内容
      * @param entryID 指定 entryId
      * @return entryId
      */
     public StreamEntryID publishMessage(Map<String, String> message, StreamEntryID entryID) {
 
-        // 添加消息并设置Stream最大长度约为1000
-        // 设置流的最大长度(使用近似裁剪)
         XAddParams xAddParams = new XAddParams()
-                .approximateTrimming()
-                .maxLen(1000)
                 .id(entryID);
         // 执行XADD命令
         return jedis.xadd(streamKey, xAddParams, message);
 
     }
 
+    /**
+     * 以master节点命令的 entryId 发布响应，master节点可以直接按命令的 entryId 找到响应。
+     * <p>
+     * stream 的ID必须递增，当响应不是按命令顺序发布时（比如重新处理之前未确认的命令），指定的 entryId 可能小于
+     * stream 中已有的最大ID而无法写入：
+     * <ul>
+     *     <li>如果该 entryId 的响应已存在（发布响应后、确认前崩溃），不再重复发布</li>
+     *     <li>否则使用自动生成的ID发布，并通过 requestEntryId 字段关联到命令的 entryId</li>
+     * </ul>
+     *
+     * @param message 响应内容，字段值可以是任意编码格式的字节
+     * @param entryID 命令的 entryId
+     * @return 响应实际使用的 entryId
+     */
+    public StreamEntryID publishReply(Map<byte[], byte[]> message, StreamEntryID entryID) {
+        byte[] key = SafeEncoder.encode(streamKey);
+        try {
+            return new StreamEntryID(SafeEncoder.encode(jedis.xadd(key,
+                    XAddParams.xAddParams().id(entryID), message)));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("equal or smaller")) {
+                throw e;
+            }
+        }
+
+        if (!jedis.xrange(streamKey, entryID, entryID, 1).isEmpty()) {
+            return entryID;
+        }
+        Map<byte[], byte[]> correlatedMessage = new LinkedHashMap<>(message);
+        correlatedMessage.put(SafeEncoder.encode(REQUEST_ENTRY_ID_FIELD), SafeEncoder.encode(entryID.toString()));
+        return new StreamEntryID(SafeEncoder.encode(jedis.xadd(key,
+                XAddParams.xAddParams(), correlatedMessage)));
+    }
+
+    /**
+     * 在一次网络往返中发布响应并确认命令
+     * <p>
+     * PIPELINE 模式下确认只在响应已写入时执行；指定的 entryId 无法写入时改为通过脚本原子地发布响应并确认，
+     * 任何情况下都不会出现命令已确认但响应没有写入
+     *
+     * @param message       响应内容，字段值可以是任意编码格式的字节
+     * @param entryID       命令的 entryId，同时作为响应的 entryId
+     * @param ackStreamKey  命令所在的 streamKey，为 null 时只发布响应（广播命令不需要确认）
+     * @param groupName     消费命令的消费者组
+     * @param replyAckMode  发布响应和确认命令的方式
+     * @return 响应实际使用的 entryId
+     */
+    public StreamEntryID publishReplyAndAck(Map<byte[], byte[]> message, StreamEntryID entryID,
+                                            String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+        if (ackStreamKey == null) {
+            return publishReply(message, entryID);
+        }
+        if (replyAckMode == ReplyAckMode.SCRIPT) {
+            return publishReplyAndAckByScript(Collections.singletonList(message), entryID, ackStreamKey, groupName);
+        }
+
+        // XADD 可能因为 entryId 不递增而失败，同一个 pipeline 中的确认只在响应已写入时执行，不会确认没有响应的命令
+        if (ackIfRepliedScriptSha == null) {
+            ackIfRepliedScriptSha = jedis.scriptLoad(ACK_IF_REPLIED_SCRIPT);
+        }
+        Pipeline pipeline = jedis.pipelined();
+        Response<byte[]> added = pipeline.xadd(SafeEncoder.encode(streamKey),
+                XAddParams.xAddParams().id(entryID), message);
+        Response<Object> acked = pipeline.evalsha(ackIfRepliedScriptSha,
+                Arrays.asList(streamKey, ackStreamKey), Arrays.asList(groupName, entryID.toString()));
+        pipeline.sync();
+        StreamEntryID replyId;
+        try {
+            replyId = new StreamEntryID(SafeEncoder.encode(added.get()));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("equal or smaller")) {
+                throw e;
+            }
+            // 响应不是按命令顺序发布，指定的 entryId 无法写入，由脚本原子地发布（或找到已有的）响应并确认
+            return publishReplyAndAckByScript(Collections.singletonList(message), entryID, ackStreamKey, groupName);
+        }
+        try {
+            acked.get();
+        } catch (JedisNoScriptException e) {
+            // redis 重启丢失了脚本缓存，响应已写入，直接确认
+            ackIfRepliedScriptSha = null;
+            jedis.xack(ackStreamKey, groupName, entryID);
+        }
+        return replyId;
+    }
+
+    /**
+     * 按顺序发布一个响应的所有分片并确认命令，和单条响应一样只需要一次网络往返
+     * <p>
+     * 第一个分片以命令的 entryId 发布（规则同 {@link #publishReply(Map, StreamEntryID)}），其余分片使用自动生成的ID，
+     * 并通过 requestEntryId 字段关联到命令：
+     * <ul>
+     *     <li>SCRIPT：所有分片的 XADD 和 XACK 在同一个脚本中原子执行</li>
+     *     <li>PIPELINE：所有分片的 XADD 和确认在同一个 pipeline 中发送，确认只在第一个分片已写入时执行；
+     *     第一个分片的 entryId 无法写入时，删除已写入的其余分片，再按顺序重新发布所有分片（由脚本原子地发布并确认），
+     *     保证master节点总是先读到第一个分片</li>
+     * </ul>
+     * 发布过程中崩溃时命令会被重新处理，master节点按 chunkIndex 去重
+     *
+     * @param chunks       按顺序排列的分片
+     * @param entryID      命令的 entryId
+     * @param ackStreamKey 命令所在的 streamKey，为 null 时不确认
+     * @param groupName    消费命令的消费者组
+     * @param replyAckMode 发布响应和确认命令的方式
+     * @return 第一个分片实际使用的 entryId
+     */
+    public StreamEntryID publishChunkedReplyAndAck(List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                                   String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+        if (ackStreamKey != null && replyAckMode == ReplyAckMode.SCRIPT) {
+            return publishReplyAndAckByScript(chunks, entryID, ackStreamKey, groupName);
+        }
+        if (ackStreamKey != null && ackIfRepliedScriptSha == null) {
+            ackIfRepliedScriptSha = jedis.scriptLoad(ACK_IF_REPLIED_SCRIPT);
+        }
+
+        byte[] key = SafeEncoder.encode(streamKey);
+        Pipeline pipeline = jedis.pipelined();
+        Response<byte[]> first = pipeline.xadd(key, XAddParams.xAddParams().id(entryID), chunks.get(0));
+        List<Response<byte[]>> rest = new ArrayList<>();
+        for (int i = 1; i < chunks.size(); i++) {
+            rest.add(pipeline.xadd(key, XAddParams.xAddParams(), correlated(chunks.get(i), entryID)));
+        }
+        Response<Object> acked = ackStreamKey == null ? null : pipeline.evalsha(ackIfRepliedScriptSha,
+                Arrays.asList(streamKey, ackStreamKey), Arrays.asList(groupName, entryID.toString()));
+        pipeline.sync();
+
+        StreamEntryID firstId;
+        try {
+            firstId = new StreamEntryID(SafeEncoder.encode(first.get()));
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("equal or smaller")) {
+                throw e;
+            }
+            // 其余分片已经写在第一个分片之前的位置，只补发第一个分片会让master节点最后才读到第一页，删除后按顺序重新发布
+            deleteAdded(rest);
+            if (ackStreamKey != null) {
+                return publishReplyAndAckByScript(chunks, entryID, ackStreamKey, groupName);
+            }
+            StreamEntryID replyId = publishReply(chunks.get(0), entryID);
+            Pipeline retry = jedis.pipelined();
+            for (int i = 1; i < chunks.size(); i++) {
+                retry.xadd(key, XAddParams.xAddParams(), correlated(chunks.get(i), entryID));
+            }
+            retry.sync();
+            return replyId;
+        }
+        if (acked != null) {
+            try {
+                acked.get();
+            } catch (JedisNoScriptException e) {
+                ackIfRepliedScriptSha = null;
+                jedis.xack(ackStreamKey, groupName, entryID);
+            }
+        }
+        return firstId;
+    }
+
+    /**
+     * 将响应的所有分片发布到命令指定的直接响应key（一个只属于该命令的短期 stream），设置过期时间并确认命令
+     * <p>
+     * 分片使用自动生成的ID并带有 requestEntryId 字段，master节点对该key执行 XREAD BLOCK 即可在一次往返中拿到响应。
+     * 和发布到响应stream一样只需要一次网络往返，并且只在所有分片都已写入后确认（master节点指定的key可能是其他类型）：
+     * <ul>
+     *     <li>SCRIPT：所有 XADD、PEXPIRE 和 XACK 在同一个脚本中执行</li>
+     *     <li>PIPELINE：所有 XADD、PEXPIRE 和确认在同一个 pipeline 中发送，确认由检查所有分片是否已写入的脚本执行</li>
+     * </ul>
+     *
+     * @param chunks       按顺序排列的分片
+     * @param entryID      命令的 entryId
+     * @param ackStreamKey 命令所在的 streamKey，为 null 时不确认
+     * @param groupName    消费命令的消费者组
+     * @param ttlMillis    直接响应key的过期时间（毫秒）
+     * @param replyAckMode 发布响应和确认命令的方式
+     * @return 第一个分片的 entryId
+     */
+    public StreamEntryID publishDirectReplyAndAck(List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                                  String ackStreamKey, String groupName, long ttlMillis,
+                                                  ReplyAckMode replyAckMode) {
+        List<Map<byte[], byte[]>> correlated = new ArrayList<>(chunks.size());
+        for (Map<byte[], byte[]> original : chunks) {
+            Map<byte[], byte[]> chunk = new LinkedHashMap<>(original);
+            chunk.put(SafeEncoder.encode(REQUEST_ENTRY_ID_FIELD), SafeEncoder.encode(entryID.toString()));
+            correlated.add(chunk);
+        }
+        if (ackStreamKey != null && replyAckMode == ReplyAckMode.SCRIPT) {
+            return publishDirectReplyAndAckByScript(correlated, entryID, ackStreamKey, groupName, ttlMillis);
+        }
+        if (ackStreamKey != null && ackIfDirectRepliedScriptSha == null) {
+            ackIfDirectRepliedScriptSha = jedis.scriptLoad(ACK_IF_DIRECT_REPLIED_SCRIPT);
+        }
+
+        byte[] key = SafeEncoder.encode(streamKey);
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<byte[]>> added = new ArrayList<>(correlated.size());
+        for (Map<byte[], byte[]> chunk : correlated) {
+            added.add(pipeline.xadd(key, XAddParams.xAddParams(), chunk));
+        }
+        pipeline.pexpire(key, ttlMillis);
+        Response<Object> acked = ackStreamKey == null ? null : pipeline.evalsha(ackIfDirectRepliedScriptSha,
+                Arrays.asList(streamKey, ackStreamKey),
+                Arrays.asList(groupName, entryID.toString(), String.valueOf(correlated.size())));
+        pipeline.sync();
+
+        // 任何一个分片写入失败时抛出异常，命令保持未确认，由周期性恢复重新处理
+        for (Response<byte[]> response : added) {
+            response.get();
+        }
+        if (acked != null) {
+            try {
+                acked.get();
+            } catch (JedisNoScriptException e) {
+                // redis 重启丢失了脚本缓存，所有分片已写入，直接确认
+                ackIfDirectRepliedScriptSha = null;
+                jedis.xack(ackStreamKey, groupName, entryID);
+            }
+        }
+        return new StreamEntryID(SafeEncoder.encode(added.get(0).get()));
+    }
+
+    /**
+     * 通过 lua 脚本原子地将所有分片发布到直接响应key、设置过期时间并确认命令
+     */
+    private StreamEntryID publishDirectReplyAndAckByScript(List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                                           String ackStreamKey, String groupName, long ttlMillis) {
+        List<byte[]> keys = Arrays.asList(SafeEncoder.encode(streamKey), SafeEncoder.encode(ackStreamKey));
+        List<byte[]> args = new ArrayList<>();
+        args.add(SafeEncoder.encode(groupName));
+        args.add(SafeEncoder.encode(entryID.toString()));
+        args.add(SafeEncoder.encode(String.valueOf(ttlMillis)));
+        addChunkArgs(args, chunks);
+
+        Object result;
+        try {
+            if (directReplyAndAckScriptSha == null) {
+                directReplyAndAckScriptSha = jedis.scriptLoad(DIRECT_REPLY_AND_ACK_SCRIPT);
+            }
+            result = jedis.evalsha(SafeEncoder.encode(directReplyAndAckScriptSha), keys, args);
+        } catch (JedisNoScriptException e) {
+            directReplyAndAckScriptSha = jedis.scriptLoad(DIRECT_REPLY_AND_ACK_SCRIPT);
+            result = jedis.evalsha(SafeEncoder.encode(directReplyAndAckScriptSha), keys, args);
+        }
+        return new StreamEntryID(SafeEncoder.encode((byte[]) result));
+    }
+
+    /**
+     * @return 带有 requestEntryId 字段的分片，关联到命令的 entryId
+     */
+    private static Map<byte[], byte[]> correlated(Map<byte[], byte[]> chunk, StreamEntryID entryID) {
+        Map<byte[], byte[]> correlatedChunk = new LinkedHashMap<>(chunk);
+        correlatedChunk.put(SafeEncoder.encode(REQUEST_ENTRY_ID_FIELD), SafeEncoder.encode(entryID.toString()));
+        return correlatedChunk;
+    }
+
+    /**
+     * 删除 pipeline 中已经写入的分片，写入失败的分片忽略
+     */
+    private void deleteAdded(List<Response<byte[]>> added) {
+        List<StreamEntryID> ids = new ArrayList<>();
+        for (Response<byte[]> response : added) {
+            try {
+                ids.add(new StreamEntryID(SafeEncoder.encode(response.get())));
+            } catch (JedisDataException ignored) {
+                // 没有写入，不需要删除
+            }
+        }
+        if (!ids.isEmpty()) {
+            jedis.xdel(streamKey, ids.toArray(new StreamEntryID[0]));
+        }
+    }
+
+    /**
+     * 通过 lua 脚本原子地发布响应的所有分片并确认命令，脚本只在首次使用（或 redis 重启丢失脚本缓存）时加载
+     */
+    private StreamEntryID publishReplyAndAckByScript(List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                                     String ackStreamKey, String groupName) {
+        List<byte[]> keys = Arrays.asList(SafeEncoder.encode(streamKey), SafeEncoder.encode(ackStreamKey));
+        List<byte[]> args = new ArrayList<>();
+        args.add(SafeEncoder.encode(groupName));
+        args.add(SafeEncoder.encode(entryID.toString()));
+        addChunkArgs(args, chunks);
+
+        Object result;
+        try {
+            if (replyAndAckScriptSha == null) {
+                replyAndAckScriptSha = jedis.scriptLoad(REPLY_AND_ACK_SCRIPT);
+            }
+            result = jedis.evalsha(SafeEncoder.encode(replyAndAckScriptSha), keys, args);
+        } catch (JedisNoScriptException e) {
+            replyAndAckScriptSha = jedis.scriptLoad(REPLY_AND_ACK_SCRIPT);
+            result = jedis.evalsha(SafeEncoder.encode(replyAndAckScriptSha), keys, args);
+        }
+        return new StreamEntryID(result instanceof byte[] ? SafeEncoder.encode((byte[]) result) : String.valueOf(result));
+    }
+
+    /**
+     * 脚本参数中的分片：分片个数，之后每个分片依次为 字段个数 field value ...
+     */
+    private static void addChunkArgs(List<byte[]> args, List<Map<byte[], byte[]>> chunks) {
+        args.add(SafeEncoder.encode(String.valueOf(chunks.size())));
+        for (Map<byte[], byte[]> chunk : chunks) {
+            args.add(SafeEncoder.encode(String.valueOf(chunk.size() * 2)));
+            for (Map.Entry<byte[], byte[]> field : chunk.entrySet()) {
+                args.add(field.getKey());
+                args.add(field.getValue());
+            }
+        }
+    }
+
+    /**
+     * 按保留策略裁剪 stream，由定时任务周期性调用，不在每次 XADD 时裁剪
+     * <ul>
+     *     <li>删除早于 redis 服务器当前时间 maxAgeMillis 的消息（XTRIM MINID，ID 的毫秒部分即写入时间）</li>
+     *     <li>开启 deleteReadReplies 时，删除已被 stream 上所有消费者组读取并确认的消息</li>
+     *     <li>只保留最近约 maxLen 条消息（XTRIM MAXLEN）</li>
+     * </ul>
+     * 都使用近似裁剪，redis 只删除整个宏节点，实际保留的消息可能略多
+     *
+     * @param retention 保留策略
+     * @return 删除的消息条数
+     */
+    public long trim(StreamRetention retention) {
+        if (!jedis.exists(streamKey)) {
+            return 0;
+        }
+
+        StreamEntryID minId = null;
+        if (retention.getMaxAgeMillis() > 0) {
+            List<String> time = jedis.time();
+            long nowMillis = Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+            minId = new StreamEntryID(Math.max(0, nowMillis - retention.getMaxAgeMillis()), 0);
+        }
+        if (retention.isDeleteReadReplies()) {
+            StreamEntryID readUpTo = readByAllGroups();
+            if (readUpTo != null && (minId == null || readUpTo.compareTo(minId) > 0)) {
+                minId = readUpTo;
+            }
+        }
+
+        long trimmed = 0;
+        if (minId != null) {
+            trimmed += jedis.xtrim(streamKey, XTrimParams.xTrimParams().minId(minId.toString()).approximateTrimming());
+        }
+        if (retention.getMaxLen() > 0) {
+            trimmed += jedis.xtrim(streamKey, XTrimParams.xTrimParams().maxLen(retention.getMaxLen()).approximateTrimming());
+        }
+        return trimmed;
+    }
+
+    /**
+     * 所有消费者组都已读取并确认的消息的上界（不含），stream 上没有消费者组时返回 null
+     * <p>
+     * 有待确认消息的消费者组以最早的待确认消息为界，否则以最后投递的消息的下一个ID为界
+     */
+    private StreamEntryID readByAllGroups() {
+        List<StreamGroupInfo> groups = jedis.xinfoGroups(streamKey);
+        StreamEntryID readUpTo = null;
+        for (StreamGroupInfo group : groups) {
+            StreamEntryID groupReadUpTo;
+            if (group.getPending() > 0) {
+                groupReadUpTo = jedis.xpending(streamKey, group.getName()).getMinId();
+            } else {
+                StreamEntryID lastDelivered = group.getLastDeliveredId();
+                groupReadUpTo = new StreamEntryID(lastDelivered.getTime(), lastDelivered.getSequence() + 1);
+            }
+            if (readUpTo == null || groupReadUpTo.compareTo(readUpTo) < 0) {
+                readUpTo = groupReadUpTo;
+            }
+        }
+        return readUpTo;
+    }
+
     public void close() {
         RedisUtil.close(jedis);
     }
@@ -0,0 +1,52 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.util.YamlUtil;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 响应stream（sub:agentId:streamType）的保留策略，由定时任务周期性裁剪，发布响应时不裁剪
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StreamRetention {
+
+    /**
+     * 响应最多保留的时间（毫秒），小于等于0表示不按时间裁剪
+     */
+    @Builder.Default
+    private long maxAgeMillis = 3600000;
+
+    /**
+     * 响应stream的近似最大长度，小于等于0表示不按长度裁剪
+     */
+    @Builder.Default
+    private long maxLen = 1000;
+
+    /**
+     * 是否删除已被响应stream上所有消费者组读取并确认的响应；响应stream上没有消费者组时不生效
+     */
+    @Builder.Default
+    private boolean deleteReadReplies = true;
+
+    /**
+     * 从配置中读取保留策略，缺失的配置项使用 defaults 中的值
+     *
+     * @param config   保留策略的配置
+     * @param defaults 默认的保留策略
+     * @return StreamRetention
+     */
+    public static StreamRetention fromConfig(Map<String, Object> config, StreamRetention defaults) {
+        return StreamRetention.builder()
+                .maxAgeMillis(YamlUtil.getOrDefault(config, "maxAgeMillis", defaults.getMaxAgeMillis()))
+                .maxLen(YamlUtil.getOrDefault(config, "maxLen", defaults.getMaxLen()))
+                .deleteReadReplies(YamlUtil.getOrDefault(config, "deleteReadReplies", defaults.isDeleteReadReplies()))
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package cn.hedeoer.subscribe.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * 基于 jackson ObjectMapper 的编码格式，具体格式由 ObjectMapper 使用的 JsonFactory 决定
+ */
+public class JacksonPayloadCodec implements PayloadCodec {
+
+    private final String name;
+    private final ObjectMapper objectMapper;
+
+    public JacksonPayloadCodec(String name, ObjectMapper objectMapper) {
+        this.name = name;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new RuntimeException("使用 " + name + " 编码失败", e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new RuntimeException("使用 " + name + " 解码失败", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cn.hedeoer.subscribe.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+
+/**
+ * stream消息中结构化字段（比如响应的 data）的编码格式
+ */
+public interface PayloadCodec {
+
+    /**
+     * 编码格式的名字，写入消息的 codec 字段，master节点据此解码
+     *
+     * @return 编码格式名字，比如 json，smile
+     */
+    String name();
+
+    /**
+     * 编码
+     *
+     * @param value 需要编码的对象
+     * @return 编码后的字节
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码
+     *
+     * @param bytes 编码后的字节
+     * @param type  目标类型
+     * @param <T>   目标类型
+     * @return 解码后的对象
+     */
+    <T> T decode(byte[] bytes, TypeReference<T> type);
+}
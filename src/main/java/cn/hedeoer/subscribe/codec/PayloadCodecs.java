@@ -0,0 +1,127 @@
+package cn.hedeoer.subscribe.codec;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * agent节点支持的所有编码格式
+ * <p>
+ * agent节点在心跳中上报自己支持的编码格式（{@link #supportedNames()}），master节点在命令的 accept 字段中
+ * 按优先级列出自己能解码的格式（比如 "smile,json"），agent节点选择第一个双方都支持的格式编码响应；
+ * 没有 accept 字段的命令使用 json，因此master节点可以逐个agent节点切换编码格式
+ */
+public class PayloadCodecs {
+
+    /**
+     * 命令中列出master节点可以解码的编码格式的字段名
+     */
+    public static final String ACCEPT_FIELD = "accept";
+
+    /**
+     * 响应中记录编码格式的字段名
+     */
+    public static final String CODEC_FIELD = "codec";
+
+    public static final PayloadCodec JSON = new JacksonPayloadCodec("json", new ObjectMapper());
+
+    public static final PayloadCodec SMILE = new JacksonPayloadCodec("smile", new SmileMapper());
+
+    private static final Map<String, PayloadCodec> CODECS = new LinkedHashMap<>();
+
+    static {
+        CODECS.put(SMILE.name(), SMILE);
+        CODECS.put(JSON.name(), JSON);
+    }
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * @return agent节点支持的编码格式名字
+     */
+    public static List<String> supportedNames() {
+        return Collections.unmodifiableList(new ArrayList<>(CODECS.keySet()));
+    }
+
+    /**
+     * 根据名字获取编码格式
+     *
+     * @param name 编码格式名字
+     * @return 编码格式，名字为空或不支持时返回 json
+     */
+    public static PayloadCodec get(String name) {
+        if (name == null) {
+            return JSON;
+        }
+        return CODECS.getOrDefault(name.trim().toLowerCase(), JSON);
+    }
+
+    /**
+     * 从master节点可以解码的编码格式中选择第一个agent节点支持的格式
+     *
+     * @param accept 逗号分隔、按优先级排列的编码格式名字，比如 "smile,json"
+     * @return 选中的编码格式，没有可用的格式时返回 json
+     */
+    public static PayloadCodec negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        for (String name : accept.split(",")) {
+            PayloadCodec codec = CODECS.get(name.trim().toLowerCase());
+            if (codec != null) {
+                return codec;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * 将ResponseResult对象转换为可直接写入 redis stream 的二进制消息
+     * json 编码时与 {@link ResponseResult#convertResponseResultToMap(ResponseResult)} 的内容完全一致；
+     * 其他编码格式时 data 字段使用该格式编码，并通过 codec 字段标明编码格式
+     *
+     * @param responseResult 需要转换的ResponseResult对象
+     * @param codec          data 字段的编码格式
+     * @param <T>            数据类型
+     * @return 转换后的Map
+     */
+    public static <T> Map<byte[], byte[]> encodeResponse(ResponseResult<T> responseResult, PayloadCodec codec) {
+        Map<byte[], byte[]> resultMap = new LinkedHashMap<>();
+        if (codec == null || JSON.name().equals(codec.name())) {
+            for (Map.Entry<String, String> entry : ResponseResult.convertResponseResultToMap(responseResult).entrySet()) {
+                resultMap.put(SafeEncoder.encode(entry.getKey()), SafeEncoder.encode(entry.getValue()));
+            }
+            return resultMap;
+        }
+        if (responseResult == null) {
+            return resultMap;
+        }
+
+        resultMap.put(SafeEncoder.encode("timestamp"), SafeEncoder.encode(String.valueOf(responseResult.getTimestamp())));
+        if (responseResult.getStatus() != null) {
+            resultMap.put(SafeEncoder.encode("status"), SafeEncoder.encode(responseResult.getStatus()));
+        }
+        if (responseResult.getMessage() != null) {
+            resultMap.put(SafeEncoder.encode("message"), SafeEncoder.encode(responseResult.getMessage()));
+        }
+        if (Boolean.TRUE.equals(responseResult.getTruncated())) {
+            resultMap.put(SafeEncoder.encode("truncated"), SafeEncoder.encode("true"));
+        }
+        if (responseResult.getEtag() != null) {
+            resultMap.put(SafeEncoder.encode("etag"), SafeEncoder.encode(responseResult.getEtag()));
+        }
+        if (responseResult.getData() != null) {
+            resultMap.put(SafeEncoder.encode("data"), codec.encode(responseResult.getData()));
+        }
+        resultMap.put(SafeEncoder.encode(CODEC_FIELD), SafeEncoder.encode(codec.name()));
+        return resultMap;
+    }
+}
@@ -0,0 +1,110 @@
+package cn.hedeoer.subscribe.codec;
+
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 响应 data 字段的压缩
+ * <p>
+ * data 字段超过阈值时使用 deflate 压缩，并写入 compression 字段标明压缩算法，master节点先按 compression 解压，
+ * 再按 codec 字段解码；没有 compression 字段的响应未压缩。压缩后反而更大时保留原始内容
+ */
+public class PayloadCompression {
+
+    /**
+     * 响应中记录压缩算法的字段名
+     */
+    public static final String COMPRESSION_FIELD = "compression";
+
+    public static final String DEFLATE = "deflate";
+
+    private static final byte[] DATA_FIELD = SafeEncoder.encode("data");
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * data 字段超过阈值时就地压缩
+     *
+     * @param message        响应内容
+     * @param thresholdBytes 压缩阈值（字节），小于等于0时不压缩
+     * @return 是否进行了压缩
+     */
+    public static boolean compressIfLarge(Map<byte[], byte[]> message, int thresholdBytes) {
+        if (thresholdBytes <= 0) {
+            return false;
+        }
+        for (Map.Entry<byte[], byte[]> field : message.entrySet()) {
+            if (!Arrays.equals(DATA_FIELD, field.getKey())) {
+                continue;
+            }
+            byte[] data = field.getValue();
+            if (data == null || data.length < thresholdBytes) {
+                return false;
+            }
+            byte[] compressed = deflate(data);
+            if (compressed.length >= data.length) {
+                return false;
+            }
+            field.setValue(compressed);
+            message.put(SafeEncoder.encode(COMPRESSION_FIELD), SafeEncoder.encode(DEFLATE));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * deflate 压缩
+     *
+     * @param data 原始内容
+     * @return 压缩后的内容
+     */
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * deflate 解压
+     *
+     * @param compressed 压缩后的内容
+     * @return 原始内容
+     */
+    public static byte[] inflate(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("deflate 数据不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("deflate 数据格式错误", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
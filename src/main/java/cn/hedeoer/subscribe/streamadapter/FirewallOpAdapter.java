@@ -1,6 +1,7 @@
 package cn.hedeoer.subscribe.streamadapter;
 
 import cn.hedeoer.firewall.PortRuleService;
+import cn.hedeoer.firewall.RuleSetFingerprints;
 import cn.hedeoer.firewall.ufw.op.PortRuleServiceImplByUFW;
 import cn.hedeoer.schedule.HeartBeat;
 import cn.hedeoer.common.entity.ResponseResult;
@@ -10,10 +11,10 @@ import cn.hedeoer.common.entity.PortRule;
 import cn.hedeoer.firewall.firewalld.exception.FirewallException;
 import cn.hedeoer.firewall.firewalld.op.PortRuleServiceImplByFirewalld;
 import cn.hedeoer.common.enmu.FireWallType;
-import cn.hedeoer.subscribe.StreamConsumer;
-import cn.hedeoer.subscribe.StreamProducer;
-import cn.hedeoer.util.AgentIdUtil;
-import cn.hedeoer.util.RedisUtil;
+import cn.hedeoer.subscribe.CommandPriority;
+import cn.hedeoer.common.RequestDeadline;
+import cn.hedeoer.subscribe.StreamDispatcher;
+import cn.hedeoer.subscribe.StreamEntryHandler;
 import cn.hedeoer.util.WallUtil;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -25,11 +26,10 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.StreamEntryID;
 import redis.clients.jedis.resps.StreamEntry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -39,13 +39,27 @@ import java.util.stream.Collectors;
  * 对redis stream的 数据做适配响应，比如 当添加或者删除一个防火墙规则时，需要调用方法
  * cn.hedeoer.firewalld.op.PortRuleService#addOrRemoveOnePortRule(java.lang.String, cn.hedeoer.common.entity.PortRule, java.lang.String)
  */
-public class FirewallOpAdapter implements Runnable {
+public class FirewallOpAdapter implements Runnable, StreamEntryHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(FirewallOpAdapter.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
     private PortRuleService portRuleService;
     private final FireWallType firewallType;
+    private final RuleSetFingerprints ruleSetFingerprints;
+    /**
+     * OPTIONS 命令手动触发的心跳，和定时心跳共用同一个传输连接
+     */
+    private HeartBeat heartBeat;
 
     public FirewallOpAdapter() {
+        this(null);
+    }
+
+    /**
+     * @param heartBeat 和定时心跳共享的心跳实例，为空时在首次收到 OPTIONS 命令时创建
+     */
+    public FirewallOpAdapter(HeartBeat heartBeat) {
+        this.heartBeat = heartBeat;
         FireWallType firewallType = WallUtil.getFirewallType();
         // 通过防火墙类型选择对应的实现类
         if (FireWallType.UFW.equals(firewallType)) {
@@ -58,147 +72,201 @@ public class FirewallOpAdapter implements Runnable {
 
         // 防火墙类型
         this.firewallType = firewallType;
+        this.ruleSetFingerprints = new RuleSetFingerprints(firewallType);
 
     }
 
     @Override
     public void run() {
+        // 单独运行时只读取 pub:agentId:portRule 一个stream
+        new StreamDispatcher(Collections.singletonList(this)).run();
+    }
 
-        // 获取agent节点的唯一标识
-        String agentId = AgentIdUtil.loadOrCreateUUID();
-        String subStreamKey = "sub:" + agentId + ":" + "portRule";
-        String groupName = "firewall_" + subStreamKey + "_group";
-        String consumerName = groupName + "_consumer";
-        String pubStreamKey = "pub:" + agentId + ":" + "portRule";
+    @Override
+    public String streamType() {
+        return "portRule";
+    }
 
-//            SimpleStreamConsumer simpleStreamConsumer = new SimpleStreamConsumer(jedis, subStreamKey);
+    @Override
+    public ResponseResult<?> handle(StreamEntry streamEntry) {
+        return handle(streamEntry, RequestDeadline.none());
+    }
 
+    /**
+     * 查询端口规则时需要逐条检查端口是否被使用，超过截止时间时只响应已经检查过的规则
+     */
+    @Override
+    public ResponseResult<?> handle(StreamEntry streamEntry, RequestDeadline deadline) {
         // 消费流的结果封装
         ResponseResult<List<PortRule>> consumeResult = ResponseResult.success();
 
-        // 不断循环 + block实现不断拉取 指定 stream key的数据，但没有数据时，一直阻塞；当有数据，消费处理，后进入下一次循环
+        // 转化 streamEntry的fields为java对象
+        PortRuleStreamEntry portRuleStreamEntry = fromMap(streamEntry.getFields());
 
-        while (true) {
-            // 每次循环都重新获取 Jedis，用完就关闭,这样即使某次消费中 Jedis 发生了超时、阻塞断开、协议污染，下一轮会用全新连接，最大化避免脏连接带来的所有潜在问题
-            try (Jedis jedis = RedisUtil.getJedis()) {
-                StreamConsumer consumer = new StreamConsumer(jedis, pubStreamKey, groupName, consumerName);
-
-                //本次循环消费消息时最多阻塞1秒
-                List<StreamEntry> streamEntries = consumer.consumeNewMessages(1, 0);
-                if (streamEntries.isEmpty()) {
-//                    logger.info("streamKey:{}, 目前无新消息",pubStreamKey);
-                    continue;
-                }
-                StreamEntry streamEntry = streamEntries.get(0);
-
-                // 转化 streamEntry的fields为java对象
-                PortRuleStreamEntry portRuleStreamEntry = fromMap(streamEntry.getFields());
+        // 判断此次端口规则操作的类型（PortRuleOpType枚举）
+        PortRuleOpType portRuleOpType = judgePortRuleOpType(portRuleStreamEntry);
+        if (portRuleOpType == null) {
+            logger.error("不匹配任何规定的端口规则操作，dataOpType：{}", portRuleStreamEntry.getDataOpType());
+            return ResponseResult.fail(null, "不支持的端口规则操作：" + portRuleStreamEntry.getDataOpType());
+        }
 
-                // 判断此次端口规则操作的类型（PortRuleOpType枚举）
-                PortRuleOpType portRuleOpType = judgePortRuleOpType(portRuleStreamEntry);
+        //
+        Map<String, String> requestParams = portRuleStreamEntry.getRequestParams();
+        // 防火墙zone
+        String zoneName = requestParams.get("zoneName");
+        String dataOpType = portRuleStreamEntry.getDataOpType();
+        List<PortRule> datas = portRuleStreamEntry.getData();
 
-                //
-                Map<String, String> requestParams = portRuleStreamEntry.getRequestParams();
-                // 防火墙zone
-                String zoneName = requestParams.get("zoneName");
-                String dataOpType = portRuleStreamEntry.getDataOpType();
-                List<PortRule> datas = portRuleStreamEntry.getData();
+        logger.info("将进行 {} 操作", portRuleOpType.name());
 
-                logger.info("将进行 {} 操作", portRuleOpType.name());
+        if (portRuleOpType == PortRuleOpType.TRANSACTION) {
+            return handleTransaction(portRuleStreamEntry.getOperations(), zoneName);
+        }
 
-                List<PortRule> rules = null;
-                Boolean consumeResultBoolean = null;
-                switch (portRuleOpType) {
-                    case QUERY_ALL_PORTRULE:
+        List<PortRule> rules = null;
+        Boolean consumeResultBoolean = null;
+        try {
+            switch (portRuleOpType) {
+                case QUERY_ALL_PORTRULE:
+                    // master节点带上已知的指纹时，规则未变化只响应 "未修改"，配置文件未变化时不需要重新查询
+                    String ifNoneMatch = requestParams.get(RuleSetFingerprints.IF_NONE_MATCH_PARAM);
+                    if (ifNoneMatch != null && ifNoneMatch.equals(ruleSetFingerprints.current(zoneName))) {
+                        return ResponseResult.notModified(ifNoneMatch);
+                    }
 
-                        rules = portRuleService.queryAllPortRule(zoneName);
-                        if (rules == null) {
-                            consumeResult = ResponseResult.fail(rules, "无法获取区域：" + zoneName + " 的全部端口规则！！");
-                            break;
-                        }
+                    String configState = ruleSetFingerprints.configState(zoneName);
+                    rules = portRuleService.queryAllPortRule(zoneName, deadline);
+                    if (rules == null) {
+                        consumeResult = ResponseResult.fail(rules, "无法获取区域：" + zoneName + " 的全部端口规则！！");
                         break;
-                    case QUERY_PORTRULES_BY_POLICY_AND_USINGSTATUS:
-                        boolean policy = Boolean.parseBoolean(requestParams.get("policy"));
-                        boolean isUsing = Boolean.parseBoolean(requestParams.get("isUsing"));
-                        rules = portRuleService.queryPortRulesByPolicyAndUsingStatus(zoneName, isUsing, policy);
-                        if (rules == null) {
-                            consumeResult = ResponseResult.fail(rules, "无法通过policy: " + policy + " 和 isUsing: " + isUsing + " 获取端口规则！！");
-                            break;
-                        }
+                    }
+                    // 部分结果不是完整的规则集，不计算指纹
+                    if (deadline.isTruncated()) {
                         break;
-                    case ADDORREMOVE_ONE_PORTRULE:
-                        consumeResultBoolean = portRuleService.addOrRemoveOnePortRule(zoneName, datas.get(0), dataOpType.toLowerCase());
-                        if (!consumeResultBoolean) {
-                            consumeResult = ResponseResult.fail(rules, "无法" + dataOpType + "端口规则");
-                            break;
-                        }
+                    }
+                    String etag = RuleSetFingerprints.fingerprint(rules);
+                    ruleSetFingerprints.remember(zoneName, configState, etag);
+                    if (etag.equals(ifNoneMatch)) {
+                        return ResponseResult.notModified(etag);
+                    }
+                    consumeResult.setEtag(etag);
+                    break;
+                case QUERY_PORTRULES_BY_POLICY_AND_USINGSTATUS:
+                    boolean policy = Boolean.parseBoolean(requestParams.get("policy"));
+                    boolean isUsing = Boolean.parseBoolean(requestParams.get("isUsing"));
+                    rules = portRuleService.queryPortRulesByPolicyAndUsingStatus(zoneName, isUsing, policy, deadline);
+                    if (rules == null) {
+                        consumeResult = ResponseResult.fail(rules, "无法通过policy: " + policy + " 和 isUsing: " + isUsing + " 获取端口规则！！");
                         break;
-                    case ADDORREMOVE_BATCH_PORTRULES:
-                        // if list<PortRule> need group by getting the number of zoneName(distinct)
-                        // not
-                        // need group
-                        Map<String, List<PortRule>> batchPortRulesMap = getDistinctZoneNamesFromPortRules(datas);
-                        for (Map.Entry<String, List<PortRule>> map : batchPortRulesMap.entrySet()) {
-                            consumeResultBoolean = portRuleService.addOrRemoveBatchPortRules(zoneName, map.getValue(), dataOpType.toLowerCase());
-                        }
-
-                        if (!consumeResultBoolean) {
-                            consumeResult = ResponseResult.fail(rules, "无法批量" + dataOpType + "端口规则");
-                            break;
-                        }
+                    }
+                    break;
+                case ADDORREMOVE_ONE_PORTRULE:
+                    consumeResultBoolean = portRuleService.addOrRemoveOnePortRule(zoneName, datas.get(0), dataOpType.toLowerCase());
+                    if (!consumeResultBoolean) {
+                        consumeResult = ResponseResult.fail(rules, "无法" + dataOpType + "端口规则");
                         break;
-                    case UPDATE_ONE_PORTRULE:
-                        PortRule old = portRuleStreamEntry.getOld();
-                        consumeResultBoolean = portRuleService.updateOnePortRule(zoneName, old, datas.get(0));
-                        if (!consumeResultBoolean) {
-                            consumeResult = ResponseResult.fail(rules, "无法更新端口规则");
-                            break;
-                        }
+                    }
+                    break;
+                case ADDORREMOVE_BATCH_PORTRULES:
+                    // if list<PortRule> need group by getting the number of zoneName(distinct)
+                    // not
+                    // need group
+                    Map<String, List<PortRule>> batchPortRulesMap = getDistinctZoneNamesFromPortRules(datas);
+                    for (Map.Entry<String, List<PortRule>> map : batchPortRulesMap.entrySet()) {
+                        consumeResultBoolean = portRuleService.addOrRemoveBatchPortRules(zoneName, map.getValue(), dataOpType.toLowerCase());
+                    }
+
+                    if (!consumeResultBoolean) {
+                        consumeResult = ResponseResult.fail(rules, "无法批量" + dataOpType + "端口规则");
+                        break;
+                    }
+                    break;
+                case UPDATE_ONE_PORTRULE:
+                    PortRule old = portRuleStreamEntry.getOld();
+                    consumeResultBoolean = portRuleService.updateOnePortRule(zoneName, old, datas.get(0));
+                    if (!consumeResultBoolean) {
+                        consumeResult = ResponseResult.fail(rules, "无法更新端口规则");
                         break;
-                    case OPTIONS:
-                        consumeResultBoolean = new HeartBeat().sendHearBeat();
-                        if (!consumeResultBoolean) {
-                            consumeResult = ResponseResult.fail(rules, "无法手动触发心跳汇报给主节点");
-                            break;
-                        }
+                    }
+                    break;
+                case OPTIONS:
+                    consumeResultBoolean = heartBeat().sendHearBeat();
+                    if (!consumeResultBoolean) {
+                        consumeResult = ResponseResult.fail(rules, "无法手动触发心跳汇报给主节点");
                         break;
-                    default:
-                        logger.error("不匹配任何规定的端口规则操作，{}", portRuleOpType);
-                }
-                consumeResult.setData(rules);
-
-                // 非查询操作并且要是firewalld防火墙工具才需要加载防火墙使得配置生效
-                if (ResponseStatus.SUCCESS.getResponseCode().equals(consumeResult.getStatus())
-                        && !("query".equals(portRuleStreamEntry.getDataOpType()))
-                        && firewallType.equals(FireWallType.FIREWALLD)) {
-                    try {
-                        WallUtil.reloadFirewall(FireWallType.FIREWALLD);
-                        logger.info("重启防火墙 {} 成功", FireWallType.FIREWALLD);
-                    } catch (FirewallException e) {
-                        throw new RuntimeException(e);
                     }
-                }
+                    break;
+                default:
+                    logger.error("不匹配任何规定的端口规则操作，{}", portRuleOpType);
+            }
+            consumeResult.setData(rules);
 
-                // 确认消息处理完成
-                StreamEntryID entryID = streamEntry.getID();
-
-                // 发布数据到 stream key （pub:001）
-                StreamEntryID streamEntryID = publishMessges(jedis, subStreamKey, entryID, consumeResult);
-                jedis.xack(pubStreamKey, groupName, entryID);
-                logger.info("agent节点：{} 向 streamKey为：{} 的stream发布 StreamEntryID：{}的消息作为响应成功", agentId, subStreamKey, entryID);
-            } catch (RuntimeException e) {
-                logger.error("消费过程出错", e);
-                // 可选休眠再重试，避免疯循环
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException ignored) {
-                }
+            // 规则可能已经变化，之后的查询都重新计算指纹
+            if (portRuleOpType.isModifyRules()) {
+                ruleSetFingerprints.invalidateAll();
+            }
+
+            // 非查询操作并且要是firewalld防火墙工具才需要加载防火墙使得配置生效
+            if (ResponseStatus.SUCCESS.getResponseCode().equals(consumeResult.getStatus())
+                    && portRuleOpType.isModifyRules()
+                    && firewallType.equals(FireWallType.FIREWALLD)) {
+                WallUtil.reloadFirewall(FireWallType.FIREWALLD);
+                logger.info("重启防火墙 {} 成功", FireWallType.FIREWALLD);
+            }
+        } catch (FirewallException e) {
+            throw new RuntimeException(e);
+        }
+
+        return consumeResult;
+    }
+
+    /**
+     * 按顺序执行一条命令中的多个操作，失败时回滚已执行的步骤；全部成功后只重新加载一次防火墙，只响应一次
+     *
+     * @param operations  按顺序排列的操作
+     * @param defaultZone 命令 requestParams 中的 zoneName
+     * @return 组合响应，data 为每一步的执行结果
+     */
+    private ResponseResult<List<PortRuleTransaction.StepResult>> handleTransaction(
+            List<PortRuleTransaction.PortRuleOperation> operations, String defaultZone) {
+        PortRuleTransaction.TransactionResult transactionResult = new PortRuleTransaction(portRuleService)
+                .execute(operations, defaultZone);
+        ruleSetFingerprints.invalidateAll();
+        if (!transactionResult.isCommitted()) {
+            logger.error("多操作命令执行失败：{}", transactionResult.getMessage());
+            return ResponseResult.fail(transactionResult.getSteps(), transactionResult.getMessage());
+        }
+
+        if (firewallType.equals(FireWallType.FIREWALLD)) {
+            try {
+                WallUtil.reloadFirewall(FireWallType.FIREWALLD);
             } catch (FirewallException e) {
                 throw new RuntimeException(e);
             }
+            logger.info("{} 个操作执行完成，重启防火墙 {} 成功", operations.size(), FireWallType.FIREWALLD);
         }
+        ResponseResult<List<PortRuleTransaction.StepResult>> result = ResponseResult.success(transactionResult.getSteps());
+        result.setMessage(transactionResult.getMessage());
+        return result;
+    }
 
+    /**
+     * 手动触发心跳（OPTIONS）不是只读命令，但和防火墙控制类命令一样优先执行；
+     * 只读判断使用默认实现（dataOpType 为 QUERY），只需读取 dataOpType 字段，不需要解析整条命令
+     */
+    @Override
+    public CommandPriority priority(StreamEntry streamEntry) {
+        if ("OPTIONS".equals(streamEntry.getFields().get("dataOpType"))) {
+            return CommandPriority.CONTROL;
+        }
+        return StreamEntryHandler.super.priority(streamEntry);
+    }
 
+    private HeartBeat heartBeat() {
+        if (heartBeat == null) {
+            heartBeat = new HeartBeat();
+        }
+        return heartBeat;
     }
 
     /**
@@ -238,31 +306,6 @@ public class FirewallOpAdapter implements Runnable {
         return map;
     }
 
-    /**
-     * 当成功消费 agentId:sub （比如 001:sub）后，发布消息到agentId:pub（比如 001:pub）。作为master节点发布命令后，agent节点对master节点的响应，master节点需要去
-     * 读取指定的streamKey，过滤出entryID对应的响应
-     *
-     * @param jedis         jedis链接
-     * @param streamKey     目标streamkey
-     * @param entryID       需要发布的StreamEntry的entryId
-     * @param consumeResult 消费 agentId:sub 的结果，可以看作一个响应
-     * @return
-     */
-    private static StreamEntryID publishMessges(Jedis jedis, String streamKey, StreamEntryID entryID, ResponseResult<List<PortRule>> consumeResult) {
-        //  1.  发布消息时如何指定 entryID 完成，
-        //  2. agent向master注册时需要设计agent_Id的生成规则 完成，
-        //  3. master的对于agent响应的数据是否需要持久化，需要，比如请求全部的端口规则
-        //  master获取 agentId:pub 流数据逻辑 master发布命令后去读取指定的steam即可获取 响应，可以考虑重复读取减少网络波动影响
-        //  5. 多参数查询需要支持 isUsing 和policy 完成
-        StreamProducer producer = new StreamProducer(jedis, streamKey);
-        // 转化为map
-        Map<String, String> data = ResponseResult.convertResponseResultToMap(consumeResult);
-        // 向streamKey中添加数据，指定entryId为消费master节点时的StreamEntryID
-        StreamEntryID streamEntryID = producer.publishMessage(data, entryID);
-        producer.close();
-        return streamEntryID;
-    }
-
     /**
      * 判断端口规则的操作类型，对应 接口cn.hedeoer.firewalld.op.PortRuleService下的方法
      *
@@ -311,6 +354,8 @@ public class FirewallOpAdapter implements Runnable {
             portRuleOpType = PortRuleOpType.UPDATE_ONE_PORTRULE;
         } else if (dataOpType.equals("OPTIONS")) {
             portRuleOpType = PortRuleOpType.OPTIONS;
+        } else if (dataOpType.equals("TRANSACTION")) {
+            portRuleOpType = PortRuleOpType.TRANSACTION;
         }
 
         return portRuleOpType;
@@ -321,15 +366,30 @@ public class FirewallOpAdapter implements Runnable {
      * 端口规则操作类型
      */
     private enum PortRuleOpType {
-        QUERY_ALL_PORTRULE,
+        QUERY_ALL_PORTRULE(false),
         //        QUERY_PORTRULES_BY_USINGSTATUS,
 //        QUERY_PORTRULES_BY_POLICY,
-        QUERY_PORTRULES_BY_POLICY_AND_USINGSTATUS,
-        ADDORREMOVE_ONE_PORTRULE,
-        ADDORREMOVE_BATCH_PORTRULES,
-        UPDATE_ONE_PORTRULE,
-        // 手动发送心跳
-        OPTIONS;
+        QUERY_PORTRULES_BY_POLICY_AND_USINGSTATUS(false),
+        ADDORREMOVE_ONE_PORTRULE(true),
+        ADDORREMOVE_BATCH_PORTRULES(true),
+        UPDATE_ONE_PORTRULE(true),
+        // 一条命令中按顺序执行多个新增、删除、更新操作
+        TRANSACTION(true),
+        // 手动发送心跳，有副作用但不修改防火墙规则
+        OPTIONS(false);
+
+        /**
+         * 是否修改防火墙规则，修改后需要使规则指纹失效并重新加载防火墙
+         */
+        private final boolean modifyRules;
+
+        PortRuleOpType(boolean modifyRules) {
+            this.modifyRules = modifyRules;
+        }
+
+        public boolean isModifyRules() {
+            return modifyRules;
+        }
     }
 
     @NoArgsConstructor
@@ -354,6 +414,11 @@ public class FirewallOpAdapter implements Runnable {
         private List<PortRule> data;
 
         private PortRule old;
+
+        /**
+         * 只有 TRANSACTION 时才有值，按顺序执行的多个操作
+         */
+        private List<PortRuleTransaction.PortRuleOperation> operations;
     }
 
     /**
@@ -372,7 +437,6 @@ public class FirewallOpAdapter implements Runnable {
     public static PortRuleStreamEntry fromMap(Map<String, String> map) {
         PortRuleStreamEntry entry = null;
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
             // 非空参数
             String agentId = map.get("agentId");
             String agentComponentType = map.get("agentComponentType");
@@ -396,6 +460,13 @@ public class FirewallOpAdapter implements Runnable {
                 });
             }
 
+            // 可选参数，TRANSACTION 时的操作列表
+            List<PortRuleTransaction.PortRuleOperation> operations = new ArrayList<>();
+            if (map.containsKey("operations")) {
+                operations = objectMapper.readValue(map.get("operations"), new TypeReference<List<PortRuleTransaction.PortRuleOperation>>() {
+                });
+            }
+
             // 可选参数
             PortRule old = new PortRule();
             if (map.containsKey("old")) {
@@ -413,6 +484,7 @@ public class FirewallOpAdapter implements Runnable {
                     .primaryKeyColumns(primaryKeyColumns)
                     .data(data)
                     .old(old)
+                    .operations(operations)
                     .build();
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
@@ -4,11 +4,10 @@ package cn.hedeoer.subscribe.streamadapter;
 import cn.hedeoer.common.enmu.FirewallOperationType;
 import cn.hedeoer.common.entity.ResponseResult;
 import cn.hedeoer.pojo.FirewallStatusInfo;
-import cn.hedeoer.subscribe.StreamConsumer;
-import cn.hedeoer.subscribe.StreamProducer;
-import cn.hedeoer.util.AgentIdUtil;
+import cn.hedeoer.subscribe.CommandPriority;
+import cn.hedeoer.subscribe.StreamDispatcher;
+import cn.hedeoer.subscribe.StreamEntryHandler;
 import cn.hedeoer.util.PingControlUtil;
-import cn.hedeoer.util.RedisUtil;
 import cn.hedeoer.util.WallUtil;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -20,115 +19,111 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.StreamEntryID;
-import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.resps.StreamEntry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
  * 防火墙状态处理适配逻辑
  */
-public class FirewallStatusInfoAdapter implements Runnable {
+public class FirewallStatusInfoAdapter implements Runnable, StreamEntryHandler {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 
     @Override
     public void run() {
+        // 单独运行时只读取 pub:agentId:firewallStatusInfo 一个stream
+        new StreamDispatcher(Collections.singletonList(this)).run();
+    }
 
-        // 获取agent节点的唯一标识
-        String agentId = AgentIdUtil.loadOrCreateUUID();
-        String subStreamKey = "sub:" + agentId + ":firewallStatusInfo";
-        String groupName = "firewall_" + subStreamKey + "_group";
-        String consumerName = groupName + "_consumer";
-        String pubStreamKey = "pub:" + agentId + ":firewallStatusInfo";
+    @Override
+    public String streamType() {
+        return "firewallStatusInfo";
+    }
 
-        while (true) {
-            try (Jedis jedis = RedisUtil.getJedis()) {
-                // 消费流的结果封装
-                ResponseResult<List<FirewallStatusInfo>> consumeResult = ResponseResult.success();
+    /**
+     * 启动、停止、重启防火墙以及禁用/启用ping 是控制类命令，优先于排队中的端口规则修改执行
+     */
+    @Override
+    public CommandPriority priority(StreamEntry streamEntry) {
+        FirewallOperationType operationType = judgeFireWallStatusInfoOPType(fromMap(streamEntry.getFields()));
+        if (operationType != null && operationType != FirewallOperationType.QUERY) {
+            return CommandPriority.CONTROL;
+        }
+        return StreamEntryHandler.super.priority(streamEntry);
+    }
 
-                StreamConsumer consumer = new StreamConsumer(jedis, pubStreamKey, groupName, consumerName);
+    @Override
+    public ResponseResult<?> handle(StreamEntry streamEntry) {
+        // 消费流的结果封装
+        ResponseResult<List<FirewallStatusInfo>> consumeResult = ResponseResult.success();
+
+        // 转化 streamEntry的fields为java对象
+        FirewallStatusInfoAdapter.FireWallStatusInfoStreamEntry fireWallStatusInfoStreamEntry = fromMap(streamEntry.getFields());
+
+        // 判断此次端口规则操作的类型（PortInfoOpType枚举）
+        FirewallOperationType fireWallStatusOpType = judgeFireWallStatusInfoOPType(fireWallStatusInfoStreamEntry);
+        if (fireWallStatusOpType == null) {
+            logger.error("不匹配任何规定的防火墙状态操作，dataOpType：{}", fireWallStatusInfoStreamEntry.getDataOpType());
+            return ResponseResult.fail(null, "不支持的防火墙状态操作：" + fireWallStatusInfoStreamEntry.getDataOpType());
+        }
 
-                //本次循环消费消息时最多阻塞1秒
-                List<StreamEntry> streamEntries = consumer.consumeNewMessages(1, 4000);
-                if (streamEntries.isEmpty()) {
-                    continue;
+        logger.info("将进行 {} 操作", fireWallStatusOpType.name());
+
+        List<FirewallStatusInfo> firewallStatusInfos = new ArrayList<>();
+        switch (fireWallStatusOpType) {
+            case QUERY:
+                firewallStatusInfos = List.of(WallUtil.getFirewallStatusInfo());
+                break;
+            case RESTART:
+                // 重启防火墙
+                Boolean isRestartDone =  WallUtil.operateFireWall(fireWallStatusOpType);
+                if (!isRestartDone) {
+                    consumeResult = ResponseResult.fail(firewallStatusInfos,"重启防火墙失败");
+                    break;
                 }
-                StreamEntry streamEntry = streamEntries.get(0);
-
-                // 转化 streamEntry的fields为java对象
-                FirewallStatusInfoAdapter.FireWallStatusInfoStreamEntry fireWallStatusInfoStreamEntry = fromMap(streamEntry.getFields());
-
-                // 判断此次端口规则操作的类型（PortInfoOpType枚举）
-                FirewallOperationType fireWallStatusOpType = judgeFireWallStatusInfoOPType(fireWallStatusInfoStreamEntry);
-
-                logger.info("将进行 {} 操作", fireWallStatusOpType.name());
-
-                List<FirewallStatusInfo> firewallStatusInfos = new ArrayList<>();
-                switch (fireWallStatusOpType) {
-                    case QUERY:
-                        firewallStatusInfos = List.of(WallUtil.getFirewallStatusInfo());
-                        break;
-                    case RESTART:
-                        // 重启防火墙
-                        Boolean isRestartDone =  WallUtil.operateFireWall(fireWallStatusOpType);
-                        if (!isRestartDone) {
-                            consumeResult = ResponseResult.fail(firewallStatusInfos,"重启防火墙失败");
-                            break;
-                        }
-                        break;
-                    case START:
-                        // 启动防火墙
-                        Boolean isStartDone =  WallUtil.operateFireWall(fireWallStatusOpType);
-                        if (!isStartDone) {
-                            consumeResult = ResponseResult.fail(firewallStatusInfos,"启动防火墙失败");
-                            break;
-                        }
-                        break;
-                    case STOP:
-                        // 关闭防火墙
-                        Boolean isStopDone =  WallUtil.operateFireWall(fireWallStatusOpType);
-                        if (!isStopDone) {
-                            consumeResult = ResponseResult.fail(firewallStatusInfos,"关闭防火墙失败");
-                            break;
-                        }
-                        break;
-                    case BLOCKPING:
-                        // 禁止ping
-                        Boolean isBlockDone =  PingControlUtil.disablePing();
-                        if (!isBlockDone) {
-                            consumeResult = ResponseResult.fail(firewallStatusInfos,"禁止外部系统ping失败");
-                            break;
-                        }
-                        break;
-                    case UNBLOCKPING:
-                        // 启用ping
-                        Boolean isUnBlockDone = PingControlUtil.enablePing();
-                        if (!isUnBlockDone) {
-                            consumeResult = ResponseResult.fail(firewallStatusInfos,"启用外部系统ping失败");
-                            break;
-                        }
-                        break;
-                    default:
-                        logger.error("不匹配任何规定的防火墙状态操作，{}", fireWallStatusOpType);
+                break;
+            case START:
+                // 启动防火墙
+                Boolean isStartDone =  WallUtil.operateFireWall(fireWallStatusOpType);
+                if (!isStartDone) {
+                    consumeResult = ResponseResult.fail(firewallStatusInfos,"启动防火墙失败");
+                    break;
                 }
-
-                consumeResult.setData(firewallStatusInfos);
-
-                // 确认消息处理完成
-                StreamEntryID entryID = streamEntry.getID();
-
-                // 发布数据到 stream key （pub:001:firewallStatusInfo）
-                publishMessges(jedis, subStreamKey, entryID, consumeResult);
-                jedis.xack(pubStreamKey, groupName, entryID);
-                logger.info("agent节点：{} 向 streamKey为：{} 的stream发布 StreamEntryID：{}的消息作为响应成功", agentId, subStreamKey, entryID);
-
-            }
+                break;
+            case STOP:
+                // 关闭防火墙
+                Boolean isStopDone =  WallUtil.operateFireWall(fireWallStatusOpType);
+                if (!isStopDone) {
+                    consumeResult = ResponseResult.fail(firewallStatusInfos,"关闭防火墙失败");
+                    break;
+                }
+                break;
+            case BLOCKPING:
+                // 禁止ping
+                Boolean isBlockDone =  PingControlUtil.disablePing();
+                if (!isBlockDone) {
+                    consumeResult = ResponseResult.fail(firewallStatusInfos,"禁止外部系统ping失败");
+                    break;
+                }
+                break;
+            case UNBLOCKPING:
+                // 启用ping
+                Boolean isUnBlockDone = PingControlUtil.enablePing();
+                if (!isUnBlockDone) {
+                    consumeResult = ResponseResult.fail(firewallStatusInfos,"启用外部系统ping失败");
+                    break;
+                }
+                break;
+            default:
+                logger.error("不匹配任何规定的防火墙状态操作，{}", fireWallStatusOpType);
         }
+
+        consumeResult.setData(firewallStatusInfos);
+        return consumeResult;
     }
 
     /**
@@ -283,23 +278,5 @@ public class FirewallStatusInfoAdapter implements Runnable {
         return fireWallStatusOpType;
     }
 
-    private static void publishMessges(Jedis jedis, String streamKey, StreamEntryID entryID, ResponseResult<List<FirewallStatusInfo>> consumeResult) {
-        // 检查连接是否有效
-        if (!"PONG".equals(jedis.ping())) {
-            throw new JedisConnectionException("Redis连接无效");
-        }
-        //  1.  发布消息时如何指定 entryID 完成，
-        //  2. agent向master注册时需要设计agent_Id的生成规则 完成，
-        //  3. master的对于agent响应的数据是否需要持久化，需要，比如请求全部的端口规则
-        //  master获取 agentId:pub 流数据逻辑 master发布命令后去读取指定的steam即可获取 响应，可以考虑重复读取减少网络波动影响
-        //  5. 多参数查询需要支持 isUsing 和policy 完成
-        StreamProducer producer = new StreamProducer(jedis, streamKey);
-        // 转化为map
-        Map<String, String> data = ResponseResult.convertResponseResultToMap(consumeResult);
-        // 向streamKey中添加数据，指定entryId为消费master节点时的StreamEntryID
-        producer.publishMessage(data, entryID);
-        producer.close();
-    }
-
 
 }
@@ -0,0 +1,260 @@
+package cn.hedeoer.subscribe.streamadapter;
+
+import cn.hedeoer.common.entity.PortRule;
+import cn.hedeoer.firewall.PortRuleService;
+import cn.hedeoer.firewall.firewalld.exception.FirewallException;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 一条命令中按顺序执行多个端口规则操作（跨多个zone的新增、删除、更新）
+ * <p>
+ * 批量新增和删除拆分为逐条规则执行，每条规则执行成功后记录它的逆操作；某一步失败时，按相反顺序执行已完成步骤的逆操作，
+ * 回滚到执行前的状态。新增和删除互为逆操作，更新的逆操作是把新规则更新回旧规则。
+ * 防火墙的重新加载由调用方在全部步骤成功后执行一次
+ */
+public class PortRuleTransaction {
+
+    private static final Logger logger = LoggerFactory.getLogger(PortRuleTransaction.class);
+
+    private final PortRuleService portRuleService;
+
+    public PortRuleTransaction(PortRuleService portRuleService) {
+        this.portRuleService = portRuleService;
+    }
+
+    /**
+     * 按顺序执行全部操作，任何一步失败时回滚已执行的步骤
+     *
+     * @param operations  按顺序排列的操作
+     * @param defaultZone 操作和规则都没有指定zone时使用的zone
+     * @return 执行结果
+     */
+    public TransactionResult execute(List<PortRuleOperation> operations, String defaultZone) {
+        List<StepResult> steps = new ArrayList<>();
+        String invalid = validate(operations);
+        if (invalid != null) {
+            return new TransactionResult(false, invalid, steps);
+        }
+
+        Deque<Undo> undoLog = new ArrayDeque<>();
+        for (int i = 0; i < operations.size(); i++) {
+            PortRuleOperation operation = operations.get(i);
+            String dataOpType = operation.getDataOpType().toUpperCase();
+            StepResult step = StepResult.builder().index(i).dataOpType(dataOpType).zoneName(zoneOf(operation, defaultZone)).build();
+            steps.add(step);
+
+            int undoBefore = undoLog.size();
+            String error = apply(operation, defaultZone, undoLog);
+            if (error == null) {
+                step.setApplied(true);
+                continue;
+            }
+
+            step.setApplied(false);
+            step.setMessage(error);
+            // 批量操作中途失败时，本步骤已执行的规则和之前的步骤一起回滚
+            boolean partiallyApplied = undoLog.size() > undoBefore;
+            boolean rolledBack = rollback(undoLog);
+            for (int j = 0; j < i; j++) {
+                steps.get(j).setRolledBack(rolledBack);
+            }
+            if (partiallyApplied) {
+                step.setRolledBack(rolledBack);
+            }
+            String message = "第 " + (i + 1) + " 步 " + dataOpType + " 失败：" + error
+                    + (rolledBack ? "，已回滚之前的 " + i + " 步" + (partiallyApplied ? "和本步已执行的规则" : "")
+                    : "，回滚已执行的规则时出错，防火墙规则可能不完整");
+            return new TransactionResult(false, message, steps);
+        }
+        return new TransactionResult(true, "全部 " + operations.size() + " 步执行成功", steps);
+    }
+
+    /**
+     * 执行一个操作，每条规则执行成功后把逆操作压入 undoLog
+     *
+     * @return 失败原因，成功时返回 null
+     */
+    private String apply(PortRuleOperation operation, String defaultZone, Deque<Undo> undoLog) {
+        String dataOpType = operation.getDataOpType().toUpperCase();
+        try {
+            if ("UPDATE".equals(dataOpType)) {
+                String zone = zoneOf(operation, defaultZone);
+                PortRule old = operation.getOld();
+                PortRule target = operation.getData().get(0);
+                if (!Boolean.TRUE.equals(portRuleService.updateOnePortRule(zone, old, target))) {
+                    return "无法更新端口规则";
+                }
+                undoLog.push(() -> portRuleService.updateOnePortRule(zone, target, old));
+                return null;
+            }
+
+            String operationName = dataOpType.toLowerCase();
+            String inverseName = "INSERT".equals(dataOpType) ? "delete" : "insert";
+            for (PortRule rule : operation.getData()) {
+                String zone = operation.getZoneName() != null ? operation.getZoneName()
+                        : rule.getZone() != null ? rule.getZone() : defaultZone;
+                if (!Boolean.TRUE.equals(portRuleService.addOrRemoveOnePortRule(zone, rule, operationName))) {
+                    return "无法" + dataOpType + "端口规则：" + rule.getPort() + "/" + rule.getProtocol();
+                }
+                undoLog.push(() -> portRuleService.addOrRemoveOnePortRule(zone, rule, inverseName));
+            }
+            return null;
+        } catch (FirewallException | RuntimeException e) {
+            logger.error("执行端口规则操作 {} 出错", dataOpType, e);
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 按相反顺序执行逆操作
+     *
+     * @return 全部逆操作都成功时返回 true
+     */
+    private boolean rollback(Deque<Undo> undoLog) {
+        boolean success = true;
+        while (!undoLog.isEmpty()) {
+            Undo undo = undoLog.pop();
+            try {
+                if (!Boolean.TRUE.equals(undo.apply())) {
+                    success = false;
+                }
+            } catch (FirewallException | RuntimeException e) {
+                logger.error("回滚端口规则操作出错", e);
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * 执行前检查全部操作，任何一个操作不合法时都不执行
+     *
+     * @return 不合法的原因，全部合法时返回 null
+     */
+    private static String validate(List<PortRuleOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            return "operations 为空";
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            PortRuleOperation operation = operations.get(i);
+            String dataOpType = operation.getDataOpType() == null ? "" : operation.getDataOpType().toUpperCase();
+            List<PortRule> data = operation.getData();
+            switch (dataOpType) {
+                case "INSERT":
+                case "DELETE":
+                    if (data == null || data.isEmpty()) {
+                        return "第 " + (i + 1) + " 步 " + dataOpType + " 缺少 data";
+                    }
+                    break;
+                case "UPDATE":
+                    if (data == null || data.size() != 1 || operation.getOld() == null) {
+                        return "第 " + (i + 1) + " 步 UPDATE 需要 old 和一条 data";
+                    }
+                    break;
+                default:
+                    return "第 " + (i + 1) + " 步不支持的操作：" + operation.getDataOpType();
+            }
+        }
+        return null;
+    }
+
+    private static String zoneOf(PortRuleOperation operation, String defaultZone) {
+        if (operation.getZoneName() != null) {
+            return operation.getZoneName();
+        }
+        List<PortRule> data = operation.getData();
+        if (data != null && !data.isEmpty() && data.get(0).getZone() != null) {
+            return data.get(0).getZone();
+        }
+        return defaultZone;
+    }
+
+    /**
+     * 一条规则的逆操作
+     */
+    @FunctionalInterface
+    private interface Undo {
+        Boolean apply() throws FirewallException;
+    }
+
+    /**
+     * 事务中的一个操作
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @Builder
+    public static class PortRuleOperation {
+
+        /**
+         * INSERT，DELETE 或 UPDATE
+         */
+        private String dataOpType;
+
+        /**
+         * 可选，未指定时使用规则自身的zone，再没有时使用命令 requestParams 中的 zoneName
+         */
+        private String zoneName;
+
+        private List<PortRule> data;
+
+        /**
+         * 只有 UPDATE 时需要
+         */
+        private PortRule old;
+    }
+
+    /**
+     * 一个操作的执行结果，作为组合响应的 data 返回给master节点
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    @Builder
+    public static class StepResult {
+
+        private int index;
+
+        private String dataOpType;
+
+        private String zoneName;
+
+        private boolean applied;
+
+        /**
+         * 该步骤已执行的规则是否已回滚（后续步骤失败，或批量操作中途失败），没有需要回滚的规则时为 null
+         */
+        private Boolean rolledBack;
+
+        private String message;
+    }
+
+    /**
+     * 整个事务的执行结果
+     */
+    @Data
+    @AllArgsConstructor
+    public static class TransactionResult {
+
+        /**
+         * 全部步骤是否都执行成功
+         */
+        private boolean committed;
+
+        private String message;
+
+        private List<StepResult> steps;
+    }
+}
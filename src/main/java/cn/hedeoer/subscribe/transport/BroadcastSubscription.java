@@ -0,0 +1,23 @@
+package cn.hedeoer.subscribe.transport;
+
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对一组广播命令stream（broadcast:label:streamType）的订阅，由 {@link MessageTransport#subscribeBroadcast} 创建并长期复用
+ * <p>
+ * 广播stream由所有匹配标签的agent节点共同读取，不使用消费者组，也不需要确认；每个agent节点自己记录读取进度
+ */
+public interface BroadcastSubscription {
+
+    /**
+     * 读取上一次读取之后的新广播命令，没有新命令时最多阻塞 blockMillis 毫秒
+     *
+     * @param count       每个stream最多读取的条数
+     * @param blockMillis 最长阻塞时间（毫秒）
+     * @return 广播streamKey -> 按stream顺序排列的命令，没有新命令时为空
+     */
+    Map<String, List<StreamEntry>> read(int count, int blockMillis);
+}
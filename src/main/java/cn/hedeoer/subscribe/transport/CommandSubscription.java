@@ -0,0 +1,47 @@
+package cn.hedeoer.subscribe.transport;
+
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 以消费者组的方式对一组命令stream的订阅，由 {@link MessageTransport#subscribe} 创建并长期复用
+ */
+public interface CommandSubscription {
+
+    /**
+     * @return 订阅的命令streamKey
+     */
+    List<String> getStreamKeys();
+
+    /**
+     * 读取新命令，没有新命令时最多阻塞 blockMillis 毫秒
+     *
+     * @param count       每个stream最多读取的条数
+     * @param blockMillis 最长阻塞时间（毫秒）
+     * @return 命令streamKey -> 按stream顺序排列的命令，没有新命令时为空
+     */
+    Map<String, List<StreamEntry>> consume(int count, int blockMillis);
+
+    /**
+     * 从游标开始认领空闲超过 minIdleMillis 毫秒的待确认命令
+     *
+     * @param streamKey     命令streamKey
+     * @param cursor        游标，首次为 0-0
+     * @param minIdleMillis 最小空闲时间（毫秒）
+     * @param count         最多认领的条数
+     * @return 下一次认领的游标（0-0 表示已扫描完） -> 认领到的命令，已从stream中删除的命令 fields 为 null
+     */
+    Map.Entry<StreamEntryID, List<StreamEntry>> claimPending(String streamKey, StreamEntryID cursor,
+                                                             long minIdleMillis, int count);
+
+    /**
+     * 确认命令
+     *
+     * @param streamKey 命令streamKey
+     * @param entryID   命令的 entryId
+     */
+    void ack(String streamKey, StreamEntryID entryID);
+}
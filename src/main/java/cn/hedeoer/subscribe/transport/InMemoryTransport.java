@@ -0,0 +1,404 @@
+package cn.hedeoer.subscribe.transport;
+
+import cn.hedeoer.subscribe.ReplyAckMode;
+import cn.hedeoer.subscribe.StreamProducer;
+import cn.hedeoer.subscribe.StreamRetention;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * 进程内的消息传输，按 redis stream 消费者组的语义实现：每个消费者组记录最后投递的ID和待确认列表，
+ * 读取时阻塞等待新消息，未确认的消息可以被重新认领。不涉及网络和序列化，用于单机压测整个命令处理流程
+ */
+public class InMemoryTransport implements MessageTransport {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    /**
+     * 命令streamKey -> 按ID排序的消息
+     */
+    private final Map<String, NavigableMap<StreamEntryID, Map<String, String>>> streams = new HashMap<>();
+    /**
+     * streamKey + 消费者组 -> 消费者组状态
+     */
+    private final Map<String, GroupState> groups = new HashMap<>();
+    /**
+     * 响应streamKey -> 按发布顺序排列的响应
+     */
+    private final Map<String, List<Map<byte[], byte[]>>> replies = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+    /**
+     * 一个命令的响应（全部分片）发布完成后回调，参数为响应streamKey和命令的 entryId
+     */
+    private volatile BiConsumer<String, StreamEntryID> replyListener;
+    private long lastIdMillis;
+    private long lastIdSequence;
+
+    @Override
+    public CommandSubscription subscribe(List<String> streamKeys, String groupName, String consumerName,
+                                         Map<String, String> legacyGroupNames) {
+        lock.lock();
+        try {
+            for (String streamKey : streamKeys) {
+                streams.computeIfAbsent(streamKey, key -> new TreeMap<>());
+                groups.computeIfAbsent(groupKey(streamKey, groupName), key -> new GroupState());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new InMemoryCommandSubscription(new ArrayList<>(streamKeys), groupName);
+    }
+
+    @Override
+    public BroadcastSubscription subscribeBroadcast(List<String> streamKeys, Map<String, StreamEntryID> lastSeenIds,
+                                                    String consumerName) {
+        lock.lock();
+        try {
+            Map<String, StreamEntryID> startIds = new LinkedHashMap<>();
+            for (String streamKey : streamKeys) {
+                NavigableMap<StreamEntryID, Map<String, String>> stream = streams.computeIfAbsent(streamKey, key -> new TreeMap<>());
+                StreamEntryID lastSeenId = lastSeenIds.get(streamKey);
+                startIds.put(streamKey, lastSeenId != null ? lastSeenId : stream.isEmpty() ? new StreamEntryID() : stream.lastKey());
+            }
+            return new InMemoryBroadcastSubscription(startIds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public StreamEntryID reply(String replyStreamKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                               String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+        List<Map<byte[], byte[]>> replyStream = replies.computeIfAbsent(replyStreamKey,
+                key -> Collections.synchronizedList(new ArrayList<>()));
+        for (int i = 0; i < chunks.size(); i++) {
+            Map<byte[], byte[]> chunk = new LinkedHashMap<>(chunks.get(i));
+            chunk.put(SafeEncoder.encode(StreamProducer.REQUEST_ENTRY_ID_FIELD), SafeEncoder.encode(entryID.toString()));
+            replyStream.add(chunk);
+        }
+        if (ackStreamKey != null) {
+            ack(ackStreamKey, groupName, entryID);
+        }
+
+        BiConsumer<String, StreamEntryID> listener = replyListener;
+        if (listener != null) {
+            listener.accept(replyStreamKey, entryID);
+        }
+        return entryID;
+    }
+
+    /**
+     * 直接响应和普通响应一样记录在 replies 中，进程内不模拟过期
+     */
+    @Override
+    public StreamEntryID directReply(String replyKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                     String ackStreamKey, String groupName, long ttlMillis, ReplyAckMode replyAckMode) {
+        return reply(replyKey, chunks, entryID, ackStreamKey, groupName, replyAckMode);
+    }
+
+    /**
+     * 按响应关联的命令 entryId 的时间判断是否超过 maxAgeMillis；进程内没有读取响应的消费者组，deleteReadReplies 不生效
+     */
+    @Override
+    public long trimReplies(String replyStreamKey, StreamRetention retention) {
+        List<Map<byte[], byte[]>> replyStream = replies.get(replyStreamKey);
+        if (replyStream == null) {
+            return 0;
+        }
+        long minMillis = retention.getMaxAgeMillis() > 0 ? System.currentTimeMillis() - retention.getMaxAgeMillis() : 0;
+        synchronized (replyStream) {
+            int before = replyStream.size();
+            while (!replyStream.isEmpty()) {
+                boolean expired = requestEntryId(replyStream.get(0)).getTime() < minMillis;
+                boolean overLength = retention.getMaxLen() > 0 && replyStream.size() > retention.getMaxLen();
+                if (!expired && !overLength) {
+                    break;
+                }
+                replyStream.remove(0);
+            }
+            return before - replyStream.size();
+        }
+    }
+
+    @Override
+    public StreamEntryID publish(String streamKey, Map<String, String> message) {
+        lock.lock();
+        try {
+            StreamEntryID id = nextId();
+            streams.computeIfAbsent(streamKey, key -> new TreeMap<>()).put(id, new HashMap<>(message));
+            appended.signalAll();
+            return id;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void hashReport(String key, String field, String value) {
+        hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(field, value);
+    }
+
+    @Override
+    public String hashGet(String key, String field) {
+        Map<String, String> hash = hashes.get(key);
+        return hash == null ? null : hash.get(field);
+    }
+
+    @Override
+    public String serverTimeSeconds() {
+        return String.valueOf(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    public void setReplyListener(BiConsumer<String, StreamEntryID> replyListener) {
+        this.replyListener = replyListener;
+    }
+
+    /**
+     * @param replyStreamKey 响应streamKey
+     * @return 已发布的全部响应分片，每个分片都带有 requestEntryId 字段
+     */
+    public List<Map<byte[], byte[]>> getReplies(String replyStreamKey) {
+        List<Map<byte[], byte[]>> replyStream = replies.get(replyStreamKey);
+        if (replyStream == null) {
+            return Collections.emptyList();
+        }
+        synchronized (replyStream) {
+            return new ArrayList<>(replyStream);
+        }
+    }
+
+    /**
+     * @return 消费者组中已投递但还没有确认的命令条数
+     */
+    public int getPendingCount(String streamKey, String groupName) {
+        lock.lock();
+        try {
+            GroupState group = groups.get(groupKey(streamKey, groupName));
+            return group == null ? 0 : group.pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ack(String streamKey, String groupName, StreamEntryID entryID) {
+        lock.lock();
+        try {
+            GroupState group = groups.get(groupKey(streamKey, groupName));
+            if (group != null) {
+                group.pending.remove(entryID);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 响应分片的 requestEntryId 字段，byte[] 作为 key 时只能按内容比较
+     */
+    private static StreamEntryID requestEntryId(Map<byte[], byte[]> chunk) {
+        byte[] field = SafeEncoder.encode(StreamProducer.REQUEST_ENTRY_ID_FIELD);
+        for (Map.Entry<byte[], byte[]> entry : chunk.entrySet()) {
+            if (Arrays.equals(field, entry.getKey())) {
+                return new StreamEntryID(SafeEncoder.encode(entry.getValue()));
+            }
+        }
+        return new StreamEntryID();
+    }
+
+    /**
+     * 和 redis 一样生成 毫秒时间戳-序号 形式的递增ID
+     */
+    private StreamEntryID nextId() {
+        long now = System.currentTimeMillis();
+        if (now > lastIdMillis) {
+            lastIdMillis = now;
+            lastIdSequence = 0;
+        } else {
+            lastIdSequence++;
+        }
+        return new StreamEntryID(lastIdMillis, lastIdSequence);
+    }
+
+    private static String groupKey(String streamKey, String groupName) {
+        return streamKey + "\u0000" + groupName;
+    }
+
+    /**
+     * 消费者组状态
+     */
+    private static class GroupState {
+        private StreamEntryID lastDeliveredId = new StreamEntryID();
+        /**
+         * 待确认的消息ID -> 最近一次投递的时间
+         */
+        private final NavigableMap<StreamEntryID, Long> pending = new TreeMap<>();
+    }
+
+    private class InMemoryBroadcastSubscription implements BroadcastSubscription {
+
+        /**
+         * 广播streamKey -> 已读取的最后一条消息的ID
+         */
+        private final Map<String, StreamEntryID> lastSeenIds;
+
+        InMemoryBroadcastSubscription(Map<String, StreamEntryID> lastSeenIds) {
+            this.lastSeenIds = lastSeenIds;
+        }
+
+        @Override
+        public Map<String, List<StreamEntry>> read(int count, int blockMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis);
+            lock.lock();
+            try {
+                while (true) {
+                    Map<String, List<StreamEntry>> result = readNew(count);
+                    if (!result.isEmpty()) {
+                        return result;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return result;
+                    }
+                    appended.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyMap();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Map<String, List<StreamEntry>> readNew(int count) {
+            Map<String, List<StreamEntry>> result = new LinkedHashMap<>();
+            for (Map.Entry<String, StreamEntryID> lastSeen : lastSeenIds.entrySet()) {
+                List<StreamEntry> entries = new ArrayList<>();
+                for (Map.Entry<StreamEntryID, Map<String, String>> entry
+                        : streams.get(lastSeen.getKey()).tailMap(lastSeen.getValue(), false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    entries.add(new StreamEntry(entry.getKey(), entry.getValue()));
+                }
+                if (!entries.isEmpty()) {
+                    lastSeen.setValue(entries.get(entries.size() - 1).getID());
+                    result.put(lastSeen.getKey(), entries);
+                }
+            }
+            return result;
+        }
+    }
+
+    private class InMemoryCommandSubscription implements CommandSubscription {
+
+        private final List<String> streamKeys;
+        private final String groupName;
+
+        InMemoryCommandSubscription(List<String> streamKeys, String groupName) {
+            this.streamKeys = streamKeys;
+            this.groupName = groupName;
+        }
+
+        @Override
+        public List<String> getStreamKeys() {
+            return streamKeys;
+        }
+
+        @Override
+        public Map<String, List<StreamEntry>> consume(int count, int blockMillis) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(blockMillis);
+            lock.lock();
+            try {
+                while (true) {
+                    Map<String, List<StreamEntry>> result = deliverNew(count);
+                    if (!result.isEmpty()) {
+                        return result;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return result;
+                    }
+                    appended.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Collections.emptyMap();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Map<String, List<StreamEntry>> deliverNew(int count) {
+            Map<String, List<StreamEntry>> result = new LinkedHashMap<>();
+            long now = System.currentTimeMillis();
+            for (String streamKey : streamKeys) {
+                GroupState group = groups.get(groupKey(streamKey, groupName));
+                List<StreamEntry> entries = new ArrayList<>();
+                for (Map.Entry<StreamEntryID, Map<String, String>> entry
+                        : streams.get(streamKey).tailMap(group.lastDeliveredId, false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    entries.add(new StreamEntry(entry.getKey(), entry.getValue()));
+                    group.pending.put(entry.getKey(), now);
+                    group.lastDeliveredId = entry.getKey();
+                }
+                if (!entries.isEmpty()) {
+                    result.put(streamKey, entries);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Map.Entry<StreamEntryID, List<StreamEntry>> claimPending(String streamKey, StreamEntryID cursor,
+                                                                        long minIdleMillis, int count) {
+            lock.lock();
+            try {
+                GroupState group = groups.get(groupKey(streamKey, groupName));
+                List<StreamEntry> claimed = new ArrayList<>();
+                if (group == null) {
+                    return new AbstractMap.SimpleEntry<>(new StreamEntryID(), claimed);
+                }
+                long now = System.currentTimeMillis();
+                StreamEntryID next = new StreamEntryID();
+                for (Map.Entry<StreamEntryID, Long> pending : group.pending.tailMap(cursor, true).entrySet()) {
+                    if (claimed.size() >= count) {
+                        next = pending.getKey();
+                        break;
+                    }
+                    if (now - pending.getValue() < minIdleMillis) {
+                        continue;
+                    }
+                    pending.setValue(now);
+                    claimed.add(new StreamEntry(pending.getKey(), streams.get(streamKey).get(pending.getKey())));
+                }
+                return new AbstractMap.SimpleEntry<>(next, claimed);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void ack(String streamKey, StreamEntryID entryID) {
+            InMemoryTransport.this.ack(streamKey, groupName, entryID);
+        }
+    }
+}
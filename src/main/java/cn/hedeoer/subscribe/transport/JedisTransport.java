@@ -0,0 +1,228 @@
+package cn.hedeoer.subscribe.transport;
+
+import cn.hedeoer.subscribe.ReplyAckMode;
+import cn.hedeoer.subscribe.SimpleStreamConsumer;
+import cn.hedeoer.subscribe.StreamConfig;
+import cn.hedeoer.subscribe.StreamConsumer;
+import cn.hedeoer.subscribe.StreamProducer;
+import cn.hedeoer.subscribe.StreamRetention;
+import cn.hedeoer.util.DedicatedRedisConnection;
+import cn.hedeoer.util.RedisUtil;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 基于 redis stream 和 hash 的消息传输
+ * <p>
+ * 命令stream的订阅（阻塞的 XREADGROUP、XAUTOCLAIM、XACK）使用一个长期持有的专用连接，
+ * 发布响应、上报心跳等短小的请求/响应操作从 {@link RedisUtil} 的连接池获取连接，用完归还
+ */
+public class JedisTransport implements MessageTransport {
+
+    private final StreamConfig streamConfig;
+
+    public JedisTransport() {
+        this(StreamConfig.load());
+    }
+
+    public JedisTransport(StreamConfig streamConfig) {
+        this.streamConfig = streamConfig;
+    }
+
+    @Override
+    public CommandSubscription subscribe(List<String> streamKeys, String groupName, String consumerName,
+                                         Map<String, String> legacyGroupNames) {
+        // 阻塞读取的读超时比阻塞时间多一个普通命令的超时，连接中断时阻塞读取不会永远挂起
+        DedicatedRedisConnection connection = new DedicatedRedisConnection(consumerName,
+                streamConfig.getBlockMillis() + Protocol.DEFAULT_TIMEOUT,
+                streamConfig.getHealthCheckIntervalMillis(), streamConfig.getReconnectMaxBackoffMillis());
+        try {
+            Jedis jedis = connection.get();
+            StreamConsumer consumer = new StreamConsumer(jedis, streamKeys, groupName, consumerName, legacyGroupNames);
+            return new JedisCommandSubscription(connection, jedis, consumer, groupName);
+        } catch (JedisException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public BroadcastSubscription subscribeBroadcast(List<String> streamKeys, Map<String, StreamEntryID> lastSeenIds,
+                                                    String consumerName) {
+        DedicatedRedisConnection connection = new DedicatedRedisConnection(consumerName,
+                streamConfig.getBlockMillis() + Protocol.DEFAULT_TIMEOUT,
+                streamConfig.getHealthCheckIntervalMillis(), streamConfig.getReconnectMaxBackoffMillis());
+        try {
+            Jedis jedis = connection.get();
+            Map<String, StreamEntryID> startIds = new LinkedHashMap<>();
+            for (String streamKey : streamKeys) {
+                startIds.put(streamKey, lastSeenIds.get(streamKey));
+            }
+            return new JedisBroadcastSubscription(connection, jedis, new SimpleStreamConsumer(jedis, startIds));
+        } catch (JedisException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public StreamEntryID reply(String replyStreamKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                               String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+        try (Jedis jedis = getJedis()) {
+            StreamProducer producer = new StreamProducer(jedis, replyStreamKey);
+            if (chunks.size() == 1) {
+                return producer.publishReplyAndAck(chunks.get(0), entryID, ackStreamKey, groupName, replyAckMode);
+            }
+            return producer.publishChunkedReplyAndAck(chunks, entryID, ackStreamKey, groupName, replyAckMode);
+        }
+    }
+
+    @Override
+    public StreamEntryID directReply(String replyKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                     String ackStreamKey, String groupName, long ttlMillis, ReplyAckMode replyAckMode) {
+        try (Jedis jedis = getJedis()) {
+            return new StreamProducer(jedis, replyKey)
+                    .publishDirectReplyAndAck(chunks, entryID, ackStreamKey, groupName, ttlMillis, replyAckMode);
+        }
+    }
+
+    @Override
+    public long trimReplies(String replyStreamKey, StreamRetention retention) {
+        try (Jedis jedis = getJedis()) {
+            return new StreamProducer(jedis, replyStreamKey).trim(retention);
+        }
+    }
+
+    @Override
+    public StreamEntryID publish(String streamKey, Map<String, String> message) {
+        try (Jedis jedis = getJedis()) {
+            return new StreamProducer(jedis, streamKey).publishMessage(message);
+        }
+    }
+
+    @Override
+    public void hashReport(String key, String field, String value) {
+        try (Jedis jedis = getJedis()) {
+            jedis.hset(key, field, value);
+        }
+    }
+
+    @Override
+    public String hashGet(String key, String field) {
+        try (Jedis jedis = getJedis()) {
+            return jedis.hget(key, field);
+        }
+    }
+
+    @Override
+    public String serverTimeSeconds() {
+        return RedisUtil.getRedisServerTime();
+    }
+
+    private static Jedis getJedis() {
+        Jedis jedis = RedisUtil.getJedis();
+        if (jedis == null) {
+            throw new JedisException("无法获取redis连接");
+        }
+        return jedis;
+    }
+
+    /**
+     * 长期复用同一个 {@link StreamConsumer}（消费者组只初始化一次）和同一个专用连接，
+     * 连接发生超时、阻塞断开、协议污染时关闭该连接，下一次操作重新连接并绑定到消费者
+     */
+    private static class JedisCommandSubscription implements CommandSubscription {
+
+        private final DedicatedRedisConnection connection;
+        private final StreamConsumer consumer;
+        private final String groupName;
+        private Jedis boundJedis;
+
+        JedisCommandSubscription(DedicatedRedisConnection connection, Jedis boundJedis, StreamConsumer consumer, String groupName) {
+            this.connection = connection;
+            this.boundJedis = boundJedis;
+            this.consumer = consumer;
+            this.groupName = groupName;
+        }
+
+        private <T> T withConnection(Function<Jedis, T> operation) {
+            Jedis jedis = connection.get();
+            if (jedis != boundJedis) {
+                consumer.rebind(jedis);
+                boundJedis = jedis;
+            }
+            try {
+                return operation.apply(jedis);
+            } catch (JedisDataException e) {
+                // 命令错误（比如 NOGROUP）不影响连接本身
+                throw e;
+            } catch (JedisException e) {
+                connection.invalidate();
+                throw e;
+            }
+        }
+
+        @Override
+        public List<String> getStreamKeys() {
+            return consumer.getStreamKeys();
+        }
+
+        @Override
+        public Map<String, List<StreamEntry>> consume(int count, int blockMillis) {
+            return withConnection(jedis -> consumer.consumeNewMessagesByStream(count, blockMillis));
+        }
+
+        @Override
+        public Map.Entry<StreamEntryID, List<StreamEntry>> claimPending(String streamKey, StreamEntryID cursor,
+                                                                        long minIdleMillis, int count) {
+            return withConnection(jedis -> consumer.claimPendingMessages(streamKey, cursor, minIdleMillis, count));
+        }
+
+        @Override
+        public void ack(String streamKey, StreamEntryID entryID) {
+            withConnection(jedis -> jedis.xack(streamKey, groupName, entryID));
+        }
+    }
+
+    /**
+     * 广播stream的订阅，和 {@link JedisCommandSubscription} 一样长期复用专用连接，出错时重连并绑定到读取器
+     */
+    private static class JedisBroadcastSubscription implements BroadcastSubscription {
+
+        private final DedicatedRedisConnection connection;
+        private final SimpleStreamConsumer consumer;
+        private Jedis boundJedis;
+
+        JedisBroadcastSubscription(DedicatedRedisConnection connection, Jedis boundJedis, SimpleStreamConsumer consumer) {
+            this.connection = connection;
+            this.boundJedis = boundJedis;
+            this.consumer = consumer;
+        }
+
+        @Override
+        public Map<String, List<StreamEntry>> read(int count, int blockMillis) {
+            Jedis jedis = connection.get();
+            if (jedis != boundJedis) {
+                consumer.rebind(jedis);
+                boundJedis = jedis;
+            }
+            try {
+                return consumer.readNewMessagesByStream(count, blockMillis);
+            } catch (JedisDataException e) {
+                throw e;
+            } catch (JedisException e) {
+                connection.invalidate();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package cn.hedeoer.subscribe.transport;
+
+import cn.hedeoer.subscribe.ReplyAckMode;
+import cn.hedeoer.subscribe.StreamRetention;
+import redis.clients.jedis.StreamEntryID;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * agent节点和master节点之间的消息传输：消费命令、发布响应、确认命令以及通过 hash 上报心跳和端口信息
+ * <p>
+ * 生产环境使用 {@link JedisTransport}（redis），{@link InMemoryTransport} 在进程内实现相同的语义，
+ * 用于在没有 redis 的单机上压测整个命令处理流程以及对比不同的传输实现
+ */
+public interface MessageTransport {
+
+    /**
+     * 以消费者组的方式订阅命令stream，消费者组不存在时创建
+     *
+     * @param streamKeys       命令streamKey（pub:agentId:streamType）
+     * @param groupName        消费者组
+     * @param consumerName     消费者
+     * @param legacyGroupNames 命令streamKey -> 旧版本该stream独立使用的消费者组名，用于迁移消费进度，可以为空
+     * @return 订阅
+     */
+    CommandSubscription subscribe(List<String> streamKeys, String groupName, String consumerName,
+                                  Map<String, String> legacyGroupNames);
+
+    /**
+     * 订阅广播命令stream，不使用消费者组，从每个stream指定的ID之后开始读取
+     *
+     * @param streamKeys   广播streamKey（broadcast:label:streamType）
+     * @param lastSeenIds  广播streamKey -> 已读取的最后一条命令的ID，没有时从订阅时stream中最后一条消息之后开始读取
+     * @param consumerName 读取广播的连接名
+     * @return 订阅
+     */
+    BroadcastSubscription subscribeBroadcast(List<String> streamKeys, Map<String, StreamEntryID> lastSeenIds,
+                                             String consumerName);
+
+    /**
+     * 按顺序发布一个命令的响应（一个或多个分片）并确认命令
+     *
+     * @param replyStreamKey 响应streamKey（sub:agentId:streamType）
+     * @param chunks         响应分片，只有一个分片时即为完整响应
+     * @param entryID        命令的 entryId，第一个分片使用该 entryId 发布
+     * @param ackStreamKey   命令所在的 streamKey，为 null 时不确认（广播命令）
+     * @param groupName      消费命令的消费者组
+     * @param replyAckMode   发布响应和确认命令的方式
+     * @return 第一个分片实际使用的 entryId
+     */
+    StreamEntryID reply(String replyStreamKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                        String ackStreamKey, String groupName, ReplyAckMode replyAckMode);
+
+    /**
+     * 将一个命令的响应（一个或多个分片）发布到命令指定的直接响应key，设置过期时间并确认命令
+     *
+     * @param replyKey     命令 replyTo 字段指定的直接响应key
+     * @param chunks       响应分片
+     * @param entryID      命令的 entryId，写入每个分片的 requestEntryId 字段
+     * @param ackStreamKey 命令所在的 streamKey，为 null 时不确认（广播命令）
+     * @param groupName    消费命令的消费者组
+     * @param ttlMillis    直接响应key的过期时间（毫秒）
+     * @param replyAckMode 发布响应和确认命令的方式
+     * @return 第一个分片的 entryId
+     */
+    StreamEntryID directReply(String replyKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                              String ackStreamKey, String groupName, long ttlMillis, ReplyAckMode replyAckMode);
+
+    /**
+     * 按保留策略裁剪agent节点写入的stream（响应stream、指标stream）
+     *
+     * @param replyStreamKey 响应streamKey（sub:agentId:streamType）或指标streamKey（metrics:agentId）
+     * @param retention      保留策略
+     * @return 删除的响应条数
+     */
+    long trimReplies(String replyStreamKey, StreamRetention retention);
+
+    /**
+     * 发布一条消息（master节点发布命令的方式，压测时模拟master节点）
+     *
+     * @param streamKey streamKey
+     * @param message   消息内容
+     * @return 消息的 entryId
+     */
+    StreamEntryID publish(String streamKey, Map<String, String> message);
+
+    /**
+     * 向 hash 表上报数据
+     *
+     * @param key   hash 表名，比如 firewall:heartbeats
+     * @param field 字段，通常为 agentId
+     * @param value 上报的内容
+     */
+    void hashReport(String key, String field, String value);
+
+    /**
+     * 读取 hash 表中的数据
+     *
+     * @param key   hash 表名
+     * @param field 字段
+     * @return 不存在时返回 null
+     */
+    String hashGet(String key, String field);
+
+    /**
+     * 传输服务端的当前时间，避免集群中服务器时间不同步导致心跳状态判断出错
+     *
+     * @return 秒级时间戳
+     */
+    String serverTimeSeconds();
+}
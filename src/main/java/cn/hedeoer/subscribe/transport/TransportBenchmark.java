@@ -0,0 +1,204 @@
+package cn.hedeoer.subscribe.transport;
+
+import ch.qos.logback.classic.Level;
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.ReplyAckMode;
+import cn.hedeoer.subscribe.StreamRetention;
+import cn.hedeoer.subscribe.StreamConfig;
+import cn.hedeoer.subscribe.StreamDispatcher;
+import cn.hedeoer.subscribe.StreamEntryHandler;
+import cn.hedeoer.util.AgentIdUtil;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 整个命令处理流程（读取、排队、执行、编码、发布响应、确认）的吞吐量和延迟压测
+ * <p>
+ * 用法：java -cp agent.jar cn.hedeoer.subscribe.transport.TransportBenchmark [memory|redis] [命令条数] [每条命令耗时毫秒] [查询占比]
+ * <ul>
+ *     <li>memory：进程内传输，不需要 redis，测量 agent 节点自身的处理开销</li>
+ *     <li>redis：使用 application.yaml 中配置的 redis，和 memory 的结果对比即为传输的开销</li>
+ * </ul>
+ * 命令由一个不执行防火墙操作的处理器处理，只模拟指定的耗时；延迟为命令发布到响应发布完成的时间
+ */
+public class TransportBenchmark {
+
+    private static final String STREAM_TYPE = "benchmark";
+
+    public static void main(String[] args) throws InterruptedException {
+        String transportName = args.length > 0 ? args[0] : "memory";
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long handlerMillis = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double queryRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+
+        // 逐条命令的 info 日志会成为瓶颈
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("cn.hedeoer")).setLevel(Level.WARN);
+
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        String pubStreamKey = "pub:" + agentId + ":" + STREAM_TYPE;
+        // 发布命令和记录响应都持有 publishedAt 的锁，响应不会早于发布时间被记录
+        Map<StreamEntryID, Long> publishedAt = new HashMap<>();
+        long[] latencies = new long[commands];
+        AtomicInteger finishedCount = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(commands);
+
+        MessageTransport target = "redis".equalsIgnoreCase(transportName) ? new JedisTransport() : new InMemoryTransport();
+        MessageTransport transport = new TimedTransport(target, entryID -> {
+            synchronized (publishedAt) {
+                Long publishStart = publishedAt.remove(entryID);
+                if (publishStart != null) {
+                    latencies[finishedCount.getAndIncrement()] = System.nanoTime() - publishStart;
+                    done.countDown();
+                }
+            }
+        });
+
+        StreamConfig streamConfig = StreamConfig.builder()
+                .blockMillis(100)
+                .idempotencyCacheSize(0)
+                .replyAckMode(ReplyAckMode.PIPELINE)
+                .build();
+        StreamDispatcher dispatcher = new StreamDispatcher(
+                Collections.singletonList(new SleepingHandler(handlerMillis)), streamConfig, transport);
+        Thread dispatcherThread = new Thread(dispatcher, "benchmark-dispatcher");
+        dispatcherThread.start();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < commands; i++) {
+            Map<String, String> command = new HashMap<>();
+            command.put("agentId", agentId);
+            command.put("dataOpType", i < commands * queryRatio ? "QUERY" : "UPDATE");
+            command.put("seq", String.valueOf(i));
+            synchronized (publishedAt) {
+                long publishStart = System.nanoTime();
+                publishedAt.put(target.publish(pubStreamKey, command), publishStart);
+            }
+        }
+        boolean completed = done.await(10, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+        dispatcherThread.interrupt();
+
+        int finished = finishedCount.get();
+        long[] sorted = Arrays.copyOf(latencies, finished);
+        Arrays.sort(sorted);
+        System.out.printf("transport=%s commands=%d handlerMillis=%d queryRatio=%.2f completed=%s%n",
+                transportName, commands, handlerMillis, queryRatio, completed);
+        System.out.printf("throughput=%.0f commands/s%n", finished / (elapsed / 1e9));
+        if (finished > 0) {
+            System.out.printf("latency p50=%.3fms p99=%.3fms max=%.3fms%n",
+                    percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[finished - 1] / 1e6);
+        }
+        System.exit(0);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    /**
+     * 模拟耗时的处理器，QUERY 为只读命令
+     */
+    private static class SleepingHandler implements StreamEntryHandler {
+        private final long handlerMillis;
+
+        SleepingHandler(long handlerMillis) {
+            this.handlerMillis = handlerMillis;
+        }
+
+        @Override
+        public String streamType() {
+            return STREAM_TYPE;
+        }
+
+        @Override
+        public ResponseResult<?> handle(StreamEntry streamEntry) {
+            if (handlerMillis > 0) {
+                try {
+                    Thread.sleep(handlerMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return ResponseResult.success(List.of(streamEntry.getFields().get("seq")));
+        }
+    }
+
+    /**
+     * 响应发布完成后记录完成时间的传输
+     */
+    private static class TimedTransport implements MessageTransport {
+        private final MessageTransport delegate;
+        private final Consumer<StreamEntryID> onReplied;
+
+        TimedTransport(MessageTransport delegate, Consumer<StreamEntryID> onReplied) {
+            this.delegate = delegate;
+            this.onReplied = onReplied;
+        }
+
+        @Override
+        public CommandSubscription subscribe(List<String> streamKeys, String groupName, String consumerName,
+                                             Map<String, String> legacyGroupNames) {
+            return delegate.subscribe(streamKeys, groupName, consumerName, legacyGroupNames);
+        }
+
+        @Override
+        public BroadcastSubscription subscribeBroadcast(List<String> streamKeys, Map<String, StreamEntryID> lastSeenIds,
+                                                        String consumerName) {
+            return delegate.subscribeBroadcast(streamKeys, lastSeenIds, consumerName);
+        }
+
+        @Override
+        public StreamEntryID reply(String replyStreamKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                   String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+            StreamEntryID id = delegate.reply(replyStreamKey, chunks, entryID, ackStreamKey, groupName, replyAckMode);
+            onReplied.accept(entryID);
+            return id;
+        }
+
+        @Override
+        public StreamEntryID directReply(String replyKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                         String ackStreamKey, String groupName, long ttlMillis,
+                                         ReplyAckMode replyAckMode) {
+            StreamEntryID id = delegate.directReply(replyKey, chunks, entryID, ackStreamKey, groupName, ttlMillis,
+                    replyAckMode);
+            onReplied.accept(entryID);
+            return id;
+        }
+
+        @Override
+        public long trimReplies(String replyStreamKey, StreamRetention retention) {
+            return delegate.trimReplies(replyStreamKey, retention);
+        }
+
+        @Override
+        public StreamEntryID publish(String streamKey, Map<String, String> message) {
+            return delegate.publish(streamKey, message);
+        }
+
+        @Override
+        public void hashReport(String key, String field, String value) {
+            delegate.hashReport(key, field, value);
+        }
+
+        @Override
+        public String hashGet(String key, String field) {
+            return delegate.hashGet(key, field);
+        }
+
+        @Override
+        public String serverTimeSeconds() {
+            return delegate.serverTimeSeconds();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.hedeoer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 长期持有的专用 redis 连接，供长时间阻塞的读取使用，连接池只用于短小的请求/响应操作
+ * <ul>
+ *     <li>首次使用时建立连接，之后一直复用，不再每次从连接池借用（借用时的 PING 和阻塞期间占用连接池都省掉了）</li>
+ *     <li>空闲超过健康检查间隔后，使用前先 PING 一次</li>
+ *     <li>连接出错时由调用者 {@link #invalidate()}，下次使用时按指数退避重新连接</li>
+ * </ul>
+ * 非线程安全，只能由一个线程使用
+ */
+public class DedicatedRedisConnection implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DedicatedRedisConnection.class);
+    private static final long MIN_RECONNECT_BACKOFF_MILLIS = 500;
+
+    private final String clientName;
+    private final int blockingSocketTimeoutMillis;
+    private final long healthCheckIntervalMillis;
+    private final long maxReconnectBackoffMillis;
+
+    private Jedis jedis;
+    /**
+     * 连接建立的次数，大于1表示发生过重连
+     */
+    private long connectCount;
+    private long lastUsedAt;
+    private long reconnectBackoffMillis = MIN_RECONNECT_BACKOFF_MILLIS;
+    private long nextConnectAt;
+
+    /**
+     * @param clientName                  连接名
+     * @param blockingSocketTimeoutMillis 阻塞命令的读超时（毫秒）
+     * @param healthCheckIntervalMillis   空闲超过该时间（毫秒）后使用前先 PING
+     * @param maxReconnectBackoffMillis   重连的最大退避时间（毫秒）
+     */
+    public DedicatedRedisConnection(String clientName, int blockingSocketTimeoutMillis,
+                                    long healthCheckIntervalMillis, long maxReconnectBackoffMillis) {
+        this.clientName = clientName;
+        this.blockingSocketTimeoutMillis = blockingSocketTimeoutMillis;
+        this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+        this.maxReconnectBackoffMillis = Math.max(MIN_RECONNECT_BACKOFF_MILLIS, maxReconnectBackoffMillis);
+    }
+
+    /**
+     * 获取可用的连接，必要时建立连接或进行健康检查
+     *
+     * @return 连接，调用者不能关闭
+     * @throws JedisConnectionException 连接失败或者还在重连的退避时间内
+     */
+    public Jedis get() {
+        long now = System.currentTimeMillis();
+        if (jedis != null && now - lastUsedAt >= healthCheckIntervalMillis) {
+            try {
+                jedis.ping();
+            } catch (JedisException e) {
+                logger.warn("专用连接 {} 健康检查失败，重新连接", clientName, e);
+                invalidate();
+            }
+        }
+
+        if (jedis == null) {
+            if (now < nextConnectAt) {
+                throw new JedisConnectionException("专用连接 " + clientName + " 等待重连，剩余 " + (nextConnectAt - now) + " 毫秒");
+            }
+            try {
+                jedis = RedisUtil.createDedicatedJedis(clientName, blockingSocketTimeoutMillis);
+            } catch (JedisException e) {
+                nextConnectAt = now + reconnectBackoffMillis;
+                reconnectBackoffMillis = Math.min(maxReconnectBackoffMillis, reconnectBackoffMillis * 2);
+                throw e instanceof JedisConnectionException ? e : new JedisConnectionException(e);
+            }
+            connectCount++;
+            reconnectBackoffMillis = MIN_RECONNECT_BACKOFF_MILLIS;
+            if (connectCount > 1) {
+                logger.info("专用连接 {} 重新连接成功，累计建立连接 {} 次", clientName, connectCount);
+            }
+        }
+        lastUsedAt = now;
+        return jedis;
+    }
+
+    /**
+     * 连接出错（超时、断开、协议错误）后调用，关闭当前连接，下次 {@link #get()} 时重新连接
+     */
+    public void invalidate() {
+        RedisUtil.close(jedis);
+        jedis = null;
+    }
+
+    /**
+     * @return 连接建立的次数，大于1表示发生过重连
+     */
+    public long getConnectCount() {
+        return connectCount;
+    }
+
+    @Override
+    public void close() {
+        invalidate();
+    }
+}
@@ -294,18 +294,19 @@ public class OperateSystemUtil {
         return hostname;
     }
 
-    // 获取CPU总使用率（需要等待一次采样，否则恒0.0）
-    public static String getCpuUsage() {
-        double cpuLoad = 0;
-        try {
-            CentralProcessor processor = systemInfo.getHardware().getProcessor();
-            long[] prevTicks = processor.getSystemCpuLoadTicks();
-            Thread.sleep(1000); // 等待1秒采样
-            long[] ticks = processor.getSystemCpuLoadTicks();
-            cpuLoad = processor.getSystemCpuLoadBetweenTicks(prevTicks);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+    private static long[] prevCpuTicks;
+
+    /**
+     * 获取CPU总使用率：距离上一次调用之间的平均值，首次调用时为开机以来的平均值，不等待采样；
+     * 周期性的指标由 {@link cn.hedeoer.schedule.HostTelemetrySampler} 在后台采集
+     */
+    public static synchronized String getCpuUsage() {
+        CentralProcessor processor = systemInfo.getHardware().getProcessor();
+        if (prevCpuTicks == null) {
+            prevCpuTicks = new long[CentralProcessor.TickType.values().length];
         }
+        double cpuLoad = processor.getSystemCpuLoadBetweenTicks(prevCpuTicks);
+        prevCpuTicks = processor.getSystemCpuLoadTicks();
         return String.format("%.2f",cpuLoad * 100);
     }
     // 获取物理内存使用率
@@ -1,5 +1,6 @@
 package cn.hedeoer.util;
 
+import cn.hedeoer.common.RequestDeadline;
 import cn.hedeoer.pojo.PortInfo;
 import oshi.SystemInfo;
 import oshi.software.os.InternetProtocolStats;
@@ -45,6 +46,21 @@ public class PortMonitorUtils {
      * @throws IllegalArgumentException 如果 startPort 大于 endPort 或端口范围无效。
      */
     public static List<PortInfo> getPortsUsage(String startPortStr, String endPortStr) {
+        return getPortsUsage(startPortStr, endPortStr, RequestDeadline.none());
+    }
+
+    /**
+     * 在截止时间内获取指定端口范围内的所有被监听的端口使用情况，返回值同 {@link #getPortsUsage(String, String)}。
+     * <p>
+     * 逐个连接查询所属进程（读取 /proc）是主要的耗时，超过截止时间后不再处理剩余的连接，
+     * 返回已经得到的部分结果并调用 {@link RequestDeadline#markTruncated()}
+     *
+     * @param startPortStr 起始端口号（字符串，包含）。
+     * @param endPortStr   结束端口号（字符串，包含）。
+     * @param deadline     查询的截止时间
+     * @return PortInfo 列表，超过截止时间时为部分结果
+     */
+    public static List<PortInfo> getPortsUsage(String startPortStr, String endPortStr, RequestDeadline deadline) {
 
         if ((startPortStr == null || startPortStr.isEmpty()) || (endPortStr == null || endPortStr.isEmpty())) {
             return Collections.emptyList();
@@ -72,6 +88,10 @@ public class PortMonitorUtils {
         List<IPConnection> allConnections = ipStats.getConnections();
 
         for (IPConnection conn : allConnections) {
+            if (deadline.isExpired()) {
+                deadline.markTruncated();
+                break;
+            }
             int localPort = conn.getLocalPort();
 
             if (localPort >= startPort && localPort <= endPort) {
@@ -207,6 +227,17 @@ public class PortMonitorUtils {
      *         </ul>
      */
     public static List<PortInfo> getPortsUsage(List<String> ports) {
+        return getPortsUsage(ports, RequestDeadline.none());
+    }
+
+    /**
+     * 在截止时间内获取指定端口列表的端口使用情况，返回值同 {@link #getPortsUsage(List)}，超过截止时间时为部分结果
+     *
+     * @param ports    端口号字符串列表
+     * @param deadline 查询的截止时间
+     * @return PortInfo 列表
+     */
+    public static List<PortInfo> getPortsUsage(List<String> ports, RequestDeadline deadline) {
         if (ports == null || ports.isEmpty()) {
             return new ArrayList<>();
         }
@@ -228,7 +259,7 @@ public class PortMonitorUtils {
 
 
         // Get all ports in range (includes protocol information)
-        List<PortInfo> allPorts = getPortsUsage(minPort + "", maxPort + "");
+        List<PortInfo> allPorts = getPortsUsage(minPort + "", maxPort + "", deadline);
 
         // Filter to only requested ports
         return allPorts.stream()
@@ -285,6 +316,17 @@ public class PortMonitorUtils {
         return getPortsUsage(port, port);
     }
 
+    /**
+     * 在截止时间内获取单个端口的使用情况
+     *
+     * @param port     端口号
+     * @param deadline 查询的截止时间
+     * @return 端口信息列表，超过截止时间时为部分结果
+     */
+    public static List<PortInfo> getPortUsage(String port, RequestDeadline deadline) {
+        return getPortsUsage(port, port, deadline);
+    }
+
     /**
      * 判断指定端口是否被占用
      *
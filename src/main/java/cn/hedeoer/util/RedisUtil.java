@@ -3,6 +3,8 @@ package cn.hedeoer.util;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
@@ -21,6 +23,14 @@ public class RedisUtil{
     private static JedisPool jedisPool = null; // 初始化为null
     private static final String CONFIG_FILE_NAME = "application.yaml";
     private static boolean initializationFailed = false; // 标记初始化是否失败
+    /**
+     * 连接池使用的连接配置，创建不经过连接池的专用连接时复用
+     */
+    private static HostAndPort hostAndPort;
+    private static int connectionTimeout = Protocol.DEFAULT_TIMEOUT;
+    private static String connectionPassword;
+    private static int connectionDatabase = Protocol.DEFAULT_DATABASE;
+    private static boolean connectionSsl;
 
     static {
         try {
@@ -156,6 +166,11 @@ public class RedisUtil{
             }
 
             String effectivePassword = (password != null && "null".equalsIgnoreCase(password)) ? null : password;
+            hostAndPort = new HostAndPort(host, port);
+            connectionTimeout = timeout;
+            connectionPassword = effectivePassword;
+            connectionDatabase = database;
+            connectionSsl = useSSl;
 
             // 关键：在这里创建 JedisPool
             jedisPool = new JedisPool(config, host, port, timeout, effectivePassword, database,useSSl);
@@ -202,6 +217,37 @@ public class RedisUtil{
         }
     }
 
+    /**
+     * 创建一个不经过连接池的专用连接，用于长时间阻塞的读取（比如 XREADGROUP BLOCK），避免阻塞期间一直占用连接池中的连接；
+     * 调用者负责关闭
+     *
+     * @param clientName                  连接名（CLIENT SETNAME），便于在 redis 中识别
+     * @param blockingSocketTimeoutMillis 阻塞命令的读超时（毫秒），应大于阻塞时间，连接中断时阻塞读取不会永远挂起
+     * @return 已连接并认证的 Jedis
+     * @throws JedisException redis 未初始化或连接失败
+     */
+    public static Jedis createDedicatedJedis(String clientName, int blockingSocketTimeoutMillis) {
+        if (initializationFailed || hostAndPort == null) {
+            throw new JedisException("redis 未初始化，无法创建专用连接");
+        }
+        Jedis jedis = new Jedis(hostAndPort, DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(connectionTimeout)
+                .socketTimeoutMillis(connectionTimeout)
+                .blockingSocketTimeoutMillis(blockingSocketTimeoutMillis)
+                .password(connectionPassword)
+                .database(connectionDatabase)
+                .ssl(connectionSsl)
+                .clientName(clientName)
+                .build());
+        try {
+            jedis.ping();
+            return jedis;
+        } catch (JedisException e) {
+            close(jedis);
+            throw e;
+        }
+    }
+
     public static void close(Jedis jedis) {
         if (jedis != null) {
             try {
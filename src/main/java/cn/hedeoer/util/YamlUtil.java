@@ -42,4 +42,41 @@ public class YamlUtil {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * 从某个顶级节点的配置中读取一个配置项，配置缺失或类型不匹配时返回默认值
+     * 数值类型会按默认值的类型（Integer，Long，Double）做转换
+     *
+     * @param config       顶级节点下的配置
+     * @param key          配置项名字
+     * @param defaultValue 默认值，不能为null
+     * @param <T>          配置项类型
+     * @return 配置值或默认值
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getOrDefault(Map<String, Object> config, String key, T defaultValue) {
+        Object value = config == null ? null : config.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (defaultValue instanceof Integer) {
+                return (T) Integer.valueOf(number.intValue());
+            } else if (defaultValue instanceof Long) {
+                return (T) Long.valueOf(number.longValue());
+            } else if (defaultValue instanceof Double) {
+                return (T) Double.valueOf(number.doubleValue());
+            }
+        }
+        if (defaultValue instanceof String) {
+            return (T) value.toString();
+        }
+        if (!defaultValue.getClass().isInstance(value)) {
+            log.warn("Configuration '{}' expected type {} but found {}. Default value {} will be used.",
+                    key, defaultValue.getClass().getSimpleName(), value.getClass().getSimpleName(), defaultValue);
+            return defaultValue;
+        }
+        return (T) value;
+    }
 }
@@ -0,0 +1,48 @@
+package cn.hedeoer.common;
+
+import org.junit.Test;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RequestDeadlineTest {
+
+    @Test
+    public void deadlineFromEntryIdTime() {
+        long now = System.currentTimeMillis();
+        StreamEntry stale = new StreamEntry(new StreamEntryID(now - 10_000, 0), Map.of("dataOpType", "QUERY"));
+        assertTrue(RequestDeadline.of(stale, 5_000).isExpired());
+        assertFalse(RequestDeadline.of(stale, 60_000).isExpired());
+        // 小于等于0表示没有截止时间
+        assertFalse(RequestDeadline.of(stale, 0).isExpired());
+        assertEquals(Long.MAX_VALUE, RequestDeadline.of(stale, 0).remainingMillis());
+    }
+
+    @Test
+    public void timeoutAndTsFieldsOverrideDefaults() {
+        long now = System.currentTimeMillis();
+        StreamEntryID fresh = new StreamEntryID(now, 0);
+        // 秒级 ts
+        String tsSeconds = String.valueOf(now / 1000 - 120);
+        assertTrue(RequestDeadline.of(new StreamEntry(fresh, Map.of("ts", tsSeconds)), 60_000).isExpired());
+        // 毫秒级 ts，命令自己的 timeoutMillis 优先
+        String tsMillis = String.valueOf(now - 120_000);
+        assertFalse(RequestDeadline.of(new StreamEntry(fresh,
+                Map.of("ts", tsMillis, RequestDeadline.TIMEOUT_FIELD, "600000")), 60_000).isExpired());
+        // 无法解析的 ts 使用 entryId 的时间
+        assertFalse(RequestDeadline.of(new StreamEntry(fresh, Map.of("ts", "n/a")), 60_000).isExpired());
+    }
+
+    @Test
+    public void truncationFlag() {
+        RequestDeadline deadline = RequestDeadline.at(System.currentTimeMillis() - 1);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMillis());
+        assertFalse(deadline.isTruncated());
+        deadline.markTruncated();
+        assertTrue(deadline.isTruncated());
+    }
+}
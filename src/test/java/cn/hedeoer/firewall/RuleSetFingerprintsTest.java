@@ -0,0 +1,75 @@
+package cn.hedeoer.firewall;
+
+import cn.hedeoer.common.enmu.FireWallType;
+import cn.hedeoer.common.entity.PortRule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RuleSetFingerprintsTest {
+
+    @Test
+    public void fingerprintIgnoresOrderAndUsingStatus() {
+        PortRule ssh = rule("22", true);
+        PortRule http = rule("80", false);
+        String fingerprint = RuleSetFingerprints.fingerprint(List.of(ssh, http));
+
+        assertEquals(fingerprint, RuleSetFingerprints.fingerprint(List.of(http, rule("22", false))));
+        assertNotEquals(fingerprint, RuleSetFingerprints.fingerprint(List.of(ssh, rule("8080", false))));
+        assertEquals(32, fingerprint.length());
+    }
+
+    @Test
+    public void rememberedFingerprintTrustedUntilConfigChanges() throws IOException {
+        File config = File.createTempFile("zone", ".xml");
+        config.deleteOnExit();
+        RuleSetFingerprints fingerprints = new RuleSetFingerprints(FireWallType.FIREWALLD, 60000) {
+            @Override
+            protected List<String> configFiles(String zoneName) {
+                return List.of(config.getAbsolutePath());
+            }
+        };
+
+        String state = fingerprints.configState("public");
+        fingerprints.remember("public", state, "abc");
+        assertEquals("abc", fingerprints.current("public"));
+        assertNull(fingerprints.current("internal"));
+
+        Files.write(config.toPath(), "<zone/>".getBytes(StandardCharsets.UTF_8));
+        assertNull(fingerprints.current("public"));
+
+        fingerprints.remember("public", fingerprints.configState("public"), "def");
+        fingerprints.invalidateAll();
+        assertNull(fingerprints.current("public"));
+    }
+
+    @Test
+    public void fingerprintRememberedWithoutZone() throws IOException {
+        File config = File.createTempFile("user", ".rules");
+        config.deleteOnExit();
+        RuleSetFingerprints fingerprints = new RuleSetFingerprints(FireWallType.UFW, 60000) {
+            @Override
+            protected List<String> configFiles(String zoneName) {
+                return List.of(config.getAbsolutePath());
+            }
+        };
+
+        // ufw 不区分zone，master节点的查询可以不带 zoneName
+        assertNull(fingerprints.current(null));
+        fingerprints.remember(null, fingerprints.configState(null), "abc");
+        assertEquals("abc", fingerprints.current(null));
+        assertNull(fingerprints.current("public"));
+    }
+
+    private static PortRule rule(String port, boolean using) {
+        PortRule rule = PortRule.builder().port(port).protocol("tcp").policy(true).using(using).build();
+        rule.setZone("public");
+        return rule;
+    }
+}
@@ -0,0 +1,54 @@
+package cn.hedeoer.schedule;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSchedulerTest {
+
+    private final ReportInterval interval = ReportInterval.builder()
+            .intervalSeconds(40).minIntervalSeconds(10).maxIntervalSeconds(60).build();
+
+    @Test
+    public void intervalShrinksOnChangeAndGrowsWhenStable() {
+        assertEquals(20_000, AdaptiveScheduler.nextInterval(40_000, true, interval));
+        assertEquals(10_000, AdaptiveScheduler.nextInterval(15_000, true, interval));
+        assertEquals(50_000, AdaptiveScheduler.nextInterval(40_000, false, interval));
+        assertEquals(60_000, AdaptiveScheduler.nextInterval(50_000, false, interval));
+        assertEquals(60_000, AdaptiveScheduler.nextInterval(60_000, false, interval));
+    }
+
+    @Test
+    public void phaseOffsetIsDeterministicAndSpreadAcrossAgents() {
+        long offset = AdaptiveScheduler.phaseOffset("agent-1", "heartbeat", 30_000);
+        assertEquals(offset, AdaptiveScheduler.phaseOffset("agent-1", "heartbeat", 30_000));
+
+        Set<Long> offsets = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            long value = AdaptiveScheduler.phaseOffset("agent-" + i, "heartbeat", 30_000);
+            assertTrue(value >= 0 && value < 30_000);
+            offsets.add(value);
+        }
+        assertTrue(offsets.size() > 90);
+    }
+
+    @Test
+    public void fromConfigKeepsIntervalWithinBounds() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("intervalSeconds", 20);
+        config.put("minIntervalSeconds", 30);
+        config.put("maxIntervalSeconds", 5);
+        ReportInterval loaded = ReportInterval.fromConfig(config, interval);
+        assertEquals(20, loaded.getIntervalSeconds());
+        assertEquals(20, loaded.getMinIntervalSeconds());
+        assertEquals(20, loaded.getMaxIntervalSeconds());
+
+        ReportInterval defaults = ReportInterval.fromConfig(null, interval);
+        assertEquals(interval, defaults);
+    }
+}
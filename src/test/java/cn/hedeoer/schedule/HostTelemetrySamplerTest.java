@@ -0,0 +1,36 @@
+package cn.hedeoer.schedule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HostTelemetrySamplerTest {
+
+    @Test
+    public void ringKeepsLatestSamplesAndSummarizesWindow() {
+        HostTelemetrySampler sampler = new HostTelemetrySampler(3);
+        for (int i = 1; i <= 5; i++) {
+            sampler.record(new HostTelemetrySampler.HostSample(i * 1000L, i * 10, 50, 0, i * 100, 0, 0, 0));
+        }
+        // 容量为3，只保留最后3个采样
+        assertEquals(5000L, sampler.latest().getTimestamp());
+        HostTelemetrySampler.HostSummary all = sampler.summary(60000);
+        assertEquals(3, all.getSamples());
+        assertEquals(40.0, all.getCpuUsageAvg(), 0.001);
+        assertEquals(50.0, all.getCpuUsagePeak(), 0.001);
+        assertEquals(500.0, all.getNetRecvBytesPerSecPeak(), 0.001);
+
+        HostTelemetrySampler.HostSummary recent = sampler.summary(1000);
+        assertEquals(2, recent.getSamples());
+        assertEquals(45.0, recent.getCpuUsageAvg(), 0.001);
+    }
+
+    @Test
+    public void firstReadSamplesWithoutWaiting() {
+        HostTelemetrySampler sampler = new HostTelemetrySampler(3);
+        long start = System.currentTimeMillis();
+        HostTelemetrySampler.HostSample sample = sampler.latest();
+        assertTrue(sample.getTimestamp() >= start);
+        assertTrue(sample.getMemoryUsage() >= 0 && sample.getMemoryUsage() <= 100);
+    }
+}
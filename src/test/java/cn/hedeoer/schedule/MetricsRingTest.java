@@ -0,0 +1,32 @@
+package cn.hedeoer.schedule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsRingTest {
+
+    @Test
+    public void sinceReturnsNewSamplesInOrderAfterWrapAround() {
+        MetricsRing ring = new MetricsRing(4);
+        for (int i = 1; i <= 6; i++) {
+            ring.record(i * 1000L, i, i * 2);
+        }
+        assertEquals(4, ring.size());
+
+        MetricsRing.Batch all = ring.since(0);
+        assertArrayEquals(new long[]{3000, 4000, 5000, 6000}, all.getTimestamps());
+        assertEquals(6, all.getLastSequence());
+        assertArrayEquals(new float[]{3, 4, 5, 6}, all.getValues()[0], 0f);
+        assertArrayEquals(new float[]{6, 8, 10, 12}, all.getValues()[1], 0f);
+
+        MetricsRing.Batch newer = ring.since(4);
+        assertArrayEquals(new long[]{5000, 6000}, newer.getTimestamps());
+        assertEquals(0, ring.since(6).size());
+
+        double[] cpu = ring.aggregate(0, 1000);
+        assertEquals(5.5, cpu[0], 0.001);
+        assertEquals(6, cpu[1], 0.001);
+        assertEquals(2, cpu[2], 0.001);
+    }
+}
@@ -0,0 +1,85 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.subscribe.StreamRetention;
+import cn.hedeoer.subscribe.transport.BroadcastSubscription;
+import cn.hedeoer.subscribe.transport.InMemoryTransport;
+import cn.hedeoer.util.AgentIdUtil;
+import org.junit.Test;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsShipperTest {
+
+    @Test
+    public void packDecodesBackToSamples() {
+        MetricsRing ring = new MetricsRing(10);
+        ring.record(1000, 12.5, 40);
+        ring.record(2000, 99.25, 41);
+
+        Map<String, String> message = MetricsShipper.pack("agent", ring.since(0));
+        assertEquals("2", message.get("count"));
+        assertEquals("1000", message.get("startTs"));
+        ByteBuffer offsets = ByteBuffer.wrap(Base64.getDecoder().decode(message.get("offsets"))).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0, offsets.getInt());
+        assertEquals(1000, offsets.getInt());
+        ByteBuffer cpu = ByteBuffer.wrap(Base64.getDecoder().decode(message.get("cpuUsage"))).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(12.5f, cpu.getFloat(), 0f);
+        assertEquals(99.25f, cpu.getFloat(), 0f);
+    }
+
+    @Test
+    public void shipsOnlyNewSamplesInOneEntry() {
+        InMemoryTransport transport = new InMemoryTransport();
+        MetricsRing ring = new MetricsRing(10);
+        MetricsShipper shipper = new MetricsShipper(ring, transport);
+        String streamKey = "metrics:" + AgentIdUtil.loadOrCreateUUID();
+        BroadcastSubscription reader = transport.subscribeBroadcast(List.of(streamKey), Map.of(streamKey, new StreamEntryID()), "master");
+
+        ring.record(1000, 1);
+        ring.record(2000, 2);
+        shipper.run();
+        ring.record(3000, 3);
+        shipper.run();
+        // 没有新采样时不上报
+        shipper.run();
+
+        List<StreamEntry> entries = reader.read(10, 100).get(streamKey);
+        assertEquals(2, entries.size());
+        assertEquals("2", entries.get(0).getFields().get("count"));
+        assertEquals("1", entries.get(1).getFields().get("count"));
+        assertEquals("3000", entries.get(1).getFields().get("startTs"));
+    }
+
+    @Test
+    public void keepsShippingAfterClockStepsBack() {
+        InMemoryTransport transport = new InMemoryTransport() {
+            @Override
+            public long trimReplies(String replyStreamKey, StreamRetention retention) {
+                // 指标stream由 ReplyStreamTrimmer 周期性裁剪，上报时不裁剪
+                throw new AssertionError("上报时不应裁剪指标stream");
+            }
+        };
+        MetricsRing ring = new MetricsRing(10);
+        MetricsShipper shipper = new MetricsShipper(ring, transport);
+        String streamKey = "metrics:" + AgentIdUtil.loadOrCreateUUID();
+        BroadcastSubscription reader = transport.subscribeBroadcast(List.of(streamKey), Map.of(streamKey, new StreamEntryID()), "master");
+
+        ring.record(5000, 1);
+        shipper.run();
+        // 时钟回拨后的采样时间小于已上报的采样
+        ring.record(2000, 2);
+        shipper.run();
+
+        List<StreamEntry> entries = reader.read(10, 100).get(streamKey);
+        assertEquals(2, entries.size());
+        assertEquals("2000", entries.get(1).getFields().get("startTs"));
+    }
+}
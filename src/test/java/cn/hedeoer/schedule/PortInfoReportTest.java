@@ -0,0 +1,66 @@
+package cn.hedeoer.schedule;
+
+import cn.hedeoer.pojo.PortInfo;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PortInfoReportTest {
+
+    private static PortInfo port(int portNumber) {
+        PortInfo portInfo = new PortInfo();
+        portInfo.setProtocol("tcp");
+        portInfo.setPortNumber(portNumber);
+        return portInfo;
+    }
+
+    @Test
+    public void fullSnapshotThenDeltas() {
+        PortInfoReport.ReportState state = new PortInfoReport.ReportState();
+
+        PortInfoReport.Report first = state.next(List.of(port(8080), port(9090)), false);
+        assertTrue(first.full);
+        assertEquals(2, first.portInfos.size());
+        state.commit(first);
+
+        // 没有变化时版本不变，不再上报完整的端口列表
+        PortInfoReport.Report unchanged = state.next(List.of(port(9090), port(8080)), false);
+        assertFalse(unchanged.full);
+        assertFalse(unchanged.hasChange);
+        assertEquals(first.version, unchanged.version);
+        assertTrue(unchanged.added.isEmpty() && unchanged.removed.isEmpty());
+
+        PortInfoReport.Report delta = state.next(List.of(port(8080), port(3306)), false);
+        assertFalse(delta.full);
+        assertTrue(delta.version > first.version);
+        assertEquals(first.version, delta.baseVersion);
+        assertEquals(List.of(port(3306)), delta.added);
+        assertEquals(List.of(port(9090)), delta.removed);
+        state.commit(delta);
+
+        // 之后没有变化时重复最近一次的增量
+        PortInfoReport.Report repeated = state.next(List.of(port(3306), port(8080)), false);
+        assertEquals(delta.version, repeated.version);
+        assertEquals(delta.baseVersion, repeated.baseVersion);
+        assertEquals(delta.added, repeated.added);
+
+        // master节点要求时上报完整的端口列表
+        PortInfoReport.Report full = state.next(List.of(port(3306), port(8080)), true);
+        assertTrue(full.full);
+        assertTrue(full.version > delta.version);
+    }
+
+    @Test
+    public void failedReportIsNotCommitted() {
+        PortInfoReport.ReportState state = new PortInfoReport.ReportState();
+        state.commit(state.next(List.of(port(8080)), false));
+
+        // 上报失败不提交，下次仍然相对于最近一次成功的上报计算增量
+        PortInfoReport.Report lost = state.next(List.of(port(8080), port(22222)), false);
+        PortInfoReport.Report retry = state.next(List.of(port(8080), port(22222), port(33333)), false);
+        assertEquals(lost.baseVersion, retry.baseVersion);
+        assertEquals(2, retry.added.size());
+    }
+}
@@ -0,0 +1,42 @@
+package cn.hedeoer.subscribe;
+
+import org.junit.Test;
+import redis.clients.jedis.StreamEntryID;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class BroadcastOffsetsTest {
+
+    private static final String KEY = "broadcast:all:portRule";
+
+    @Test
+    public void offsetStopsBeforeEarliestInFlight() throws IOException {
+        File file = File.createTempFile("broadcast-offsets", ".json");
+        file.delete();
+        try {
+            BroadcastOffsets offsets = new BroadcastOffsets(file.getPath());
+            assertNull(offsets.get(KEY));
+
+            offsets.markRead(KEY, new StreamEntryID(5, 0));
+            offsets.markRead(KEY, new StreamEntryID(5, 1));
+            offsets.markRead(KEY, new StreamEntryID(7, 0));
+
+            // 5-0 还在处理中，进度不能越过它
+            offsets.markDone(KEY, new StreamEntryID(7, 0));
+            assertEquals(new StreamEntryID(4, Long.MAX_VALUE), offsets.get(KEY));
+
+            offsets.markDone(KEY, new StreamEntryID(5, 0));
+            assertEquals(new StreamEntryID(5, 0), offsets.get(KEY));
+
+            offsets.markDone(KEY, new StreamEntryID(5, 1));
+            assertEquals(new StreamEntryID(7, 0), offsets.get(KEY));
+
+            assertEquals(new StreamEntryID(7, 0), new BroadcastOffsets(file.getPath()).get(KEY));
+        } finally {
+            file.delete();
+        }
+    }
+}
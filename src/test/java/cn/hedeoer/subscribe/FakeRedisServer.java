@@ -0,0 +1,182 @@
+package cn.hedeoer.subscribe;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 测试用的最小 RESP 服务端：记录收到的每条命令，由测试决定每条命令的返回值
+ * <p>
+ * handler 返回 String 时以 "+" 或 "-" 开头原样写出（状态或错误），Long 为整数，byte[] 为 bulk string，
+ * List 为数组，null 为空 bulk string，{@link #DISCONNECT} 表示直接断开连接
+ */
+class FakeRedisServer implements AutoCloseable {
+
+    static final Object DISCONNECT = new Object();
+
+    private final ServerSocket serverSocket;
+    private final List<List<String>> commands = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, String> scripts = Collections.synchronizedMap(new HashMap<>());
+    private final Function<List<String>, Object> handler;
+
+    FakeRedisServer(Function<List<String>, Object> handler) throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(0);
+        Thread acceptor = new Thread(this::accept, "fake-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return 收到的命令，命令名为大写
+     */
+    List<List<String>> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    /**
+     * @return sha1 对应的通过 SCRIPT LOAD 加载的脚本内容
+     */
+    String script(String sha) {
+        return scripts.get(sha);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread client = new Thread(() -> serve(socket), "fake-redis-client");
+                client.setDaemon(true);
+                client.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                command.set(0, command.get(0).toUpperCase());
+                commands.add(command);
+                Object reply;
+                if ("SCRIPT".equals(command.get(0)) && "LOAD".equalsIgnoreCase(command.get(1))) {
+                    String sha = sha1(command.get(2));
+                    scripts.put(sha, command.get(2));
+                    reply = sha.getBytes(StandardCharsets.UTF_8);
+                } else {
+                    reply = handler.apply(command);
+                }
+                if (reply == DISCONNECT) {
+                    return;
+                }
+                write(out, reply);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // 客户端断开
+        }
+    }
+
+    private static List<String> readCommand(InputStream in) throws IOException {
+        String header = readLine(in);
+        if (header == null) {
+            return null;
+        }
+        int count = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = Integer.parseInt(readLine(in).substring(1));
+            byte[] bytes = new byte[length];
+            int read = 0;
+            while (read < length) {
+                int n = in.read(bytes, read, length - read);
+                if (n < 0) {
+                    return null;
+                }
+                read += n;
+            }
+            readLine(in);
+            command.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\r') {
+                in.read();
+                return line.toString("UTF-8");
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static void write(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof String) {
+            out.write((reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long) {
+            out.write((":" + reply + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof byte[]) {
+            byte[] bytes = (byte[]) reply;
+            out.write(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.write(bytes);
+            out.write("\r\n".getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof List) {
+            List<?> items = (List<?>) reply;
+            out.write(("*" + items.size() + "\r\n").getBytes(StandardCharsets.UTF_8));
+            for (Object item : items) {
+                write(out, item);
+            }
+        } else {
+            throw new IllegalArgumentException("不支持的返回值 " + reply);
+        }
+    }
+
+    private static String sha1(String script) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,75 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class IdempotencyCacheTest {
+
+    @Test
+    public void persistAndEvict() throws IOException {
+        File file = File.createTempFile("idempotency-cache", ".json");
+        file.delete();
+        try {
+            IdempotencyCache cache = new IdempotencyCache(file.getPath(), 2);
+            cache.put(IdempotencyCache.keyOf("pub:a:portRule", "1-0", Map.of()), ResponseResult.success(List.of("r1")));
+            cache.put(IdempotencyCache.keyOf("pub:a:portRule", "2-0", Map.of()), ResponseResult.success(List.of("r2")));
+            cache.put(IdempotencyCache.keyOf("pub:a:portRule", "3-0", Map.of(IdempotencyCache.IDEMPOTENCY_KEY_FIELD, "k")),
+                    ResponseResult.success(List.of("r3")));
+            assertEquals(2, cache.size());
+
+            IdempotencyCache reloaded = new IdempotencyCache(file.getPath(), 2);
+            assertNull(reloaded.get("pub:a:portRule@1-0"));
+            assertEquals(List.of("r2"), reloaded.get("pub:a:portRule@2-0").getData());
+            assertEquals(List.of("r3"), reloaded.get(IdempotencyCache.keyOf("pub:a:portRule", "9-0",
+                    Map.of(IdempotencyCache.IDEMPOTENCY_KEY_FIELD, "k"))).getData());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void appendsRecordsAndCompactsTheLog() throws IOException {
+        File file = File.createTempFile("idempotency-cache", ".json");
+        file.delete();
+        try {
+            IdempotencyCache cache = new IdempotencyCache(file.getPath(), 3);
+            for (int i = 0; i < 20; i++) {
+                cache.put("pub:a:portRule@" + i + "-0", ResponseResult.success(List.of("r" + i)));
+            }
+            // 追加的记录超过 maxEntries 的两倍时重写文件
+            assertTrue(Files.readAllLines(file.toPath()).size() <= 6);
+
+            // 崩溃时写了一半的行被跳过
+            Files.write(file.toPath(), "{\"key\":\"pub:a:portRule@x".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            IdempotencyCache reloaded = new IdempotencyCache(file.getPath(), 3);
+            assertEquals(3, reloaded.size());
+            assertEquals(List.of("r19"), reloaded.get("pub:a:portRule@19-0").getData());
+            assertNull(reloaded.get("pub:a:portRule@16-0"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void loadsLegacySingleObjectFile() throws IOException {
+        File file = File.createTempFile("idempotency-cache", ".json");
+        try {
+            Files.write(file.toPath(), ("{\"pub:a:portRule@1-0\":{\"status\":\"200\",\"data\":[\"r1\"]}}")
+                    .getBytes(StandardCharsets.UTF_8));
+            IdempotencyCache cache = new IdempotencyCache(file.getPath(), 2);
+            assertEquals(List.of("r1"), cache.get("pub:a:portRule@1-0").getData());
+        } finally {
+            file.delete();
+        }
+    }
+}
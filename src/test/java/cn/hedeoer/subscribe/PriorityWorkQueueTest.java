@@ -0,0 +1,49 @@
+package cn.hedeoer.subscribe;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PriorityWorkQueueTest {
+
+    @Test
+    public void priorityThenFifo() throws InterruptedException {
+        PriorityWorkQueue<String> queue = new PriorityWorkQueue<>(10);
+        queue.put("add-1", CommandPriority.MUTATION);
+        queue.put("query-1", CommandPriority.QUERY);
+        queue.put("add-2", CommandPriority.MUTATION);
+        queue.put("stop", CommandPriority.CONTROL);
+        queue.put("query-2", CommandPriority.QUERY);
+
+        assertEquals("stop", queue.take());
+        assertEquals("query-1", queue.take());
+        assertEquals("query-2", queue.take());
+        assertEquals("add-1", queue.take());
+        assertEquals("add-2", queue.take());
+    }
+
+    @Test
+    public void putBlocksWhenFull() throws InterruptedException {
+        PriorityWorkQueue<String> queue = new PriorityWorkQueue<>(1);
+        queue.put("a", CommandPriority.MUTATION);
+
+        CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put("b", CommandPriority.MUTATION);
+                added.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+
+        assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+        assertEquals("a", queue.take());
+        assertTrue(added.await(1, TimeUnit.SECONDS));
+        assertEquals(1, queue.size());
+    }
+}
@@ -0,0 +1,54 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.codec.PayloadCodecs;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Test;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ResponseChunkerTest {
+
+    @Test
+    public void splitLargeList() {
+        List<String> ports = new ArrayList<>();
+        for (int port = 1; port <= 2000; port++) {
+            ports.add("tcp/" + port + "/ipv4/public");
+        }
+        List<Map<byte[], byte[]>> chunks = ResponseChunker.split(ResponseResult.success(ports), PayloadCodecs.JSON, 4096);
+        assertTrue(chunks.size() > 1);
+
+        List<String> merged = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            Map<String, byte[]> fields = toStringKeys(chunks.get(i));
+            assertTrue(fields.get("data").length <= 4096);
+            assertEquals(String.valueOf(i), SafeEncoder.encode(fields.get(ResponseChunker.CHUNK_INDEX_FIELD)));
+            assertEquals(String.valueOf(chunks.size()), SafeEncoder.encode(fields.get(ResponseChunker.CHUNK_COUNT_FIELD)));
+            assertEquals(i == chunks.size() - 1 ? "1" : "0", SafeEncoder.encode(fields.get(ResponseChunker.LAST_CHUNK_FIELD)));
+            merged.addAll(PayloadCodecs.JSON.decode(fields.get("data"), new TypeReference<List<String>>() {
+            }));
+        }
+        assertEquals(ports, merged);
+    }
+
+    @Test
+    public void smallResponseNotSplit() {
+        List<Map<byte[], byte[]>> chunks = ResponseChunker.split(ResponseResult.success(List.of("a", "b")), PayloadCodecs.JSON, 4096);
+        assertEquals(1, chunks.size());
+        assertFalse(toStringKeys(chunks.get(0)).containsKey(ResponseChunker.CHUNK_INDEX_FIELD));
+    }
+
+    private static Map<String, byte[]> toStringKeys(Map<byte[], byte[]> message) {
+        Map<String, byte[]> fields = new HashMap<>();
+        for (Map.Entry<byte[], byte[]> field : message.entrySet()) {
+            fields.put(SafeEncoder.encode(field.getKey()), field.getValue());
+        }
+        return fields;
+    }
+}
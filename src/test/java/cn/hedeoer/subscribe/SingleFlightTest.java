@@ -0,0 +1,59 @@
+package cn.hedeoer.subscribe;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallsShareOneExecution() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(pool.submit(() -> singleFlight.execute("QUERY_ALL_PORTRULE:public", () -> {
+                    executions.incrementAndGet();
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "rules";
+                })));
+            }
+            // 等待全部请求进入等待状态后再结束执行
+            Thread.sleep(300);
+            release.countDown();
+            for (Future<String> future : futures) {
+                assertEquals("rules", future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, executions.get());
+            assertEquals(0, singleFlight.inFlightCount());
+
+            // 执行结束后的请求重新执行
+            assertEquals("again", singleFlight.execute("QUERY_ALL_PORTRULE:public", () -> "again"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void exceptionPropagates() {
+        new SingleFlight<String, String>().execute("k", () -> {
+            throw new IllegalStateException("firewall-cmd failed");
+        });
+    }
+}
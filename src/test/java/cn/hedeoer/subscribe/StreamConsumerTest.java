@@ -0,0 +1,89 @@
+package cn.hedeoer.subscribe;
+
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StreamConsumerTest {
+
+    private static final String STREAM_KEY = "pub:agent:portRule";
+    private static final String LEGACY_GROUP = "firewall_sub:agent:portRule_group";
+
+    @Test
+    public void legacyPendingEntriesMoveToNewGroupBeforeLegacyGroupIsDestroyed() throws Exception {
+        AtomicBoolean legacyAcked = new AtomicBoolean();
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XINFO":
+                    if ("STREAM".equalsIgnoreCase(command.get(1))) {
+                        return Arrays.asList(bytes("length"), 2L, bytes("radix-tree-keys"), 1L,
+                                bytes("radix-tree-nodes"), 2L, bytes("groups"), 1L,
+                                bytes("last-generated-id"), bytes("1000-1"),
+                                bytes("first-entry"), null, bytes("last-entry"), null);
+                    }
+                    return Collections.singletonList(Arrays.asList(
+                            bytes("name"), bytes(LEGACY_GROUP),
+                            bytes("consumers"), 1L,
+                            bytes("pending"), 1L,
+                            bytes("last-delivered-id"), bytes("1000-1")));
+                case "XPENDING":
+                    // 旧组中有一条已投递未确认的消息，确认后待确认列表为空
+                    return legacyAcked.get() ? Collections.emptyList() : Collections.singletonList(Arrays.asList(
+                            bytes("1000-0"), bytes("old-consumer"), 5000L, 1L));
+                case "XCLAIM":
+                    return Collections.singletonList(bytes("1000-0"));
+                case "XACK":
+                    legacyAcked.set(true);
+                    return 1L;
+                case "XGROUP":
+                    return "DESTROY".equalsIgnoreCase(command.get(1)) ? (Object) 1L : "+OK";
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            new StreamConsumer(jedis, Collections.singletonList(STREAM_KEY), "firewall_group", "agent",
+                    Collections.singletonMap(STREAM_KEY, LEGACY_GROUP));
+
+            List<List<String>> commands = server.getCommands();
+            int create = indexOf(commands, "XGROUP", "CREATE");
+            int claim = indexOf(commands, "XCLAIM", null);
+            int ack = indexOf(commands, "XACK", null);
+            int destroy = indexOf(commands, "XGROUP", "DESTROY");
+
+            // 新消费者组从旧组的 last-delivered-id 开始
+            assertEquals("1000-1", commands.get(create).get(4));
+            assertEquals(Arrays.asList("XPENDING", STREAM_KEY, LEGACY_GROUP, "-", "+", "100"),
+                    commands.get(indexOf(commands, "XPENDING", null)));
+            // 旧组待确认的消息被强制认领到新消费者组的当前消费者
+            List<String> xclaim = commands.get(claim);
+            assertEquals(Arrays.asList(STREAM_KEY, "firewall_group", "agent", "0", "1000-0"), xclaim.subList(1, 6));
+            assertTrue(xclaim.contains("FORCE"));
+            assertTrue(xclaim.contains("JUSTID"));
+            assertEquals(LEGACY_GROUP, commands.get(ack).get(2));
+            assertEquals(LEGACY_GROUP, commands.get(destroy).get(3));
+            assertTrue(create < claim && claim < ack && ack < destroy);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(List<List<String>> commands, String name, String subcommand) {
+        for (int i = 0; i < commands.size(); i++) {
+            List<String> command = commands.get(i);
+            if (command.get(0).equals(name) && (subcommand == null || subcommand.equalsIgnoreCase(command.get(1)))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
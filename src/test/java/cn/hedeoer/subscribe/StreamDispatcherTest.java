@@ -0,0 +1,184 @@
+package cn.hedeoer.subscribe;
+
+import cn.hedeoer.common.entity.ResponseResult;
+import cn.hedeoer.subscribe.transport.InMemoryTransport;
+import cn.hedeoer.util.AgentIdUtil;
+import org.junit.Test;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StreamDispatcherTest {
+
+    @Test
+    public void expiredQueriesAreSkippedButExpiredMutationsStillRun() throws InterruptedException {
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        String pub = "pub:" + agentId + ":portRule";
+        String sub = "sub:" + agentId + ":portRule";
+        AtomicInteger executed = new AtomicInteger();
+        StreamEntryHandler handler = new StreamEntryHandler() {
+            @Override
+            public String streamType() {
+                return "portRule";
+            }
+
+            @Override
+            public ResponseResult<?> handle(StreamEntry streamEntry) {
+                executed.incrementAndGet();
+                return ResponseResult.success();
+            }
+        };
+
+        InMemoryTransport transport = new InMemoryTransport();
+        CountDownLatch replied = new CountDownLatch(2);
+        transport.setReplyListener((key, id) -> replied.countDown());
+        StreamConfig streamConfig = StreamConfig.builder()
+                .idempotencyCacheSize(0)
+                .blockMillis(50)
+                .commandTimeoutMillis(1000)
+                .build();
+        Thread dispatcher = new Thread(new StreamDispatcher(Collections.singletonList(handler), streamConfig, transport));
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        try {
+            // 一小时前发出的命令，都已超过截止时间
+            String ts = String.valueOf(System.currentTimeMillis() - 3_600_000);
+            transport.publish(pub, Map.of("dataOpType", "QUERY", "ts", ts));
+            transport.publish(pub, Map.of("dataOpType", "INSERT", "ts", ts));
+            assertTrue(replied.await(5, TimeUnit.SECONDS));
+
+            List<String> statuses = Arrays.asList(status(transport.getReplies(sub).get(0)), status(transport.getReplies(sub).get(1)));
+            assertTrue(statuses.contains("408"));
+            assertTrue(statuses.contains("200"));
+            // 只有修改类命令被执行
+            assertEquals(1, executed.get());
+        } finally {
+            dispatcher.interrupt();
+        }
+    }
+
+    @Test
+    public void commandIsClassifiedOnceWhenRead() throws InterruptedException {
+        String agentId = AgentIdUtil.loadOrCreateUUID();
+        String pub = "pub:" + agentId + ":portRule";
+        AtomicInteger classified = new AtomicInteger();
+        StreamEntryHandler handler = new StreamEntryHandler() {
+            @Override
+            public String streamType() {
+                return "portRule";
+            }
+
+            @Override
+            public ResponseResult<?> handle(StreamEntry streamEntry) {
+                return ResponseResult.success();
+            }
+
+            @Override
+            public boolean isReadOnly(StreamEntry streamEntry) {
+                classified.incrementAndGet();
+                return StreamEntryHandler.super.isReadOnly(streamEntry);
+            }
+        };
+
+        InMemoryTransport transport = new InMemoryTransport();
+        CountDownLatch replied = new CountDownLatch(2);
+        transport.setReplyListener((key, id) -> replied.countDown());
+        StreamConfig streamConfig = StreamConfig.builder()
+                .idempotencyCacheSize(0)
+                .blockMillis(50)
+                .build();
+        Thread dispatcher = new Thread(new StreamDispatcher(Collections.singletonList(handler), streamConfig, transport));
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        try {
+            transport.publish(pub, Map.of("dataOpType", "QUERY"));
+            transport.publish(pub, Map.of("dataOpType", "INSERT"));
+            assertTrue(replied.await(5, TimeUnit.SECONDS));
+            // 默认优先级由 isReadOnly 计算：每条命令在创建时计算一次只读和一次优先级，入队、调度、执行时不再重复解析
+            assertEquals(4, classified.get());
+        } finally {
+            dispatcher.interrupt();
+        }
+    }
+
+    @Test
+    public void broadcastIsNotDoneUntilReplied() throws Exception {
+        String broadcastKey = "broadcast:all:portRule";
+        File offsetFile = File.createTempFile("broadcast-offsets", ".json");
+        // 从广播stream的开头读取，不依赖读取线程订阅的时机
+        Files.write(offsetFile.toPath(), ("{\"" + broadcastKey + "\":\"0-0\"}").getBytes(StandardCharsets.UTF_8));
+        StreamEntryHandler handler = new StreamEntryHandler() {
+            @Override
+            public String streamType() {
+                return "portRule";
+            }
+
+            @Override
+            public ResponseResult<?> handle(StreamEntry streamEntry) {
+                return ResponseResult.success();
+            }
+        };
+
+        AtomicInteger replies = new AtomicInteger();
+        InMemoryTransport transport = new InMemoryTransport() {
+            @Override
+            public StreamEntryID reply(String replyStreamKey, List<Map<byte[], byte[]>> chunks, StreamEntryID entryID,
+                                       String ackStreamKey, String groupName, ReplyAckMode replyAckMode) {
+                // 第一条广播命令的响应发布失败
+                if (replies.getAndIncrement() == 0) {
+                    throw new JedisConnectionException("连接中断");
+                }
+                return super.reply(replyStreamKey, chunks, entryID, ackStreamKey, groupName, replyAckMode);
+            }
+        };
+        StreamConfig streamConfig = StreamConfig.builder()
+                .idempotencyCacheSize(0)
+                .blockMillis(50)
+                .broadcastLabels(Collections.singletonList("all"))
+                .broadcastOffsetFile(offsetFile.getPath())
+                .build();
+        Thread dispatcher = new Thread(new StreamDispatcher(Collections.singletonList(handler), streamConfig, transport));
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        try {
+            // 修改类命令在工作线程中按顺序执行
+            StreamEntryID failed = transport.publish(broadcastKey, Map.of("dataOpType", "INSERT"));
+            transport.publish(broadcastKey, Map.of("dataOpType", "INSERT"));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            StreamEntryID offset = null;
+            while (System.currentTimeMillis() < deadline && (offset == null || offset.equals(new StreamEntryID()))) {
+                Thread.sleep(20);
+                offset = new BroadcastOffsets(offsetFile.getPath()).get(broadcastKey);
+            }
+            // 第二条命令已响应，但进度停在响应失败的第一条命令之前，重启后重新读取
+            assertEquals(BroadcastOffsets.previous(failed), offset);
+        } finally {
+            dispatcher.interrupt();
+            offsetFile.delete();
+        }
+    }
+
+    private static String status(Map<byte[], byte[]> reply) {
+        for (Map.Entry<byte[], byte[]> field : reply.entrySet()) {
+            if ("status".equals(SafeEncoder.encode(field.getKey()))) {
+                return SafeEncoder.encode(field.getValue());
+            }
+        }
+        return null;
+    }
+}
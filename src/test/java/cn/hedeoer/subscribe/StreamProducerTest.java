@@ -0,0 +1,238 @@
+package cn.hedeoer.subscribe;
+
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StreamProducerTest {
+
+    private static final StreamEntryID ENTRY_ID = new StreamEntryID(1000, 0);
+    private static final Map<byte[], byte[]> REPLY =
+            Collections.singletonMap(SafeEncoder.encode("status"), SafeEncoder.encode("200"));
+
+    @Test
+    public void failedPipelinedXaddNeverAcksWhenFallbackFails() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                    return "-ERR The ID specified in XADD is equal or smaller than the target stream top item";
+                case "EVALSHA":
+                    // 只检查响应是否存在的确认脚本：响应没有写入，不确认；原子发布响应并确认的脚本：连接中断
+                    return isAckIfRepliedScript(command) ? (Object) 0L : FakeRedisServer.DISCONNECT;
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "sub:agent:portRule");
+            try {
+                producer.publishReplyAndAck(REPLY, ENTRY_ID, "pub:agent:portRule", "group", ReplyAckMode.PIPELINE);
+                fail("发布响应失败时应当抛出异常");
+            } catch (JedisConnectionException expected) {
+                // 预期
+            }
+
+            for (List<String> command : server.getCommands()) {
+                assertNotEquals("XACK", command.get(0));
+            }
+        }
+    }
+
+    @Test
+    public void pipelinedAckRunsOnlyAfterXadd() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                    return ENTRY_ID.toString().getBytes(StandardCharsets.UTF_8);
+                case "EVALSHA":
+                    return 1L;
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "sub:agent:portRule");
+            assertEquals(ENTRY_ID, producer.publishReplyAndAck(REPLY, ENTRY_ID, "pub:agent:portRule", "group", ReplyAckMode.PIPELINE));
+
+            List<List<String>> commands = server.getCommands();
+            int xadd = indexOf(commands, "XADD");
+            int ack = indexOf(commands, "EVALSHA");
+            assertTrue(xadd >= 0 && ack > xadd);
+            assertTrue(isAckIfRepliedScript(commands.get(ack)));
+            assertEquals(-1, indexOf(commands, "XACK"));
+        }
+    }
+
+    @Test
+    public void chunkedReplyHonoursReplyAckMode() throws Exception {
+        List<Map<byte[], byte[]>> chunks = Arrays.asList(REPLY, REPLY, REPLY);
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                case "EVALSHA":
+                    return ENTRY_ID.toString().getBytes(StandardCharsets.UTF_8);
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "sub:agent:portRule");
+
+            // SCRIPT：所有分片和确认在同一个脚本中
+            producer.publishChunkedReplyAndAck(chunks, ENTRY_ID, "pub:agent:portRule", "group", ReplyAckMode.SCRIPT);
+            List<List<String>> commands = server.getCommands();
+            assertEquals(-1, indexOf(commands, "XADD"));
+            assertEquals(-1, indexOf(commands, "XACK"));
+            List<String> script = commands.get(indexOf(commands, "EVALSHA"));
+            // EVALSHA sha 2 key key group entryId chunkCount (fieldCount field value)*3
+            assertEquals("3", script.get(7));
+            assertEquals(8 + 3 * 3, script.size());
+
+            // PIPELINE：第一个分片和其余分片一起发送，确认在所有 XADD 之后
+            int before = server.getCommands().size();
+            producer.publishChunkedReplyAndAck(chunks, ENTRY_ID, "pub:agent:portRule", "group", ReplyAckMode.PIPELINE);
+            List<List<String>> pipelined = server.getCommands().subList(before, server.getCommands().size());
+            int lastXadd = -1;
+            int xadds = 0;
+            for (int i = 0; i < pipelined.size(); i++) {
+                if (pipelined.get(i).get(0).equals("XADD")) {
+                    lastXadd = i;
+                    xadds++;
+                }
+            }
+            assertEquals(3, xadds);
+            assertEquals(ENTRY_ID.toString(), pipelined.get(indexOf(pipelined, "XADD")).get(2));
+            assertTrue(indexOf(pipelined, "EVALSHA") > lastXadd);
+            assertEquals(-1, indexOf(pipelined, "XACK"));
+        }
+    }
+
+    @Test
+    public void chunkedReplyFallbackKeepsChunkOrder() throws Exception {
+        List<Map<byte[], byte[]>> chunks = Arrays.asList(REPLY, REPLY, REPLY);
+        long[] sequence = {2000};
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                    // 第一个分片的 entryId 小于 stream 中已有的最大ID，其余分片自动生成ID
+                    if (command.get(2).equals(ENTRY_ID.toString())) {
+                        return "-ERR The ID specified in XADD is equal or smaller than the target stream top item";
+                    }
+                    return (sequence[0]++ + "-0").getBytes(StandardCharsets.UTF_8);
+                case "EVALSHA":
+                    return isAckIfRepliedScript(command) ? (Object) 0L : "2002-0".getBytes(StandardCharsets.UTF_8);
+                case "XDEL":
+                    return (long) (command.size() - 2);
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "sub:agent:portRule");
+            assertEquals(new StreamEntryID(2002, 0),
+                    producer.publishChunkedReplyAndAck(chunks, ENTRY_ID, "pub:agent:portRule", "group", ReplyAckMode.PIPELINE));
+
+            // 已写在第一个分片之前的分片被删除，所有分片由脚本按顺序重新发布并确认
+            List<List<String>> commands = server.getCommands();
+            int xdel = indexOf(commands, "XDEL");
+            assertTrue(xdel >= 0);
+            assertEquals(Arrays.asList("XDEL", "sub:agent:portRule", "2000-0", "2001-0"), commands.get(xdel));
+            List<String> script = null;
+            for (int i = xdel + 1; i < commands.size(); i++) {
+                if (commands.get(i).get(0).equals("EVALSHA")) {
+                    script = commands.get(i);
+                }
+            }
+            assertNotNull(script);
+            assertEquals("3", script.get(7));
+            assertEquals(-1, indexOf(commands, "XACK"));
+        }
+    }
+
+    @Test
+    public void directReplyNeverAcksWhenXaddFails() throws Exception {
+        String wrongType = "-WRONGTYPE Operation against a key holding the wrong kind of value";
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                case "EVALSHA":
+                    // master节点指定的直接响应key不是 stream，确认脚本读取该key时同样报错
+                    return wrongType;
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "reply:agent:1");
+            try {
+                producer.publishDirectReplyAndAck(Arrays.asList(REPLY, REPLY), ENTRY_ID, "pub:agent:portRule", "group",
+                        60000, ReplyAckMode.PIPELINE);
+                fail("直接响应写入失败时应当抛出异常");
+            } catch (JedisDataException expected) {
+                // 预期
+            }
+            assertEquals(-1, indexOf(server.getCommands(), "XACK"));
+        }
+    }
+
+    @Test
+    public void directReplyHonoursReplyAckMode() throws Exception {
+        try (FakeRedisServer server = new FakeRedisServer(command -> {
+            switch (command.get(0)) {
+                case "XADD":
+                case "EVALSHA":
+                    return ENTRY_ID.toString().getBytes(StandardCharsets.UTF_8);
+                default:
+                    return "+OK";
+            }
+        });
+             Jedis jedis = new Jedis("127.0.0.1", server.getPort())) {
+            StreamProducer producer = new StreamProducer(jedis, "reply:agent:1");
+
+            // SCRIPT：所有分片、过期时间和确认在同一个脚本中
+            producer.publishDirectReplyAndAck(Arrays.asList(REPLY, REPLY), ENTRY_ID, "pub:agent:portRule", "group",
+                    60000, ReplyAckMode.SCRIPT);
+            List<List<String>> commands = server.getCommands();
+            assertEquals(-1, indexOf(commands, "XADD"));
+            assertEquals(-1, indexOf(commands, "XACK"));
+            assertTrue(server.script(commands.get(indexOf(commands, "EVALSHA")).get(1)).contains("PEXPIRE"));
+
+            // PIPELINE：确认脚本在所有 XADD 之后，检查全部分片
+            int before = server.getCommands().size();
+            producer.publishDirectReplyAndAck(Arrays.asList(REPLY, REPLY), ENTRY_ID, "pub:agent:portRule", "group",
+                    60000, ReplyAckMode.PIPELINE);
+            List<List<String>> pipelined = server.getCommands().subList(before, server.getCommands().size());
+            int ack = indexOf(pipelined, "EVALSHA");
+            assertTrue(ack > indexOf(pipelined, "PEXPIRE"));
+            assertEquals("2", pipelined.get(ack).get(pipelined.get(ack).size() - 1));
+            assertEquals(-1, indexOf(pipelined, "XACK"));
+        }
+    }
+
+    /**
+     * EVALSHA sha 2 响应streamKey 命令streamKey 消费者组 entryId
+     */
+    private static boolean isAckIfRepliedScript(List<String> command) {
+        return command.size() == 7;
+    }
+
+    private static int indexOf(List<List<String>> commands, String name) {
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i).get(0).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,34 @@
+package cn.hedeoer.subscribe.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PayloadCodecsTest {
+
+    @Test
+    public void negotiate() {
+        assertEquals("json", PayloadCodecs.negotiate(null).name());
+        assertEquals("json", PayloadCodecs.negotiate("").name());
+        assertEquals("smile", PayloadCodecs.negotiate("smile,json").name());
+        assertEquals("json", PayloadCodecs.negotiate("msgpack, JSON").name());
+        assertEquals("json", PayloadCodecs.negotiate("msgpack").name());
+    }
+
+    @Test
+    public void smileRoundTrip() {
+        List<Map<String, Object>> data = Arrays.asList(Map.of("port", 8080, "protocol", "tcp"), Map.of("port", 22));
+        byte[] smile = PayloadCodecs.SMILE.encode(data);
+        byte[] json = PayloadCodecs.JSON.encode(data);
+        assertTrue(smile.length < json.length);
+
+        List<Map<String, Object>> decoded = PayloadCodecs.SMILE.decode(smile, new TypeReference<List<Map<String, Object>>>() {
+        });
+        assertEquals(data, decoded);
+    }
+}
@@ -0,0 +1,49 @@
+package cn.hedeoer.subscribe.codec;
+
+import org.junit.Test;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PayloadCompressionTest {
+
+    @Test
+    public void compressIfLarge() {
+        StringBuilder data = new StringBuilder("[");
+        for (int port = 1; port <= 500; port++) {
+            data.append("{\"agentId\":\"a\",\"zone\":\"public\",\"family\":\"ipv4\",\"port\":").append(port).append("},");
+        }
+        data.append("{}]");
+        byte[] original = SafeEncoder.encode(data.toString());
+
+        Map<byte[], byte[]> message = new LinkedHashMap<>();
+        message.put(SafeEncoder.encode("status"), SafeEncoder.encode("200"));
+        message.put(SafeEncoder.encode("data"), original);
+
+        assertTrue(PayloadCompression.compressIfLarge(message, 4096));
+        byte[] compressed = null;
+        String compression = null;
+        for (Map.Entry<byte[], byte[]> field : message.entrySet()) {
+            String name = SafeEncoder.encode(field.getKey());
+            if ("data".equals(name)) {
+                compressed = field.getValue();
+            } else if (PayloadCompression.COMPRESSION_FIELD.equals(name)) {
+                compression = SafeEncoder.encode(field.getValue());
+            }
+        }
+        assertEquals(PayloadCompression.DEFLATE, compression);
+        assertTrue(compressed.length < original.length);
+        assertArrayEquals(original, PayloadCompression.inflate(compressed));
+    }
+
+    @Test
+    public void smallPayloadNotCompressed() {
+        Map<byte[], byte[]> message = new LinkedHashMap<>();
+        message.put(SafeEncoder.encode("data"), SafeEncoder.encode("[]"));
+        assertFalse(PayloadCompression.compressIfLarge(message, 4096));
+        assertEquals(1, message.size());
+    }
+}
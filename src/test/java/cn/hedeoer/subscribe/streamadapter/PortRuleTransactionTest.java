@@ -0,0 +1,145 @@
+package cn.hedeoer.subscribe.streamadapter;
+
+import cn.hedeoer.common.entity.PortRule;
+import cn.hedeoer.firewall.PortRuleService;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PortRuleTransactionTest {
+
+    @Test
+    public void commitsAllSteps() {
+        RecordingPortRuleService service = new RecordingPortRuleService(null);
+        PortRuleTransaction.TransactionResult result = new PortRuleTransaction(service).execute(List.of(
+                operation("DELETE", "public", rule("public", "80"), rule("public", "81")),
+                operation("INSERT", null, rule("internal", "443"))), "public");
+
+        assertTrue(result.isCommitted());
+        assertEquals(2, result.getSteps().size());
+        assertEquals("internal", result.getSteps().get(1).getZoneName());
+        assertEquals(List.of("delete public 80", "delete public 81", "insert internal 443"), service.calls);
+    }
+
+    @Test
+    public void rollsBackAppliedStepsInReverseOrder() {
+        // 第三条规则失败
+        RecordingPortRuleService service = new RecordingPortRuleService("insert public 8080");
+        PortRule old = rule("public", "22");
+        PortRule updated = rule("public", "2222");
+        PortRuleTransaction.TransactionResult result = new PortRuleTransaction(service).execute(List.of(
+                operation("INSERT", null, rule("public", "80")),
+                PortRuleTransaction.PortRuleOperation.builder().dataOpType("UPDATE").data(List.of(updated)).old(old).build(),
+                operation("INSERT", null, rule("public", "8080"))), "public");
+
+        assertFalse(result.isCommitted());
+        assertFalse(result.getSteps().get(2).isApplied());
+        assertEquals(Boolean.TRUE, result.getSteps().get(0).getRolledBack());
+        assertEquals(List.of("insert public 80", "update public 22->2222", "insert public 8080",
+                "update public 2222->22", "delete public 80"), service.calls);
+    }
+
+    @Test
+    public void partiallyAppliedStepIsMarkedRolledBack() {
+        // 第二步的第二条规则失败，第一条规则已执行
+        RecordingPortRuleService service = new RecordingPortRuleService("delete public 81");
+        PortRuleTransaction.TransactionResult result = new PortRuleTransaction(service).execute(List.of(
+                operation("INSERT", null, rule("public", "443")),
+                operation("DELETE", "public", rule("public", "80"), rule("public", "81"))), "public");
+
+        assertFalse(result.isCommitted());
+        PortRuleTransaction.StepResult failed = result.getSteps().get(1);
+        assertFalse(failed.isApplied());
+        assertEquals(Boolean.TRUE, failed.getRolledBack());
+        assertEquals(Boolean.TRUE, result.getSteps().get(0).getRolledBack());
+        assertEquals(List.of("insert public 443", "delete public 80", "delete public 81",
+                "insert public 80", "delete public 443"), service.calls);
+    }
+
+    @Test
+    public void failedStepWithoutAppliedRulesIsNotMarkedRolledBack() {
+        RecordingPortRuleService service = new RecordingPortRuleService("insert public 80");
+        PortRuleTransaction.TransactionResult result = new PortRuleTransaction(service).execute(List.of(
+                operation("INSERT", null, rule("public", "80"), rule("public", "81"))), "public");
+
+        assertFalse(result.isCommitted());
+        assertNull(result.getSteps().get(0).getRolledBack());
+    }
+
+    @Test
+    public void invalidOperationsAreNotApplied() {
+        RecordingPortRuleService service = new RecordingPortRuleService(null);
+        PortRuleTransaction.TransactionResult result = new PortRuleTransaction(service).execute(List.of(
+                operation("INSERT", null, rule("public", "80")),
+                PortRuleTransaction.PortRuleOperation.builder().dataOpType("UPDATE").data(List.of(rule("public", "81"))).build()),
+                "public");
+
+        assertFalse(result.isCommitted());
+        assertTrue(service.calls.isEmpty());
+    }
+
+    private static PortRuleTransaction.PortRuleOperation operation(String dataOpType, String zoneName, PortRule... rules) {
+        return PortRuleTransaction.PortRuleOperation.builder().dataOpType(dataOpType).zoneName(zoneName).data(List.of(rules)).build();
+    }
+
+    private static PortRule rule(String zone, String port) {
+        PortRule rule = PortRule.builder().port(port).protocol("tcp").build();
+        rule.setZone(zone);
+        return rule;
+    }
+
+    /**
+     * 记录调用顺序，指定的调用返回失败
+     */
+    private static class RecordingPortRuleService implements PortRuleService {
+        private final String failingCall;
+        private final List<String> calls = new ArrayList<>();
+
+        RecordingPortRuleService(String failingCall) {
+            this.failingCall = failingCall;
+        }
+
+        private Boolean record(String call) {
+            calls.add(call);
+            return !call.equals(failingCall);
+        }
+
+        @Override
+        public List<PortRule> queryAllPortRule(String zoneName) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Boolean addOrRemoveOnePortRule(String zoneName, PortRule portRule, String operation) {
+            return record(operation + " " + zoneName + " " + portRule.getPort());
+        }
+
+        @Override
+        public Boolean addOrRemoveBatchPortRules(String zoneName, List<PortRule> portRules, String operation) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<PortRule> queryPortRulesByUsingStatus(String zoneName, Boolean isUsing) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<PortRule> queryPortRulesByPolicy(String zoneName, Boolean policy) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<PortRule> queryPortRulesByPolicyAndUsingStatus(String zoneName, Boolean isUsing, Boolean policy) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Boolean updateOnePortRule(String zoneName, PortRule oldPortRule, PortRule newPortRule) {
+            return record("update " + zoneName + " " + oldPortRule.getPort() + "->" + newPortRule.getPort());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package cn.hedeoer.subscribe.transport;
+
+import cn.hedeoer.subscribe.ReplyAckMode;
+import cn.hedeoer.subscribe.StreamRetention;
+import org.junit.Test;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InMemoryTransportTest {
+
+    private static final String PUB = "pub:agent:portRule";
+    private static final String SUB = "sub:agent:portRule";
+    private static final String GROUP = "firewall_agent_group";
+
+    @Test
+    public void consumeReplyAndAck() {
+        InMemoryTransport transport = new InMemoryTransport();
+        CommandSubscription subscription = transport.subscribe(List.of(PUB), GROUP, GROUP + "_consumer", Collections.emptyMap());
+
+        StreamEntryID first = transport.publish(PUB, Map.of("dataOpType", "QUERY"));
+        StreamEntryID second = transport.publish(PUB, Map.of("dataOpType", "INSERT"));
+        assertTrue(second.compareTo(first) > 0);
+
+        Map<String, List<StreamEntry>> consumed = subscription.consume(10, 100);
+        assertEquals(2, consumed.get(PUB).size());
+        assertEquals(2, transport.getPendingCount(PUB, GROUP));
+        // 已投递的消息不会再次作为新消息读取
+        assertTrue(subscription.consume(10, 10).isEmpty());
+
+        transport.reply(SUB, List.of(Map.of(SafeEncoder.encode("status"), SafeEncoder.encode("200"))),
+                first, PUB, GROUP, ReplyAckMode.PIPELINE);
+        assertEquals(1, transport.getPendingCount(PUB, GROUP));
+        assertEquals(1, transport.getReplies(SUB).size());
+
+        // 未确认的消息可以被重新认领
+        Map.Entry<StreamEntryID, List<StreamEntry>> claimed = subscription.claimPending(PUB, new StreamEntryID(), 0, 10);
+        assertEquals(new StreamEntryID(), claimed.getKey());
+        assertEquals(1, claimed.getValue().size());
+        assertEquals(second, claimed.getValue().get(0).getID());
+    }
+
+    @Test
+    public void broadcastReadFromLastSeen() {
+        String broadcast = "broadcast:all:portRule";
+        InMemoryTransport transport = new InMemoryTransport();
+        StreamEntryID before = transport.publish(broadcast, Map.of("seq", "0"));
+
+        // 没有记录进度时从订阅时的最后一条之后开始读取
+        BroadcastSubscription latest = transport.subscribeBroadcast(List.of(broadcast), Collections.emptyMap(), "agent");
+        assertTrue(latest.read(10, 10).isEmpty());
+        StreamEntryID after = transport.publish(broadcast, Map.of("seq", "1"));
+        assertEquals(after, latest.read(10, 100).get(broadcast).get(0).getID());
+        assertTrue(latest.read(10, 10).isEmpty());
+
+        // 从记录的进度之后读取，多个agent节点各自读取同一条广播
+        BroadcastSubscription resumed = transport.subscribeBroadcast(List.of(broadcast), Map.of(broadcast, before), "agent2");
+        List<StreamEntry> entries = resumed.read(10, 100).get(broadcast);
+        assertEquals(1, entries.size());
+        assertEquals(after, entries.get(0).getID());
+    }
+
+    @Test
+    public void trimRepliesByLength() {
+        InMemoryTransport transport = new InMemoryTransport();
+        for (int i = 0; i < 5; i++) {
+            StreamEntryID entryID = transport.publish(PUB, Map.of("seq", String.valueOf(i)));
+            transport.reply(SUB, List.of(Map.of(SafeEncoder.encode("seq"), SafeEncoder.encode(String.valueOf(i)))),
+                    entryID, PUB, GROUP, ReplyAckMode.PIPELINE);
+        }
+
+        StreamRetention keepAll = StreamRetention.builder().maxAgeMillis(0).maxLen(0).build();
+        assertEquals(0, transport.trimReplies(SUB, keepAll));
+
+        assertEquals(3, transport.trimReplies(SUB, StreamRetention.builder().maxAgeMillis(0).maxLen(2).build()));
+        List<Map<byte[], byte[]>> replies = transport.getReplies(SUB);
+        assertEquals(2, replies.size());
+        // 保留最新的响应
+        assertEquals(1, replies.get(1).entrySet().stream()
+                .filter(e -> "seq".equals(SafeEncoder.encode(e.getKey())) && "4".equals(SafeEncoder.encode(e.getValue())))
+                .count());
+    }
+}